@@ -0,0 +1,69 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.adaptris.core.SerializableAdaptrisMessage;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Encoding and decoding a {@link VertXMessage} in each of the {@link WireFormat}s understood by {@link AdaptrisMessageCodec}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+  @Param({"0", "1"})
+  private byte wireFormat;
+
+  @Param({"1024", "65536"})
+  private int payloadSize;
+
+  private AdaptrisMessageCodec codec;
+
+  private VertXMessage message;
+
+  private Buffer encoded;
+
+  @Setup
+  public void setUp() {
+    codec = new AdaptrisMessageCodec();
+    StringBuilder payload = new StringBuilder(payloadSize);
+    while (payload.length() < payloadSize) {
+      payload.append("Hello World ");
+    }
+    SerializableAdaptrisMessage msg = new SerializableAdaptrisMessage("benchmark-message", payload.substring(0, payloadSize));
+    for (int i = 0; i < 10; i++) {
+      msg.addMetadata("key-" + i, "value-" + i);
+    }
+    message = new VertXMessage(msg);
+    message.setStartProcessingTime(System.currentTimeMillis());
+    message.getServiceRecord().addService(new InterlokService("service-1", ServiceState.COMPLETE));
+    message.getServiceRecord().addService(new InterlokService("service-2", ServiceState.COMPLETE));
+    message.setWireFormatId(wireFormat);
+    encoded = Buffer.buffer();
+    codec.encodeToWire(encoded, message);
+  }
+
+  @Benchmark
+  public Buffer encode() {
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    return buffer;
+  }
+
+  @Benchmark
+  public VertXMessage decode() {
+    return codec.decodeFromWire(0, encoded);
+  }
+}
@@ -0,0 +1,65 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.core.CoreException;
+import com.adaptris.core.DefaultMessageFactory;
+import com.adaptris.core.SerializableAdaptrisMessage;
+
+/**
+ * Building a {@link VertXMessage}; through the translator, the {@link VertXMessage.Builder}, and the default constructor and
+ * setters that allocate a throwaway message and record first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VertXMessageBenchmark {
+
+  private VertXMessageTranslator translator;
+
+  private AdaptrisMessage adaptrisMessage;
+
+  private SerializableAdaptrisMessage serializableMessage;
+
+  private ServiceRecord record;
+
+  @Setup
+  public void setUp() throws CoreException {
+    translator = new VertXMessageTranslator();
+    adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage("Hello World");
+    adaptrisMessage.addMetadata("key", "value");
+    serializableMessage = new SerializableAdaptrisMessage("benchmark-message", "Hello World");
+    record = new ServiceRecord();
+  }
+
+  @Benchmark
+  public VertXMessage translate() throws CoreException {
+    return translator.translate(adaptrisMessage);
+  }
+
+  @Benchmark
+  public VertXMessage builder() {
+    return VertXMessage.builder().adaptrisMessage(serializableMessage).serviceRecord(record).startProcessingTime(10L).build();
+  }
+
+  @Benchmark
+  public VertXMessage setters() {
+    VertXMessage result = new VertXMessage();
+    // The allocations the default constructor used to make up front.
+    result.getAdaptrisMessage();
+    result.getServiceRecord();
+    result.setAdaptrisMessage(serializableMessage);
+    result.setServiceRecord(record);
+    result.setStartProcessingTime(10L);
+    return result;
+  }
+}
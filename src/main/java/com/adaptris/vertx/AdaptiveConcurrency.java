@@ -0,0 +1,180 @@
+package com.adaptris.vertx;
+
+import com.adaptris.annotation.AdvancedConfig;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Adjusts how many messages may be waiting for a reply from the cluster, according to how long the replies take; rather than
+ * always allowing up to queue-capacity.
+ * </p>
+ * <p>
+ * The round trip time of each reply is measured from when the message is sent. While it stays within
+ * {@link #setTolerancePercent(Integer)} of its long term average the limit grows, and when it climbs past that (or messages
+ * fail or expire) the limit is cut; either:
+ * </p>
+ * <ul>
+ * <li>{@link Algorithm#GRADIENT} - in proportion to how much the recent round trip time exceeds the long term average.</li>
+ * <li>{@link Algorithm#AIMD} - by one for every limit's worth of replies; and cut to {@link #setBackoffPercent(Integer)} of
+ * itself, at most once for every limit's worth of replies.</li>
+ * </ul>
+ * <p>
+ * The limit never goes below {@link #setMinLimit(Integer)}, or above {@link #setMaxLimit(Integer)}. Only applies to the "single"
+ * target send mode.
+ * </p>
+ *
+ * @config clustered-adaptive-concurrency
+ */
+@XStreamAlias("clustered-adaptive-concurrency")
+@ComponentProfile(summary = "Adapt the number of clustered messages in flight to the reply times", tag = "clustering,vertx")
+public class AdaptiveConcurrency {
+
+  /**
+   * How the limit is adjusted.
+   */
+  public enum Algorithm {
+    GRADIENT,
+    AIMD
+  }
+
+  private static final int DEFAULT_INITIAL_LIMIT = 20;
+
+  private static final int DEFAULT_MIN_LIMIT = 1;
+
+  private static final int DEFAULT_TOLERANCE_PERCENT = 150;
+
+  private static final int DEFAULT_BACKOFF_PERCENT = 90;
+
+  @InputFieldDefault(value = "GRADIENT")
+  private Algorithm algorithm;
+
+  @InputFieldDefault(value = "20")
+  private Integer initialLimit;
+
+  @InputFieldDefault(value = "1")
+  private Integer minLimit;
+
+  private Integer maxLimit;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "150")
+  private Integer tolerancePercent;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "90")
+  private Integer backoffPercent;
+
+  public AdaptiveConcurrency() {
+  }
+
+  public AdaptiveConcurrency(Algorithm algorithm) {
+    this();
+    setAlgorithm(algorithm);
+  }
+
+  Algorithm algorithm() {
+    return getAlgorithm() != null ? getAlgorithm() : Algorithm.GRADIENT;
+  }
+
+  int minLimit() {
+    return Math.max(1, NumberUtils.toIntDefaultIfNull(getMinLimit(), DEFAULT_MIN_LIMIT));
+  }
+
+  int maxLimit(int queueCapacity) {
+    return Math.max(minLimit(), NumberUtils.toIntDefaultIfNull(getMaxLimit(), queueCapacity));
+  }
+
+  int initialLimit(int queueCapacity) {
+    return Math.max(minLimit(), Math.min(maxLimit(queueCapacity),
+        NumberUtils.toIntDefaultIfNull(getInitialLimit(), DEFAULT_INITIAL_LIMIT)));
+  }
+
+  double tolerance() {
+    return Math.max(100, NumberUtils.toIntDefaultIfNull(getTolerancePercent(), DEFAULT_TOLERANCE_PERCENT)) / 100.0;
+  }
+
+  double backoff() {
+    return Math.max(1, Math.min(99, NumberUtils.toIntDefaultIfNull(getBackoffPercent(), DEFAULT_BACKOFF_PERCENT))) / 100.0;
+  }
+
+  public Algorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Set how the limit is adjusted.
+   *
+   * @param algorithm the algorithm, default is {@link Algorithm#GRADIENT}.
+   */
+  public void setAlgorithm(Algorithm algorithm) {
+    this.algorithm = algorithm;
+  }
+
+  public Integer getInitialLimit() {
+    return initialLimit;
+  }
+
+  /**
+   * Set the limit to start with.
+   *
+   * @param i the initial limit, default is 20.
+   */
+  public void setInitialLimit(Integer i) {
+    this.initialLimit = i;
+  }
+
+  public Integer getMinLimit() {
+    return minLimit;
+  }
+
+  /**
+   * Set the lowest the limit may go.
+   *
+   * @param i the minimum limit, default is 1.
+   */
+  public void setMinLimit(Integer i) {
+    this.minLimit = i;
+  }
+
+  public Integer getMaxLimit() {
+    return maxLimit;
+  }
+
+  /**
+   * Set the highest the limit may go.
+   *
+   * @param i the maximum limit; defaults to the queue-capacity of the workflow, which it cannot usefully exceed.
+   */
+  public void setMaxLimit(Integer i) {
+    this.maxLimit = i;
+  }
+
+  public Integer getTolerancePercent() {
+    return tolerancePercent;
+  }
+
+  /**
+   * Set how far the recent round trip time may rise above its long term average before the limit is cut.
+   *
+   * @param i the tolerance as a percentage of the long term average, default is 150.
+   */
+  public void setTolerancePercent(Integer i) {
+    this.tolerancePercent = i;
+  }
+
+  public Integer getBackoffPercent() {
+    return backoffPercent;
+  }
+
+  /**
+   * Set how much of the limit is kept when it is cut by {@link Algorithm#AIMD}, or when messages fail.
+   *
+   * @param i the percentage of the limit to keep, default is 90.
+   */
+  public void setBackoffPercent(Integer i) {
+    this.backoffPercent = i;
+  }
+}
@@ -0,0 +1,179 @@
+package com.adaptris.vertx;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of messages in flight, adjusting the limit from the round trip time of each reply.
+ * <p>
+ * Two moving averages of the round trip time are kept: a fast one for the recent time, and a slow one for the long term. The
+ * limit only grows while at least half of it is being used; so that a quiet period doesn't leave it far above what the cluster
+ * can actually take.
+ * </p>
+ */
+class AdaptiveLimiter {
+
+  private static final double FAST = 0.2;
+
+  private static final double SLOW = 0.02;
+
+  private static final double SMOOTHING = 0.2;
+
+  private static final double MIN_GRADIENT = 0.5;
+
+  private final AdaptiveConcurrency.Algorithm algorithm;
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final double tolerance;
+
+  private final double backoff;
+
+  private final ReentrantLock lock = new ReentrantLock(true);
+
+  private final Condition available = lock.newCondition();
+
+  // message id to when it was sent; 0 until then.
+  private final Map<String, Long> inFlight = new HashMap<>();
+
+  private double limit;
+
+  private double recentRtt;
+
+  private double longRtt;
+
+  private int sinceDecrease;
+
+  AdaptiveLimiter(AdaptiveConcurrency config, int queueCapacity) {
+    algorithm = config.algorithm();
+    minLimit = config.minLimit();
+    maxLimit = config.maxLimit(queueCapacity);
+    tolerance = config.tolerance();
+    backoff = config.backoff();
+    limit = config.initialLimit(queueCapacity);
+    sinceDecrease = (int) limit;
+  }
+
+  /**
+   * Wait until there is room for another message.
+   */
+  void acquire(String messageId) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (inFlight.size() >= limit()) {
+        available.await();
+      }
+      inFlight.put(messageId, 0L);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean tryAcquire(String messageId, long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (inFlight.size() >= limit()) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = available.awaitNanos(nanos);
+      }
+      inFlight.put(messageId, 0L);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The round trip time is measured from now.
+   */
+  void sent(String messageId) {
+    lock.lock();
+    try {
+      inFlight.replace(messageId, System.nanoTime());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The message has been answered; or, if {@code dropped}, has failed or expired.
+   */
+  void released(String messageId, boolean dropped) {
+    long now = System.nanoTime();
+    lock.lock();
+    try {
+      Long sent = inFlight.remove(messageId);
+      if (sent == null) {
+        return;
+      }
+      if (dropped) {
+        decrease();
+      } else if (sent > 0) {
+        sample(TimeUnit.NANOSECONDS.toMicros(now - sent) / 1000.0);
+      }
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void sample(double rttMs) {
+    lock.lock();
+    try {
+      recentRtt = recentRtt == 0 ? rttMs : recentRtt + FAST * (rttMs - recentRtt);
+      longRtt = longRtt == 0 ? rttMs : longRtt + SLOW * (rttMs - longRtt);
+      sinceDecrease++;
+      boolean saturated = inFlight.size() * 2 >= limit;
+      if (algorithm == AdaptiveConcurrency.Algorithm.AIMD) {
+        if (recentRtt > tolerance * longRtt) {
+          decrease();
+        } else if (saturated) {
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+      } else {
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longRtt / Math.max(recentRtt, Double.MIN_VALUE)));
+        double target = limit * gradient + (saturated ? Math.sqrt(limit) : 0);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + Math.min(target, maxLimit) * SMOOTHING));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // at most once for each limit's worth of replies; one slow spell shouldn't take it all the way down.
+  private void decrease() {
+    if (sinceDecrease >= limit) {
+      limit = Math.max(minLimit, limit * backoff);
+      sinceDecrease = 0;
+    }
+  }
+
+  /**
+   * The current limit.
+   */
+  int limit() {
+    lock.lock();
+    try {
+      return Math.max(minLimit, (int) limit);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int inFlight() {
+    lock.lock();
+    try {
+      return inFlight.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -1,17 +1,40 @@
 package com.adaptris.vertx;
 
-import org.apache.activemq.util.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adaptris.core.AdaptrisMarshaller;
 import com.adaptris.core.CoreException;
 import com.adaptris.core.XStreamJsonMarshaller;
+import com.adaptris.vertx.util.BufferOutputStream;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.MessageCodec;
 
+/**
+ * The codec used to send {@link VertXMessage} instances across the cluster.
+ * <p>
+ * Messages are marshalled directly into the target wire {@link Buffer}, and unmarshalled from a stream view over the underlying
+ * Netty {@link ByteBuf}; so no intermediate {@link String} or {@code byte[]} copies of the message are made in either direction.
+ * </p>
+ * <p>
+ * The codec understands more than one {@link WireFormat}. Frames in anything other than the XStream JSON format start with a
+ * marker byte followed by the format id and version; XStream JSON frames are written without that header so that nodes running
+ * earlier versions of this codec can still read them. The format used for any given message is chosen by the sender (see
+ * {@link WireFormatNegotiator}), and replies are always written in the same format as the request that was received.
+ * </p>
+ */
 @XStreamAlias("clustered-adaptris-message-codec")
 public class AdaptrisMessageCodec implements MessageCodec<VertXMessage, VertXMessage> {
 
@@ -19,32 +42,79 @@ public class AdaptrisMessageCodec implements MessageCodec<VertXMessage, VertXMes
 
   private static final String CODEC_NAME = "AdaptrisVertXMessageCodec";
 
+  static final byte XSTREAM_JSON = 0;
+
+  // Can never be the first byte of an XStream JSON document.
+  static final byte FRAME_MARKER = (byte) 0xAD;
+
   private AdaptrisMarshaller marshaller;
 
+  private transient Map<Byte, WireFormat> wireFormats;
+
+  private transient final CodecStatistics statistics = new CodecStatistics();
+
   public AdaptrisMessageCodec() {
     marshaller = new XStreamJsonMarshaller();
+    // in order of preference, fastest first.
+    wireFormats = new LinkedHashMap<>();
+    register(new BinaryWireFormat());
+    register(new XStreamWireFormat());
+  }
+
+  private void register(WireFormat format) {
+    wireFormats.put(format.id(), format);
   }
 
   @Override
   public void encodeToWire(Buffer buffer, VertXMessage xMessage) {
+    WireFormat format = wireFormats.getOrDefault(xMessage.getWireFormatId(), wireFormats.get(XSTREAM_JSON));
+    long started = System.nanoTime();
+    int start = buffer.length();
     try {
-      String serialisedString = marshaller.marshal(xMessage);
-      buffer.appendBytes(serialisedString.getBytes());
-    } catch (CoreException e) {
-      e.printStackTrace();
+      if (format.id() != XSTREAM_JSON) {
+        buffer.appendByte(FRAME_MARKER).appendByte(format.id()).appendByte(format.version());
+      }
+      format.write(xMessage, new BufferOutputStream(buffer));
+      statistics.encoded(System.nanoTime() - started, buffer.length() - start);
+    } catch (IOException e) {
+      log.error("Could not encode message to the wire", e);
     }
   }
 
   @Override
   public VertXMessage decodeFromWire(int pos, Buffer buffer) {
-    try {
-      return (VertXMessage) marshaller.unmarshal(new ByteArrayInputStream(buffer.getBytes(pos, buffer.length())));
-    } catch (CoreException e) {
-      e.printStackTrace();
+    byte formatId = XSTREAM_JSON;
+    byte version = 0;
+    int bodyPos = pos;
+    if (buffer.length() > pos && buffer.getByte(pos) == FRAME_MARKER) {
+      formatId = buffer.getByte(pos + 1);
+      version = buffer.getByte(pos + 2);
+      bodyPos = pos + 3;
+    }
+    long started = System.nanoTime();
+    WireFormat format = wireFormats.get(formatId);
+    if (format == null) {
+      log.error("Could not decode message from the wire, unknown wire format {}", formatId);
+      return null;
+    }
+    // getByteBuf() is a duplicate view, so moving the reader index does not copy or modify the wire buffer.
+    ByteBuf view = buffer.getByteBuf();
+    view.readerIndex(bodyPos);
+    try (InputStream in = new ByteBufInputStream(view)) {
+      VertXMessage result = format.read(in, version);
+      result.setWireFormatId(formatId);
+      statistics.decoded(System.nanoTime() - started, view.readerIndex() - pos);
+      return result;
+    } catch (Exception e) {
+      log.error("Could not decode message from the wire", e);
     }
     return null;
   }
 
+  CodecStatistics statistics() {
+    return statistics;
+  }
+
   @Override
   public VertXMessage transform(VertXMessage xMessage) {
     return xMessage;
@@ -60,6 +130,13 @@ public class AdaptrisMessageCodec implements MessageCodec<VertXMessage, VertXMes
     return -1;
   }
 
+  /**
+   * The ids of the wire formats this codec can read and write, fastest first.
+   */
+  List<Byte> supportedWireFormats() {
+    return new ArrayList<>(wireFormats.keySet());
+  }
+
   public AdaptrisMarshaller getMarshaller() {
     return marshaller;
   }
@@ -68,4 +145,55 @@ public class AdaptrisMessageCodec implements MessageCodec<VertXMessage, VertXMes
     this.marshaller = marshaller;
   }
 
+  private class XStreamWireFormat implements WireFormat {
+
+    @Override
+    public byte id() {
+      return XSTREAM_JSON;
+    }
+
+    @Override
+    public byte version() {
+      return 0;
+    }
+
+    @Override
+    public void write(VertXMessage message, OutputStream out) throws IOException {
+      // Nodes running earlier versions expect the record to be there; XStream doesn't run the constructor that would create it.
+      // Nor can they read states they don't know, so an expired service goes as a failed one, with the expiry as its exception.
+      List<InterlokService> expired = new ArrayList<>();
+      for (InterlokService service : message.getServiceRecord().getServices()) {
+        if (service.getState() == ServiceState.EXPIRED) {
+          expired.add(service);
+          service.setState(ServiceState.ERROR);
+        }
+      }
+      List<Exception> causes = new ArrayList<>();
+      for (InterlokService service : expired) {
+        causes.add(service.getException());
+        if (service.getException() == null) {
+          service.setException(new ServiceRecordException("Deadline passed before the service could be run"));
+        }
+      }
+      try {
+        getMarshaller().marshal(message, out);
+      } catch (CoreException e) {
+        throw new IOException(e);
+      } finally {
+        for (int i = 0; i < expired.size(); i++) {
+          expired.get(i).setState(ServiceState.EXPIRED);
+          expired.get(i).setException(causes.get(i));
+        }
+      }
+    }
+
+    @Override
+    public VertXMessage read(InputStream in, byte version) throws IOException {
+      try {
+        return (VertXMessage) getMarshaller().unmarshal(in);
+      } catch (CoreException e) {
+        throw new IOException(e);
+      }
+    }
+  }
 }
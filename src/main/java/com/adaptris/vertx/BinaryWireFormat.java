@@ -0,0 +1,150 @@
+package com.adaptris.vertx;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.adaptris.core.MetadataElement;
+import com.adaptris.core.SerializableAdaptrisMessage;
+
+/**
+ * A compact length-prefixed binary {@link WireFormat}, that avoids the reflection and text processing overhead of XStream.
+ * <p>
+ * Exceptions recorded against services are not sent using Java serialization; they are transported as their class name and
+ * message and rebuilt as a {@link ServiceRecordException} on the receiving side.
+ * </p>
+ * <p>
+ * The timings of the {@link ServiceRecord} follow everything else, so that nodes that don't know about them can read the frame
+ * and ignore the rest.
+ * </p>
+ */
+class BinaryWireFormat implements WireFormat {
+
+  static final byte ID = 1;
+
+  private static final byte VERSION = 1;
+
+  @Override
+  public byte id() {
+    return ID;
+  }
+
+  @Override
+  public byte version() {
+    return VERSION;
+  }
+
+  @Override
+  public void write(VertXMessage message, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    SerializableAdaptrisMessage msg = message.getAdaptrisMessage();
+    writeString(data, msg.getUniqueId());
+    writeString(data, msg.getContent());
+    writeString(data, msg.getContentEncoding());
+    writeString(data, msg.getNextServiceId());
+    Set<MetadataElement> metadata = msg.getMetadata();
+    data.writeInt(metadata.size());
+    for (MetadataElement e : metadata) {
+      writeString(data, e.getKey());
+      writeString(data, e.getValue());
+    }
+    data.writeLong(message.getStartProcessingTime());
+    List<InterlokService> services = message.getServiceRecord().getServices();
+    data.writeInt(services.size());
+    for (InterlokService s : services) {
+      writeString(data, s.getId());
+      writeString(data, s.getState().name());
+      Exception e = s.getException();
+      data.writeBoolean(e != null);
+      if (e != null) {
+        writeString(data, e.getClass().getName() + ": " + e.getMessage());
+      }
+    }
+    writeTimings(data, message.getServiceRecord());
+    data.flush();
+  }
+
+  @Override
+  public VertXMessage read(InputStream in, byte version) throws IOException {
+    if (version > VERSION) {
+      throw new IOException("Unsupported binary wire format version " + version);
+    }
+    DataInputStream data = new DataInputStream(in);
+    SerializableAdaptrisMessage msg = new SerializableAdaptrisMessage(readString(data));
+    msg.setContent(readString(data));
+    msg.setContentEncoding(readString(data));
+    msg.setNextServiceId(readString(data));
+    int metadataCount = data.readInt();
+    Set<MetadataElement> metadata = new HashSet<>(metadataCount * 2);
+    for (int i = 0; i < metadataCount; i++) {
+      metadata.add(new MetadataElement(readString(data), readString(data)));
+    }
+    msg.setMetadata(metadata);
+    long startProcessingTime = data.readLong();
+    int serviceCount = data.readInt();
+    List<InterlokService> services = new ArrayList<>(serviceCount);
+    for (int i = 0; i < serviceCount; i++) {
+      InterlokService service = new InterlokService(readString(data), ServiceState.valueOf(readString(data)));
+      if (data.readBoolean()) {
+        service.setException(new ServiceRecordException(readString(data)));
+      }
+      services.add(service);
+    }
+    ServiceRecord record = new ServiceRecord();
+    record.setServices(services);
+    if (data.available() > 0) {
+      readTimings(data, record);
+    }
+    return VertXMessage.builder().adaptrisMessage(msg).serviceRecord(record).startProcessingTime(startProcessingTime).build();
+  }
+
+  private static void writeTimings(DataOutputStream out, ServiceRecord record) throws IOException {
+    out.writeLong(record.getQueueWaitNanos());
+    writeString(out, record.getNodeId());
+    out.writeLong(record.getReceivedAt());
+    out.writeLong(record.getRemoteNanos());
+    for (InterlokService s : record.getServices()) {
+      out.writeLong(s.getStartNanos());
+      out.writeLong(s.getEndNanos());
+    }
+  }
+
+  private static void readTimings(DataInputStream in, ServiceRecord record) throws IOException {
+    record.setQueueWaitNanos(in.readLong());
+    record.setNodeId(readString(in));
+    record.setReceivedAt(in.readLong());
+    record.setRemoteNanos(in.readLong());
+    for (InterlokService s : record.getServices()) {
+      s.setStartNanos(in.readLong());
+      s.setEndNanos(in.readLong());
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
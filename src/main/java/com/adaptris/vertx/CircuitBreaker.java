@@ -0,0 +1,202 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.Valid;
+
+import com.adaptris.annotation.AdvancedConfig;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.adaptris.util.TimeInterval;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Stops sending messages to a target that is failing; so that they fail straight away, rather than each one waiting for its
+ * timeout while holding up the queue.
+ * </p>
+ * <p>
+ * Each target has its own circuit, which starts closed. The outcome of the last {@link #setWindowSize(Integer)} messages sent to
+ * the target is kept (a message that is retried counts once, by its final outcome); once there are at least
+ * {@link #setMinimumCalls(Integer)} of them, the circuit opens if the percentage that failed reaches
+ * {@link #setFailureRatePercent(Integer)}, or the percentage that took longer than {@link #setSlowCallDuration(TimeInterval)}
+ * reaches {@link #setSlowCallRatePercent(Integer)}.
+ * </p>
+ * <p>
+ * While the circuit is open every message for the target fails immediately, and is handled by the message-error-handler. After
+ * {@link #setOpenDuration(TimeInterval)} the circuit is half-open: {@link #setHalfOpenProbes(Integer)} messages are let through,
+ * and if they all succeed the circuit closes, otherwise it opens again.
+ * </p>
+ * <p>
+ * Only applies to messages that expect a reply.
+ * </p>
+ *
+ * @config clustered-circuit-breaker
+ */
+@XStreamAlias("clustered-circuit-breaker")
+@ComponentProfile(summary = "Fail clustered messages fast while their target is failing", tag = "clustering,vertx")
+public class CircuitBreaker {
+
+  private static final int DEFAULT_FAILURE_RATE = 50;
+
+  private static final int DEFAULT_SLOW_CALL_RATE = 100;
+
+  private static final int DEFAULT_MINIMUM_CALLS = 10;
+
+  private static final int DEFAULT_WINDOW_SIZE = 20;
+
+  private static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+  private static final TimeInterval DEFAULT_OPEN_DURATION = new TimeInterval(30L, TimeUnit.SECONDS);
+
+  @InputFieldDefault(value = "50")
+  private Integer failureRatePercent;
+
+  @Valid
+  private TimeInterval slowCallDuration;
+
+  @InputFieldDefault(value = "100")
+  private Integer slowCallRatePercent;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "10")
+  private Integer minimumCalls;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "20")
+  private Integer windowSize;
+
+  @Valid
+  @InputFieldDefault(value = "30 seconds")
+  private TimeInterval openDuration;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "3")
+  private Integer halfOpenProbes;
+
+  public CircuitBreaker() {
+  }
+
+  int failureRatePercent() {
+    return NumberUtils.toIntDefaultIfNull(getFailureRatePercent(), DEFAULT_FAILURE_RATE);
+  }
+
+  /**
+   * How long a call may take before it is slow; or -1 if calls are never slow.
+   */
+  long slowCallMs() {
+    return getSlowCallDuration() != null ? getSlowCallDuration().toMilliseconds() : -1;
+  }
+
+  int slowCallRatePercent() {
+    return NumberUtils.toIntDefaultIfNull(getSlowCallRatePercent(), DEFAULT_SLOW_CALL_RATE);
+  }
+
+  int windowSize() {
+    return Math.max(1, NumberUtils.toIntDefaultIfNull(getWindowSize(), DEFAULT_WINDOW_SIZE));
+  }
+
+  int minimumCalls() {
+    return Math.max(1, Math.min(windowSize(), NumberUtils.toIntDefaultIfNull(getMinimumCalls(), DEFAULT_MINIMUM_CALLS)));
+  }
+
+  long openDurationMs() {
+    return TimeInterval.toMillisecondsDefaultIfNull(getOpenDuration(), DEFAULT_OPEN_DURATION);
+  }
+
+  int halfOpenProbes() {
+    return Math.max(1, NumberUtils.toIntDefaultIfNull(getHalfOpenProbes(), DEFAULT_HALF_OPEN_PROBES));
+  }
+
+  public Integer getFailureRatePercent() {
+    return failureRatePercent;
+  }
+
+  /**
+   * Set the percentage of failed messages that opens the circuit.
+   *
+   * @param i the percentage, default is 50.
+   */
+  public void setFailureRatePercent(Integer i) {
+    this.failureRatePercent = i;
+  }
+
+  public TimeInterval getSlowCallDuration() {
+    return slowCallDuration;
+  }
+
+  /**
+   * Set how long a reply may take before the message counts as slow.
+   *
+   * @param t the duration; if not configured, the reply time is ignored.
+   */
+  public void setSlowCallDuration(TimeInterval t) {
+    this.slowCallDuration = t;
+  }
+
+  public Integer getSlowCallRatePercent() {
+    return slowCallRatePercent;
+  }
+
+  /**
+   * Set the percentage of slow messages that opens the circuit.
+   *
+   * @param i the percentage, default is 100.
+   */
+  public void setSlowCallRatePercent(Integer i) {
+    this.slowCallRatePercent = i;
+  }
+
+  public Integer getMinimumCalls() {
+    return minimumCalls;
+  }
+
+  /**
+   * Set the fewest messages there have to be before the circuit can open.
+   *
+   * @param i the minimum, default is 10.
+   */
+  public void setMinimumCalls(Integer i) {
+    this.minimumCalls = i;
+  }
+
+  public Integer getWindowSize() {
+    return windowSize;
+  }
+
+  /**
+   * Set the number of recent messages the rates are worked out from.
+   *
+   * @param i the number of messages, default is 20.
+   */
+  public void setWindowSize(Integer i) {
+    this.windowSize = i;
+  }
+
+  public TimeInterval getOpenDuration() {
+    return openDuration;
+  }
+
+  /**
+   * Set how long the circuit stays open before messages are let through to test it.
+   *
+   * @param t the duration, default is 30 seconds.
+   */
+  public void setOpenDuration(TimeInterval t) {
+    this.openDuration = t;
+  }
+
+  public Integer getHalfOpenProbes() {
+    return halfOpenProbes;
+  }
+
+  /**
+   * Set how many messages are let through while the circuit is half-open.
+   *
+   * @param i the number of messages, default is 3.
+   */
+  public void setHalfOpenProbes(Integer i) {
+    this.halfOpenProbes = i;
+  }
+}
@@ -0,0 +1,181 @@
+package com.adaptris.vertx;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A circuit for each target; see {@link CircuitBreaker}.
+ * <p>
+ * Every message that is {@link #allow(String) allowed} through has its outcome {@link #record(String, long, boolean, long)
+ * recorded} exactly once, with the ticket it was allowed through with. The ticket says which state the circuit was in at the time;
+ * an outcome only counts if the circuit hasn't changed state since, so that messages sent before the circuit opened can't close
+ * (or re-open) it as if they were probes.
+ * </p>
+ */
+class CircuitBreakers {
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final CircuitBreaker config;
+
+  private final Supplier<ClusterStatistics> statistics;
+
+  /**
+   * The ticket for a message that isn't allowed through.
+   */
+  static final long REJECTED = -1;
+
+  private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+  private final LongSupplier clock;
+
+  CircuitBreakers(CircuitBreaker config, Supplier<ClusterStatistics> statistics) {
+    this(config, statistics, System::nanoTime);
+  }
+
+  /**
+   * @param clock the time in nanoseconds, see {@link System#nanoTime()}.
+   */
+  CircuitBreakers(CircuitBreaker config, Supplier<ClusterStatistics> statistics, LongSupplier clock) {
+    this.config = config;
+    this.statistics = statistics;
+    this.clock = clock;
+  }
+
+  /**
+   * Whether a message may be sent to the target.
+   * 
+   * @return the ticket to record the outcome with, or {@link #REJECTED}.
+   */
+  long allow(String target) {
+    return circuit(target).allow(clock.getAsLong());
+  }
+
+  /**
+   * The outcome of a message that was allowed through.
+   * 
+   * @param ticket what {@link #allow(String)} returned for the message.
+   */
+  void record(String target, long ticket, boolean succeeded, long elapsedMs) {
+    long slowMs = config.slowCallMs();
+    circuit(target).record(clock.getAsLong(), ticket, !succeeded, slowMs >= 0 && elapsedMs > slowMs);
+  }
+
+  State state(String target) {
+    Circuit circuit = circuits.get(target);
+    return circuit != null ? circuit.state() : State.CLOSED;
+  }
+
+  /**
+   * The state of the circuit for each target.
+   */
+  Map<String, State> states() {
+    Map<String, State> result = new LinkedHashMap<>();
+    circuits.forEach((target, circuit) -> result.put(target, circuit.state()));
+    return result;
+  }
+
+  private Circuit circuit(String target) {
+    return circuits.computeIfAbsent(target, t -> new Circuit());
+  }
+
+  private class Circuit {
+    private final boolean[] failed = new boolean[config.windowSize()];
+    private final boolean[] slow = new boolean[config.windowSize()];
+    private int next;
+    private int calls;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probes;
+    private int probesSucceeded;
+    // changes along with the state.
+    private long generation;
+
+    synchronized State state() {
+      return state;
+    }
+
+    synchronized long allow(long now) {
+      if (state == State.OPEN) {
+        if (now - openedAt < TimeUnit.MILLISECONDS.toNanos(config.openDurationMs())) {
+          statistics.get().circuitRejected();
+          return REJECTED;
+        }
+        state = State.HALF_OPEN;
+        generation++;
+        probes = 0;
+        probesSucceeded = 0;
+        statistics.get().circuitHalfOpened();
+      }
+      if (state == State.HALF_OPEN) {
+        if (probes >= config.halfOpenProbes()) {
+          statistics.get().circuitRejected();
+          return REJECTED;
+        }
+        probes++;
+      }
+      return generation;
+    }
+
+    synchronized void record(long now, long ticket, boolean failure, boolean slowCall) {
+      if (ticket != generation) {
+        // allowed through before the circuit last changed state; too late to matter.
+        return;
+      }
+      switch (state) {
+      case HALF_OPEN:
+        if (failure || slowCall) {
+          open(now);
+        } else if (++probesSucceeded >= config.halfOpenProbes()) {
+          close();
+        }
+        break;
+      case CLOSED:
+        failed[next] = failure;
+        slow[next] = slowCall;
+        next = (next + 1) % failed.length;
+        calls = Math.min(calls + 1, failed.length);
+        if (calls >= config.minimumCalls() && (percent(failed) >= config.failureRatePercent()
+            || config.slowCallMs() >= 0 && percent(slow) >= config.slowCallRatePercent())) {
+          open(now);
+        }
+        break;
+      default:
+        break;
+      }
+    }
+
+    private int percent(boolean[] outcomes) {
+      int count = 0;
+      for (int i = 0; i < calls; i++) {
+        if (outcomes[i]) {
+          count++;
+        }
+      }
+      return count * 100 / calls;
+    }
+
+    private void open(long now) {
+      state = State.OPEN;
+      generation++;
+      openedAt = now;
+      statistics.get().circuitOpened();
+    }
+
+    private void close() {
+      state = State.CLOSED;
+      generation++;
+      next = 0;
+      calls = 0;
+      statistics.get().circuitClosed();
+    }
+  }
+}
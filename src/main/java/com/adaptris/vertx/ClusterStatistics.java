@@ -0,0 +1,242 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running counters for a clustered component.
+ */
+class ClusterStatistics {
+
+  private final AtomicLong expired = new AtomicLong();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final AtomicLong hedged = new AtomicLong();
+
+  private final AtomicLong hedgesWon = new AtomicLong();
+
+  private final AtomicLong circuitsOpened = new AtomicLong();
+
+  private final AtomicLong circuitsHalfOpened = new AtomicLong();
+
+  private final AtomicLong circuitsClosed = new AtomicLong();
+
+  private final AtomicLong circuitRejected = new AtomicLong();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final AtomicLong replied = new AtomicLong();
+
+  private final AtomicLong replyFailed = new AtomicLong();
+
+  private final AtomicLong replyExpired = new AtomicLong();
+
+  private final LatencyHistogram queueWait = new LatencyHistogram();
+
+  private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+  private final LatencyHistogram roundTrip = new LatencyHistogram();
+
+  private final LatencyHistogram remoteTime = new LatencyHistogram();
+
+  private final LatencyHistogram network = new LatencyHistogram();
+
+  /**
+   * Record that a message was dropped because its deadline passed.
+   * 
+   * @return the total number of messages dropped this way.
+   */
+  long messageExpired() {
+    return expired.incrementAndGet();
+  }
+
+  long getExpired() {
+    return expired.get();
+  }
+
+  /**
+   * Record that a message was rejected because this instance was overloaded.
+   * 
+   * @return the total number of messages rejected this way.
+   */
+  long messageRejected() {
+    return rejected.incrementAndGet();
+  }
+
+  long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Record that a duplicate of a slow message was sent.
+   * 
+   * @return the total number of messages hedged.
+   */
+  long messageHedged() {
+    return hedged.incrementAndGet();
+  }
+
+  long getHedged() {
+    return hedged.get();
+  }
+
+  /**
+   * Record that the reply to a duplicate arrived before the reply to the original.
+   * 
+   * @return the total number of hedges that won.
+   */
+  long hedgeWon() {
+    return hedgesWon.incrementAndGet();
+  }
+
+  long getHedgesWon() {
+    return hedgesWon.get();
+  }
+
+  /**
+   * Record that the circuit to a target opened.
+   * 
+   * @return the total number of times a circuit has opened.
+   */
+  long circuitOpened() {
+    return circuitsOpened.incrementAndGet();
+  }
+
+  long getCircuitsOpened() {
+    return circuitsOpened.get();
+  }
+
+  /**
+   * Record that the circuit to a target became half-open.
+   * 
+   * @return the total number of times a circuit has become half-open.
+   */
+  long circuitHalfOpened() {
+    return circuitsHalfOpened.incrementAndGet();
+  }
+
+  long getCircuitsHalfOpened() {
+    return circuitsHalfOpened.get();
+  }
+
+  /**
+   * Record that the circuit to a target closed again.
+   * 
+   * @return the total number of times a circuit has closed.
+   */
+  long circuitClosed() {
+    return circuitsClosed.incrementAndGet();
+  }
+
+  long getCircuitsClosed() {
+    return circuitsClosed.get();
+  }
+
+  /**
+   * Record that a message failed without being sent, because the circuit to its target was open.
+   * 
+   * @return the total number of messages failed this way.
+   */
+  long circuitRejected() {
+    return circuitRejected.incrementAndGet();
+  }
+
+  long getCircuitRejected() {
+    return circuitRejected.get();
+  }
+
+  /**
+   * Record that a message was sent, and a reply is expected.
+   */
+  void messageSent() {
+    inFlight.incrementAndGet();
+  }
+
+  /**
+   * Record the reply to a message that was sent.
+   * 
+   * @param roundTripNanos how long after the message was sent the reply arrived.
+   */
+  void messageReplied(long roundTripNanos) {
+    inFlight.decrementAndGet();
+    replied.incrementAndGet();
+    roundTrip.recordNanos(roundTripNanos);
+  }
+
+  /**
+   * Record that a message that was sent got no reply; after any retries.
+   */
+  void messageFailed() {
+    inFlight.decrementAndGet();
+    replyFailed.incrementAndGet();
+  }
+
+  int getInFlight() {
+    return inFlight.get();
+  }
+
+  long getReplied() {
+    return replied.get();
+  }
+
+  long getReplyFailed() {
+    return replyFailed.get();
+  }
+
+  /**
+   * Record that the sender gave up waiting for a reply.
+   * 
+   * @return the total number of replies given up on.
+   */
+  long replyExpired() {
+    return replyExpired.incrementAndGet();
+  }
+
+  long getReplyExpired() {
+    return replyExpired.get();
+  }
+
+  /**
+   * How long messages waited to be sent.
+   */
+  LatencyHistogram queueWait() {
+    return queueWait;
+  }
+
+  /**
+   * How long the services took, for messages received from the cluster.
+   */
+  LatencyHistogram serviceTime() {
+    return serviceTime;
+  }
+
+  /**
+   * How long after messages were sent their replies arrived.
+   */
+  LatencyHistogram roundTrip() {
+    return roundTrip;
+  }
+
+  /**
+   * How long the messages that were replied to spent on the node that processed them.
+   */
+  LatencyHistogram remoteTime() {
+    return remoteTime;
+  }
+
+  /**
+   * What was left of the round trip of messages once the time spent on the node that processed them is taken off.
+   */
+  LatencyHistogram network() {
+    return network;
+  }
+
+  void resetLatencies() {
+    queueWait.reset();
+    serviceTime.reset();
+    roundTrip.reset();
+    remoteTime.reset();
+    network.reset();
+  }
+}
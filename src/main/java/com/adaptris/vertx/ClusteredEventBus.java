@@ -2,14 +2,39 @@ package com.adaptris.vertx;
 
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.util.GuidGenerator;
+
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.core.spi.cluster.RegistrationInfo;
 
 class ClusteredEventBus {
 
+  private static final int LATENCY_WINDOW = 512;
+
+  private static final String GATHER_ADDRESS = ".gather.";
+
+  private transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
   private transient ConsumerEventListener consumerEventListener;
   
   private transient MessageCodec<VertXMessage, VertXMessage> messageCodec;
@@ -17,6 +42,28 @@ class ClusteredEventBus {
   private transient Vertx vertX;
   
   private transient EventBus eventBus;
+
+  private transient WireFormatNegotiator wireFormatNegotiator;
+
+  private transient int maxOverloadResends = LoadShedding.DEFAULT_MAX_RESENDS;
+
+  private transient RetryPolicy retryPolicy;
+
+  private transient HedgingPolicy hedgingPolicy;
+
+  private transient DeliveryProperties deliveryProperties;
+
+  private transient RateLimiter rateLimiter;
+
+  private transient CircuitBreakers circuitBreakers;
+
+  private transient ClusterStatistics statistics = new ClusterStatistics();
+
+  private transient final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW);
+
+  private transient final AtomicLong hedgeSent = new AtomicLong();
+
+  private transient final AtomicLong hedgeFired = new AtomicLong();
     
   public void startClusteredConsumer(ConsumerEventListener listener, VertxProperties vertxOptions) {
     setConsumerEventListener(listener);
@@ -27,34 +74,432 @@ class ClusteredEventBus {
         eventBus = vertX.eventBus();
         eventBus.registerDefaultCodec(VertXMessage.class, getMessageCodec());
         eventBus.consumer(vertxId(listener), getConsumerEventListener());
+        if (getMessageCodec() instanceof AdaptrisMessageCodec) {
+          wireFormatNegotiator = new WireFormatNegotiator(vertX, ((AdaptrisMessageCodec) getMessageCodec()).supportedWireFormats());
+          wireFormatNegotiator.advertise(vertxId(listener));
+        }
         
         getConsumerEventListener().consumerStarted();
       }
     });
   }
   
+  public void stopClusteredConsumer() {
+    if (wireFormatNegotiator != null) {
+      wireFormatNegotiator.withdraw();
+      wireFormatNegotiator = null;
+    }
+  }
+
   public void send(String targetConsumer, Object message, boolean expectReply) {
-    if (expectReply) {
-      this.getEventBus().request(targetConsumer, message, replyHandler -> {
-        if (replyHandler.succeeded()) {
-          getConsumerEventListener().handleMessageReply(replyHandler.result());
+    long ticket = expectReply && circuitBreakers != null ? circuitBreakers.allow(targetConsumer) : 0;
+    if (ticket == CircuitBreakers.REJECTED) {
+      log.debug("Circuit to [{}] is open, failing message", targetConsumer);
+      if (message instanceof VertXMessage) {
+        getConsumerEventListener().handleMessageFailure((VertXMessage) message,
+            FailureCode.CIRCUIT_OPEN.exception("Circuit to [" + targetConsumer + "] is open"));
+      }
+      return;
+    }
+    throttle(targetConsumer, () -> {
+      negotiateWireFormat(targetConsumer, message);
+      DeliveryOptions options = VertxHeaders.addHeaders(deliveryOptions(), targetConsumer, message, SendMode.Mode.SINGLE);
+      if (expectReply) {
+        getStatistics().messageSent();
+        request(targetConsumer, message, options, System.nanoTime(), ticket, 0, 0);
+      }
+      else {
+        this.getEventBus().send(targetConsumer, message, options);
+      }
+    });
+  }
+
+  private void throttle(String targetConsumer, Runnable send) {
+    if (rateLimiter != null) {
+      rateLimiter.submit(targetConsumer, send);
+    } else {
+      send.run();
+    }
+  }
+  
+  /**
+   * @param started when the message was first sent, see {@link System#nanoTime()}.
+   * @param ticket the circuit breaker ticket the message was allowed through with.
+   */
+  private void request(String targetConsumer, Object message, DeliveryOptions options, long started, long ticket,
+      int attempts, int resends) {
+    if (getHedgingPolicy() != null && attempts == 0 && resends == 0) {
+      hedgedRequest(targetConsumer, message, options, started, ticket);
+      return;
+    }
+    this.getEventBus().request(targetConsumer, message, withTimeout(options, message, attempts),
+        replyHandler -> onReply(targetConsumer, message, options, started, ticket, attempts, resends, replyHandler));
+  }
+
+  private void onReply(String targetConsumer, Object message, DeliveryOptions options, long started, long ticket,
+      int attempts, int resends, AsyncResult<Message<Object>> replyHandler) {
+    if (replyHandler.succeeded()) {
+      long roundTrip = System.nanoTime() - started;
+      getStatistics().messageReplied(roundTrip);
+      recordOutcome(targetConsumer, ticket, true, started);
+      Object reply = replyHandler.result().body();
+      if (reply instanceof VertXMessage) {
+        ((VertXMessage) reply).setRoundTripNanos(roundTrip);
+      }
+      getConsumerEventListener().handleMessageReply(replyHandler.result());
+      return;
+    }
+    Throwable cause = replyHandler.cause();
+    if (FailureCode.OVERLOADED.matches(cause) && resends < getMaxOverloadResends()) {
+      // The event bus round-robins between the members of the target, so this goes to the next one along.
+      log.debug("[{}] is overloaded, resending", targetConsumer);
+      request(targetConsumer, message, options, started, ticket, attempts, resends + 1);
+    } else if (retryable(message, cause, attempts + 1)) {
+      long delay = getRetryPolicy().delay(attempts + 1);
+      log.debug("No reply from [{}], retrying in {}ms: {}", targetConsumer, delay, cause.getMessage());
+      getVertx().setTimer(delay,
+          id -> throttle(targetConsumer, () -> request(targetConsumer, message, options, started, ticket, attempts + 1, 0)));
+    } else {
+      log.warn("No reply from [{}]: {}", targetConsumer, cause.getMessage());
+      getStatistics().messageFailed();
+      recordOutcome(targetConsumer, ticket, false, started);
+      if (message instanceof VertXMessage) {
+        getConsumerEventListener().handleMessageFailure((VertXMessage) message, cause);
+      }
+    }
+  }
+
+  private void recordOutcome(String targetConsumer, long ticket, boolean succeeded, long started) {
+    if (circuitBreakers != null) {
+      circuitBreakers.record(targetConsumer, ticket, succeeded, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+  }
+
+  private void hedgedRequest(String targetConsumer, Object message, DeliveryOptions options, long started, long ticket) {
+    HedgedRequest hedged = new HedgedRequest(targetConsumer, message, options, started, ticket);
+    long sent = hedgeSent.incrementAndGet();
+    this.getEventBus().request(targetConsumer, message, withTimeout(options, message, 0),
+        replyHandler -> hedged.completed(replyHandler, false));
+    long delay = getHedgingPolicy().delay(latencies);
+    if (delay > 0) {
+      hedged.timerId = getVertx().setTimer(delay, id -> {
+        if (hedged.hedge() && getHedgingPolicy().withinBudget(sent, hedgeFired.get())) {
+          hedgeFired.incrementAndGet();
+          log.trace("No reply from [{}] after {}ms, hedging; {} messages hedged so far", targetConsumer, delay,
+              getStatistics().messageHedged());
+          this.getEventBus().request(targetConsumer, message, withTimeout(options, message, 0),
+              replyHandler -> hedged.completed(replyHandler, true));
         }
       });
     }
-    else {
-      this.getEventBus().send(targetConsumer, message);
+  }
+
+  /**
+   * A message that may have been sent twice; the first successful reply wins, and only once both have failed is the failure
+   * handled.
+   */
+  private class HedgedRequest {
+    private final String targetConsumer;
+    private final Object message;
+    private final DeliveryOptions options;
+    private final long started;
+    private final long ticket;
+    private long timerId = -1;
+    private int outstanding = 1;
+    private boolean answered;
+
+    HedgedRequest(String targetConsumer, Object message, DeliveryOptions options, long started, long ticket) {
+      this.targetConsumer = targetConsumer;
+      this.message = message;
+      this.options = options;
+      this.started = started;
+      this.ticket = ticket;
+    }
+
+    synchronized boolean hedge() {
+      if (answered || outstanding == 0) {
+        return false;
+      }
+      outstanding++;
+      return true;
+    }
+
+    void completed(AsyncResult<Message<Object>> reply, boolean fromHedge) {
+      synchronized (this) {
+        outstanding--;
+        if (answered) {
+          log.trace("Discarding late reply from [{}]", targetConsumer);
+          return;
+        }
+        if (reply.failed() && outstanding > 0) {
+          return;
+        }
+        answered = true;
+        if (timerId >= 0) {
+          getVertx().cancelTimer(timerId);
+        }
+      }
+      if (reply.succeeded()) {
+        latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        if (fromHedge) {
+          getStatistics().hedgeWon();
+        }
+      }
+      onReply(targetConsumer, message, options, started, ticket, 0, 0, reply);
     }
   }
-  
+
+  private DeliveryOptions deliveryOptions() {
+    return getDeliveryProperties() != null ? getDeliveryProperties().build() : new DeliveryOptions();
+  }
+
+  /**
+   * Never wait for a reply beyond the deadline of the message.
+   */
+  private DeliveryOptions withTimeout(DeliveryOptions options, Object message) {
+    return options.setSendTimeout(timeout(configuredTimeout(), message));
+  }
+
+  /**
+   * As {@link #withTimeout(DeliveryOptions, Object)}; but if there is a retry policy and no send-timeout, the time left before the
+   * deadline is shared between the attempts left, so that an attempt that times out still leaves time to retry it.
+   *
+   * @param attempts how many times the message has been sent already.
+   */
+  private DeliveryOptions withTimeout(DeliveryOptions options, Object message, int attempts) {
+    long timeout = timeout(configuredTimeout(), message);
+    boolean deadline = message instanceof VertXMessage && ((VertXMessage) message).getDeadline() > 0;
+    if (configuredTimeout() <= 0 && deadline && getRetryPolicy() != null) {
+      timeout = Math.max(1, timeout / Math.max(1, getRetryPolicy().maxAttempts() - attempts));
+    }
+    return options.setSendTimeout(timeout);
+  }
+
+  private long configuredTimeout() {
+    return getDeliveryProperties() != null && getDeliveryProperties().getSendTimeout() != null
+        ? getDeliveryProperties().getSendTimeout().toMilliseconds()
+        : -1;
+  }
+
+  private static long timeout(long configured, Object message) {
+    long timeout = configured;
+    long deadline = message instanceof VertXMessage ? ((VertXMessage) message).getDeadline() : 0;
+    if (deadline > 0) {
+      long remaining = Math.max(1, deadline - System.currentTimeMillis());
+      timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+    }
+    return timeout > 0 ? timeout : DeliveryOptions.DEFAULT_TIMEOUT;
+  }
+
+  private boolean retryable(Object message, Throwable cause, int attempts) {
+    if (getRetryPolicy() == null || !getRetryPolicy().retry(attempts) || FailureCode.EXPIRED.matches(cause)) {
+      return false;
+    }
+    if (message instanceof VertXMessage) {
+      long deadline = ((VertXMessage) message).getDeadline();
+      return deadline <= 0 || System.currentTimeMillis() < deadline;
+    }
+    return true;
+  }
+
   public void publish(String targetConsumer, Object message) {
-    this.getEventBus().publish(targetConsumer, message);
+    throttle(targetConsumer, () -> {
+      negotiateWireFormat(targetConsumer, message);
+      this.getEventBus().publish(targetConsumer, message,
+          VertxHeaders.addHeaders(deliveryOptions(), targetConsumer, message, SendMode.Mode.ALL));
+    });
   }
   
+  /**
+   * Send the message to every member of the target, and hand the replies to the listener once enough of them have arrived.
+   * <p>
+   * The replies come back on a temporary address (see {@link VertxHeaders#REPLY_TO}), since a published message can't be
+   * replied to.
+   * </p>
+   */
+  public void gather(String targetConsumer, Object message, GatherPolicy policy) {
+    throttle(targetConsumer, () -> doGather(targetConsumer, message, policy));
+  }
+
+  private void doGather(String targetConsumer, Object message, GatherPolicy policy) {
+    negotiateWireFormat(targetConsumer, message);
+    DeliveryOptions options = VertxHeaders.addHeaders(deliveryOptions(), targetConsumer, message, SendMode.Mode.GATHER);
+    long timeout = policy.timeoutMs() > 0 ? timeout(policy.timeoutMs(), message)
+        : withTimeout(new DeliveryOptions(), message).getSendTimeout();
+    String replyTo = targetConsumer + GATHER_ADDRESS + new GuidGenerator().getUUID();
+    options.addHeader(VertxHeaders.REPLY_TO, replyTo);
+
+    Gathering gathering = new Gathering(targetConsumer, message, policy.quorum());
+    gathering.consumer = this.getEventBus().consumer(replyTo, gathering::received);
+    // Only publish once the reply address is known to the cluster, so that no reply can go missing.
+    gathering.consumer.completionHandler(registered -> {
+      if (registered.failed()) {
+        gathering.failed(registered.cause());
+        return;
+      }
+      members(targetConsumer, members -> gather(targetConsumer, message, options, timeout, gathering, members));
+    });
+  }
+
+  private void gather(String targetConsumer, Object message, DeliveryOptions options, long timeout, Gathering gathering,
+      int members) {
+    if (members == 0) {
+      gathering.failed(new ReplyException(ReplyFailure.NO_HANDLERS, "No members of [" + targetConsumer + "]"));
+      return;
+    }
+    gathering.expect(members);
+    this.getEventBus().publish(targetConsumer, message, options);
+    gathering.timerId = getVertx().setTimer(timeout, id -> gathering.timedOut());
+  }
+
+  /**
+   * The id of this node in the cluster; null if we can't tell.
+   */
+  String nodeId() {
+    ClusterManager clusterManager = getVertx() instanceof VertxInternal ? ((VertxInternal) getVertx()).getClusterManager() : null;
+    return clusterManager != null ? clusterManager.getNodeId() : null;
+  }
+
+  /**
+   * Count the consumers of the address across the cluster; -1 if we can't tell.
+   */
+  private void members(String address, Handler<Integer> handler) {
+    ClusterManager clusterManager = getVertx() instanceof VertxInternal ? ((VertxInternal) getVertx()).getClusterManager() : null;
+    if (clusterManager == null) {
+      handler.handle(-1);
+      return;
+    }
+    Promise<List<RegistrationInfo>> registrations = Promise.promise();
+    clusterManager.getRegistrations(address, registrations);
+    registrations.future().onComplete(result -> {
+      if (result.failed()) {
+        log.debug("Cannot count the members of [{}]", address, result.cause());
+        handler.handle(-1);
+        return;
+      }
+      String self = clusterManager.getNodeId();
+      // local only consumers on other nodes won't get it.
+      handler.handle((int) result.result().stream().filter(r -> !r.localOnly() || self.equals(r.nodeId())).count());
+    });
+  }
+
+  /**
+   * The replies to a gathered message; collected until there are enough of them, every member has answered, or the timeout
+   * passes.
+   * <p>
+   * A member that refuses the message (see {@link FailureCode}) answers with a {@link ReplyException} instead of a reply.
+   * </p>
+   */
+  private class Gathering {
+    private final String targetConsumer;
+    private final Object message;
+    private final int quorum;
+    private final List<VertXMessage> replies = new ArrayList<>();
+    private MessageConsumer<Object> consumer;
+    private long timerId = -1;
+    private int expected = -1;
+    private int refused;
+    private boolean done;
+
+    Gathering(String targetConsumer, Object message, int quorum) {
+      this.targetConsumer = targetConsumer;
+      this.message = message;
+      this.quorum = quorum;
+    }
+
+    synchronized void expect(int members) {
+      expected = members;
+    }
+
+    // Wait for the timeout if we don't know how many there are.
+    private int required() {
+      if (quorum > 0) {
+        return expected > 0 ? Math.min(quorum, expected) : quorum;
+      }
+      return expected > 0 ? expected : Integer.MAX_VALUE;
+    }
+
+    void received(Message<Object> reply) {
+      List<VertXMessage> result;
+      synchronized (this) {
+        if (done) {
+          log.trace("Discarding late reply from [{}]", targetConsumer);
+          return;
+        }
+        if (reply.body() instanceof ReplyException) {
+          log.debug("A member of [{}] refused the message: {}", targetConsumer, ((ReplyException) reply.body()).getMessage());
+          refused++;
+        } else {
+          replies.add((VertXMessage) reply.body());
+        }
+        if (replies.size() < required() && (expected <= 0 || replies.size() + refused < expected)) {
+          return;
+        }
+        done = true;
+        result = new ArrayList<>(replies);
+      }
+      if (result.size() < required()) {
+        partial(result, ReplyFailure.RECIPIENT_FAILURE, "after " + refused + " refused it");
+        return;
+      }
+      finish();
+      getConsumerEventListener().handleGatheredReplies((VertXMessage) message, result);
+    }
+
+    void timedOut() {
+      List<VertXMessage> result;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        done = true;
+        result = new ArrayList<>(replies);
+      }
+      partial(result, ReplyFailure.TIMEOUT, "before the timeout");
+    }
+
+    // Not enough replies; only good enough if we can't tell how many there should have been, and there is at least one.
+    private void partial(List<VertXMessage> result, ReplyFailure failure, String why) {
+      if (result.isEmpty() || (quorum > 0 || expected > 0) && result.size() < required()) {
+        failed(new ReplyException(failure,
+            "Only " + result.size() + " replies from [" + targetConsumer + "] " + why));
+        return;
+      }
+      log.debug("Only {} of {} replies from [{}] {}", result.size(), expected, targetConsumer, why);
+      finish();
+      getConsumerEventListener().handleGatheredReplies((VertXMessage) message, result);
+    }
+
+    void failed(Throwable cause) {
+      synchronized (this) {
+        done = true;
+      }
+      finish();
+      log.warn("No replies from [{}]: {}", targetConsumer, cause.getMessage());
+      if (message instanceof VertXMessage) {
+        getConsumerEventListener().handleMessageFailure((VertXMessage) message, cause);
+      }
+    }
+
+    private void finish() {
+      if (timerId >= 0) {
+        getVertx().cancelTimer(timerId);
+      }
+      consumer.unregister();
+    }
+  }
+
+  private void negotiateWireFormat(String targetConsumer, Object message) {
+    if (wireFormatNegotiator != null && message instanceof VertXMessage) {
+      ((VertXMessage) message).setWireFormatId(wireFormatNegotiator.formatFor(targetConsumer));
+    }
+  }
+
   private ConsumerEventListener getConsumerEventListener() {
     return consumerEventListener;
   }
 
-  private void setConsumerEventListener(ConsumerEventListener consumerEventListener) {
+  void setConsumerEventListener(ConsumerEventListener consumerEventListener) {
     this.consumerEventListener = consumerEventListener;
   }
 
@@ -74,6 +519,80 @@ class ClusteredEventBus {
     this.eventBus = eventBus;
   }
   
+  int getMaxOverloadResends() {
+    return maxOverloadResends;
+  }
+
+  void setMaxOverloadResends(int maxOverloadResends) {
+    this.maxOverloadResends = maxOverloadResends;
+  }
+
+  RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  HedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+    this.hedgingPolicy = hedgingPolicy;
+  }
+
+  DeliveryProperties getDeliveryProperties() {
+    return deliveryProperties;
+  }
+
+  void setDeliveryProperties(DeliveryProperties deliveryProperties) {
+    this.deliveryProperties = deliveryProperties;
+  }
+
+  /**
+   * @param rateLimit the rate limit for each target, or null for none.
+   */
+  void setRateLimit(RateLimit rateLimit) {
+    this.rateLimiter = rateLimit != null ? new RateLimiter(rateLimit, this::getVertx) : null;
+  }
+
+  RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /**
+   * @param circuitBreaker the circuit breaker for each target, or null for none.
+   */
+  void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreakers = circuitBreaker != null ? new CircuitBreakers(circuitBreaker, this::getStatistics) : null;
+  }
+
+  CircuitBreakers getCircuitBreakers() {
+    return circuitBreakers;
+  }
+
+  ClusterStatistics getStatistics() {
+    return statistics;
+  }
+
+  void setStatistics(ClusterStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  LatencyWindow latencies() {
+    return latencies;
+  }
+
+  Vertx getVertx() {
+    return vertX;
+  }
+
+  void setVertx(Vertx vertx) {
+    this.vertX = vertx;
+  }
+
   String vertxId(ConsumerEventListener c) {
     return !isEmpty(c.getClusterId()) ? c.getClusterId() : c.getUniqueId();
   }
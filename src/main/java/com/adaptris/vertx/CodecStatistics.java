@@ -0,0 +1,57 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of the work done by a message codec.
+ */
+class CodecStatistics {
+
+  private final AtomicLong encoded = new AtomicLong();
+
+  private final AtomicLong encodeNanos = new AtomicLong();
+
+  private final AtomicLong encodedBytes = new AtomicLong();
+
+  private final AtomicLong decoded = new AtomicLong();
+
+  private final AtomicLong decodeNanos = new AtomicLong();
+
+  private final AtomicLong decodedBytes = new AtomicLong();
+
+  void encoded(long nanos, long bytes) {
+    encoded.incrementAndGet();
+    encodeNanos.addAndGet(nanos);
+    encodedBytes.addAndGet(bytes);
+  }
+
+  void decoded(long nanos, long bytes) {
+    decoded.incrementAndGet();
+    decodeNanos.addAndGet(nanos);
+    decodedBytes.addAndGet(bytes);
+  }
+
+  long getEncoded() {
+    return encoded.get();
+  }
+
+  long getEncodeNanos() {
+    return encodeNanos.get();
+  }
+
+  long getEncodedBytes() {
+    return encodedBytes.get();
+  }
+
+  long getDecoded() {
+    return decoded.get();
+  }
+
+  long getDecodeNanos() {
+    return decodeNanos.get();
+  }
+
+  long getDecodedBytes() {
+    return decodedBytes.get();
+  }
+}
@@ -1,5 +1,7 @@
 package com.adaptris.vertx;
 
+import java.util.List;
+
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 
@@ -8,6 +10,22 @@ public interface ConsumerEventListener extends Handler<Message<VertXMessage>>{
   void consumerStarted();
   
   void handleMessageReply(Message<Object> result);
+
+  /**
+   * Called when a message sent with a reply expected has not been answered, and will not be retried.
+   * 
+   * @param message the message that was sent.
+   * @param cause why there was no reply.
+   */
+  void handleMessageFailure(VertXMessage message, Throwable cause);
+
+  /**
+   * Called when enough replies to a message sent with the "GATHER" send mode have been collected.
+   * 
+   * @param message the message that was sent.
+   * @param replies the replies, in the order they arrived.
+   */
+  void handleGatheredReplies(VertXMessage message, List<VertXMessage> replies);
   
   String getClusterId();
 
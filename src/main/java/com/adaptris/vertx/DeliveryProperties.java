@@ -0,0 +1,138 @@
+package com.adaptris.vertx;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.validation.Valid;
+
+import com.adaptris.annotation.AdapterComponent;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldHint;
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.util.KeyValuePair;
+import com.adaptris.util.KeyValuePairSet;
+import com.adaptris.util.TimeInterval;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.tracing.TracingPolicy;
+
+/**
+ * <p>
+ * This class exposes the Vertx delivery options used when sending messages to the cluster.
+ * </p>
+ * <p>
+ * If no send timeout is configured, then a message with a deadline waits for a reply until its deadline, otherwise the Vertx
+ * default of 30 seconds applies. If a send timeout is configured, a message still never waits beyond its deadline. When the send
+ * timeout passes without a reply the message is retried or failed; see {@link RetryPolicy}.
+ * </p>
+ * <p>
+ * Header values may contain expressions such as {@code %message{metadataKey}}, which are resolved against each message before
+ * it is sent.
+ * </p>
+ * 
+ * @config vertx-delivery-properties
+ */
+@AdapterComponent
+@ComponentProfile(summary = "Exposes the Vertx delivery options.", tag = "clustering,vertx")
+@XStreamAlias("vertx-delivery-properties")
+public class DeliveryProperties {
+
+  @Valid
+  private TimeInterval sendTimeout;
+  private String codecName;
+  private Boolean localOnly;
+  private TracingPolicy tracingPolicy;
+  @Valid
+  @InputFieldHint(expression = true)
+  private KeyValuePairSet headers;
+
+  public DeliveryProperties() {
+  }
+
+  DeliveryOptions build() {
+    DeliveryOptions options = new DeliveryOptions();
+    if (getSendTimeout() != null) options.setSendTimeout(getSendTimeout().toMilliseconds());
+    if (getCodecName() != null) options.setCodecName(getCodecName());
+    if (getLocalOnly() != null) options.setLocalOnly(getLocalOnly());
+    if (getTracingPolicy() != null) options.setTracingPolicy(getTracingPolicy());
+    return options;
+  }
+
+  Map<String, String> resolveHeaders(AdaptrisMessage msg) {
+    if (getHeaders() == null || getHeaders().isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> result = new LinkedHashMap<>();
+    for (KeyValuePair header : getHeaders()) {
+      result.put(header.getKey(), msg.resolve(header.getValue()));
+    }
+    return result;
+  }
+
+  public TimeInterval getSendTimeout() {
+    return sendTimeout;
+  }
+
+  /**
+   * Set how long to wait for a reply.
+   *
+   * @param sendTimeout the timeout; if not configured, defaults to the message deadline, or 30 seconds.
+   */
+  public void setSendTimeout(TimeInterval sendTimeout) {
+    this.sendTimeout = sendTimeout;
+  }
+
+  public String getCodecName() {
+    return codecName;
+  }
+
+  /**
+   * Set the name of the codec used to encode messages.
+   *
+   * @param codecName the name of a codec registered with the event bus; defaults to the component's message codec.
+   */
+  public void setCodecName(String codecName) {
+    this.codecName = codecName;
+  }
+
+  public Boolean getLocalOnly() {
+    return localOnly;
+  }
+
+  /**
+   * Set whether messages are only delivered to consumers in this instance of Interlok.
+   *
+   * @param localOnly true to never send messages to other members of the cluster; default false.
+   */
+  public void setLocalOnly(Boolean localOnly) {
+    this.localOnly = localOnly;
+  }
+
+  public TracingPolicy getTracingPolicy() {
+    return tracingPolicy;
+  }
+
+  /**
+   * Set the tracing policy for messages sent to the cluster.
+   *
+   * @param tracingPolicy the policy; defaults to PROPAGATE.
+   */
+  public void setTracingPolicy(TracingPolicy tracingPolicy) {
+    this.tracingPolicy = tracingPolicy;
+  }
+
+  public KeyValuePairSet getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Set additional headers to send with each message.
+   *
+   * @param headers the headers; values may be expressions resolved against the message.
+   */
+  public void setHeaders(KeyValuePairSet headers) {
+    this.headers = headers;
+  }
+}
@@ -0,0 +1,65 @@
+package com.adaptris.vertx;
+
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+
+/**
+ * The failure codes a clustered component uses when it deliberately refuses to process a message with
+ * {@link Message#fail(int, String)}.
+ */
+enum FailureCode {
+
+  /**
+   * The deadline for the message passed before it could be processed; nobody is waiting for the result anymore.
+   */
+  EXPIRED(4100),
+
+  /**
+   * The receiver is too busy to process the message; it is safe to send it somewhere else.
+   */
+  OVERLOADED(5030),
+
+  /**
+   * The circuit to the target is open; the message was never sent.
+   */
+  CIRCUIT_OPEN(5031);
+
+  private final int code;
+
+  FailureCode(int code) {
+    this.code = code;
+  }
+
+  int code() {
+    return code;
+  }
+
+  /**
+   * Fail the message; a published message can't be failed, so the failure is sent to its {@link VertxHeaders#REPLY_TO} instead.
+   */
+  void fail(EventBus eventBus, Message<?> message, String reason) {
+    String replyTo = VertxHeaders.replyTo(message);
+    if (replyTo != null) {
+      eventBus.send(replyTo, exception(reason));
+    } else {
+      message.fail(code, reason);
+    }
+  }
+
+  ReplyException exception(String reason) {
+    return new ReplyException(ReplyFailure.RECIPIENT_FAILURE, code, reason);
+  }
+
+  /**
+   * Whether the failure was a deliberate rejection by the recipient with this code.
+   */
+  boolean matches(Throwable failure) {
+    if (failure instanceof ReplyException) {
+      ReplyException e = (ReplyException) failure;
+      return e.failureType() == ReplyFailure.RECIPIENT_FAILURE && e.failureCode() == code;
+    }
+    return false;
+  }
+}
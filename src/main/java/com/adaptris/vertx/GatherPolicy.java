@@ -0,0 +1,96 @@
+package com.adaptris.vertx;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.core.services.aggregator.MessageAggregator;
+import com.adaptris.util.TimeInterval;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * How the replies are collected with the "GATHER" target send mode.
+ * </p>
+ * <p>
+ * The message is sent to every member of the target cluster, and each of them replies once their services have run. Collection
+ * stops once {@link #setQuorum(Integer)} replies have arrived (or every member has replied, if that is fewer), or when the timeout
+ * passes. The replies are then combined into the original message with the {@link MessageAggregator}, before the reply is
+ * produced. If the timeout passes before enough replies arrive, the message is treated as failed.
+ * </p>
+ * <p>
+ * The number of members is discovered from the cluster as the message is sent; if it can't be (e.g. vertx is not clustered) and
+ * no quorum is configured, whatever has arrived when the timeout passes is used.
+ * </p>
+ *
+ * @config clustered-gather-policy
+ */
+@XStreamAlias("clustered-gather-policy")
+@ComponentProfile(summary = "Collect and combine the replies from every member of a cluster", tag = "clustering,vertx")
+public class GatherPolicy {
+
+  @NotNull
+  @Valid
+  private MessageAggregator messageAggregator;
+
+  private Integer quorum;
+
+  @Valid
+  private TimeInterval timeout;
+
+  public GatherPolicy() {
+  }
+
+  public GatherPolicy(MessageAggregator aggregator) {
+    this();
+    setMessageAggregator(aggregator);
+  }
+
+  int quorum() {
+    return getQuorum() != null ? getQuorum() : 0;
+  }
+
+  long timeoutMs() {
+    return getTimeout() != null ? getTimeout().toMilliseconds() : -1;
+  }
+
+  public MessageAggregator getMessageAggregator() {
+    return messageAggregator;
+  }
+
+  /**
+   * Set how the replies are combined into the original message.
+   *
+   * @param aggregator the aggregator.
+   */
+  public void setMessageAggregator(MessageAggregator aggregator) {
+    this.messageAggregator = aggregator;
+  }
+
+  public Integer getQuorum() {
+    return quorum;
+  }
+
+  /**
+   * Set the number of replies that is enough.
+   *
+   * @param i the quorum; if not configured, a reply from every member is waited for.
+   */
+  public void setQuorum(Integer i) {
+    this.quorum = i;
+  }
+
+  public TimeInterval getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Set how long to wait for the replies.
+   *
+   * @param t the timeout; never beyond the deadline of the message. If not configured, the send-timeout of the delivery-properties
+   *          is used.
+   */
+  public void setTimeout(TimeInterval t) {
+    this.timeout = t;
+  }
+}
@@ -0,0 +1,99 @@
+package com.adaptris.vertx;
+
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Sends a duplicate of a message to another member of the cluster when the reply is taking longer than usual.
+ * </p>
+ * <p>
+ * Once enough replies have been received, a message that has had no reply within the configured percentile of recent reply times
+ * is sent again; the event bus delivers the duplicate to the next member of the target. Whichever reply comes back first is used,
+ * and the other is discarded. The number of duplicates is limited to a percentage of all messages sent, so that a slow cluster is
+ * not made slower still.
+ * </p>
+ * <p>
+ * <strong>Only configure this if the services in the target are idempotent</strong>, since hedged messages are processed twice.
+ * </p>
+ * 
+ * @config clustered-hedging-policy
+ */
+@XStreamAlias("clustered-hedging-policy")
+@ComponentProfile(summary = "Duplicate slow clustered requests to another member", tag = "clustering,vertx")
+public class HedgingPolicy {
+
+  static final int MIN_SAMPLES = 20;
+
+  private static final int DEFAULT_PERCENTILE = 95;
+
+  private static final int DEFAULT_BUDGET = 5;
+
+  @InputFieldDefault(value = "95")
+  private Integer latencyPercentile;
+
+  @InputFieldDefault(value = "5")
+  private Integer budgetPercent;
+
+  public HedgingPolicy() {
+  }
+
+  public HedgingPolicy(Integer latencyPercentile, Integer budgetPercent) {
+    this();
+    setLatencyPercentile(latencyPercentile);
+    setBudgetPercent(budgetPercent);
+  }
+
+  /**
+   * How long to wait for a reply before hedging, or -1 if there are not yet enough replies to tell.
+   */
+  long delay(LatencyWindow latencies) {
+    if (latencies.size() < MIN_SAMPLES) {
+      return -1;
+    }
+    return Math.max(1, latencies.percentile(latencyPercentile()));
+  }
+
+  /**
+   * Whether another hedge fits within the budget.
+   */
+  boolean withinBudget(long sent, long hedged) {
+    return (hedged + 1) * 100 <= sent * budgetPercent();
+  }
+
+  int latencyPercentile() {
+    return NumberUtils.toIntDefaultIfNull(getLatencyPercentile(), DEFAULT_PERCENTILE);
+  }
+
+  int budgetPercent() {
+    return NumberUtils.toIntDefaultIfNull(getBudgetPercent(), DEFAULT_BUDGET);
+  }
+
+  public Integer getLatencyPercentile() {
+    return latencyPercentile;
+  }
+
+  /**
+   * Set the percentile of recent reply times after which a message is hedged.
+   * 
+   * @param i the percentile, default is 95.
+   */
+  public void setLatencyPercentile(Integer i) {
+    this.latencyPercentile = i;
+  }
+
+  public Integer getBudgetPercent() {
+    return budgetPercent;
+  }
+
+  /**
+   * Set the most duplicates that may be sent, as a percentage of all messages sent.
+   * 
+   * @param i the percentage, default is 5.
+   */
+  public void setBudgetPercent(Integer i) {
+    this.budgetPercent = i;
+  }
+}
@@ -0,0 +1,93 @@
+package com.adaptris.vertx;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time went for a message that was sent into the cluster, worked out by the sender when the reply arrives.
+ * <p>
+ * Clocks on different nodes can't be compared, so each stage is a duration measured on a single node: the queue wait and the
+ * round trip by the sender, and the time spent on the receiver (and in each of its services) by the receiver. Whatever is left
+ * of the round trip is the network, and the encoding and decoding either side of it.
+ * </p>
+ */
+class HopTimings {
+
+  private final long queueWaitNanos;
+
+  private final long roundTripNanos;
+
+  private final ServiceRecord record;
+
+  HopTimings(long queueWaitNanos, long roundTripNanos, ServiceRecord record) {
+    this.queueWaitNanos = queueWaitNanos;
+    this.roundTripNanos = roundTripNanos;
+    this.record = record;
+  }
+
+  /**
+   * The timings of a reply; or null if it didn't come back from the cluster.
+   */
+  static HopTimings of(VertXMessage reply) {
+    if (reply.getRoundTripNanos() <= 0) {
+      return null;
+    }
+    ServiceRecord record = reply.getServiceRecord();
+    return new HopTimings(record.getQueueWaitNanos(), reply.getRoundTripNanos(), record);
+  }
+
+  /**
+   * From the message being queued to the reply arriving.
+   */
+  long totalNanos() {
+    return queueWaitNanos + roundTripNanos;
+  }
+
+  long remoteNanos() {
+    return record.getRemoteNanos();
+  }
+
+  /**
+   * The round trip less the time spent on the receiver; or -1 if the receiver didn't say.
+   */
+  long networkNanos() {
+    return remoteNanos() > 0 ? Math.max(0, roundTripNanos - remoteNanos()) : -1;
+  }
+
+  void record(ClusterStatistics statistics) {
+    if (remoteNanos() > 0) {
+      statistics.remoteTime().recordNanos(remoteNanos());
+      statistics.network().recordNanos(networkNanos());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append("total=").append(millis(totalNanos()));
+    result.append(" queue-wait=").append(millis(queueWaitNanos));
+    result.append(" round-trip=").append(millis(roundTripNanos));
+    if (remoteNanos() > 0) {
+      result.append(" network=").append(millis(networkNanos()));
+      result.append(" remote=").append(millis(remoteNanos()));
+      result.append(" node=").append(record.getNodeId());
+      if (record.getReceivedAt() > 0) {
+        result.append(" received=").append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(record.getReceivedAt())));
+      }
+      result.append(" services=[");
+      String separator = "";
+      for (InterlokService s : record.getServices()) {
+        result.append(separator).append(s.getId()).append('=');
+        result.append(s.getEndNanos() > 0 ? millis(s.getEndNanos() - s.getStartNanos()) : s.getState().name());
+        separator = ", ";
+      }
+      result.append(']');
+    }
+    return result.toString();
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+}
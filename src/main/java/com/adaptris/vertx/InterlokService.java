@@ -11,9 +11,16 @@ public class InterlokService {
   private String id;
   private ServiceState state;
   private Exception exception;
+
+  // Offsets from the message being received by the node that ran the service; only carried by the binary wire format.
+  private transient long startNanos;
+  private transient long endNanos;
   
+  /**
+   * The id is only generated if it is asked for before being set.
+   */
   public InterlokService() {
-    this(new GuidGenerator().getUUID());
+    this.setState(ServiceState.NOT_STARTED);
   }
   
   public InterlokService(String id) {
@@ -26,6 +33,9 @@ public class InterlokService {
   }
 
   public String getId() {
+    if (id == null) {
+      id = new GuidGenerator().getUUID();
+    }
     return id;
   }
 
@@ -63,6 +73,32 @@ public class InterlokService {
     this.exception = exception;
   }
   
+  /**
+   * When the service started, measured from the message being received by the node that ran it.
+   * 
+   * @return the offset in nanoseconds, or 0 if not known.
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public void setStartNanos(long startNanos) {
+    this.startNanos = startNanos;
+  }
+
+  /**
+   * When the service finished, measured from the message being received by the node that ran it.
+   * 
+   * @return the offset in nanoseconds, or 0 if not known.
+   */
+  public long getEndNanos() {
+    return endNanos;
+  }
+
+  public void setEndNanos(long endNanos) {
+    this.endNanos = endNanos;
+  }
+
   @Override
   public String toString() {
     return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).append("id", getId())
@@ -0,0 +1,105 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in microseconds, with buckets in the style of an HDR histogram.
+ * <p>
+ * Values below {@value #LINEAR} each have their own bucket; above that each power of 2 is split into {@value #SUB_BUCKETS}
+ * buckets, so that a percentile is never out by more than about 6% whatever the magnitude, in a fixed amount of memory. Recording
+ * is lock free.
+ * </p>
+ */
+class LatencyHistogram {
+
+  private static final int SUB_BUCKETS = 16;
+
+  private static final int LINEAR = SUB_BUCKETS * 2;
+
+  private static final int LINEAR_BITS = 5;
+
+  // 2^40 microseconds is about 12 days; anything longer is counted as that.
+  private static final int MAX_BITS = 40;
+
+  private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (MAX_BITS - LINEAR_BITS) * SUB_BUCKETS);
+
+  private final AtomicLong sum = new AtomicLong();
+
+  void recordNanos(long nanos) {
+    record(TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  void record(long micros) {
+    counts.incrementAndGet(index(Math.max(0, micros)));
+    sum.addAndGet(Math.max(0, micros));
+  }
+
+  private static int index(long value) {
+    if (value < LINEAR) {
+      return (int) value;
+    }
+    int magnitude = Math.min(MAX_BITS - 1, 63 - Long.numberOfLeadingZeros(value));
+    int shift = magnitude - (LINEAR_BITS - 1);
+    int sub = (int) Math.min(SUB_BUCKETS * 2 - 1, value >> shift) - SUB_BUCKETS;
+    return LINEAR + (magnitude - LINEAR_BITS) * SUB_BUCKETS + sub;
+  }
+
+  // the highest value that falls into the bucket.
+  private static long value(int index) {
+    if (index < LINEAR) {
+      return index;
+    }
+    int magnitude = (index - LINEAR) / SUB_BUCKETS + LINEAR_BITS;
+    int sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+    int shift = magnitude - (LINEAR_BITS - 1);
+    return ((long) (sub + 1) << shift) - 1;
+  }
+
+  long count() {
+    long result = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      result += counts.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * The total of everything recorded, in microseconds.
+   */
+  long sum() {
+    return sum.get();
+  }
+
+  /**
+   * The latency in microseconds at the given percentile, or -1 if nothing has been recorded.
+   */
+  long percentile(double percentile) {
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return -1;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return value(i);
+      }
+    }
+    return value(snapshot.length - 1);
+  }
+
+  void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    sum.set(0);
+  }
+}
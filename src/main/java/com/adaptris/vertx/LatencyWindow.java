@@ -0,0 +1,55 @@
+package com.adaptris.vertx;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size window over the most recently recorded latencies.
+ * <p>
+ * Percentiles are read from a sorted copy of the window, which is only taken again once a tenth of the samples in it have been
+ * recorded since; so asking for a percentile on every send doesn't copy and sort the window every time.
+ * </p>
+ */
+class LatencyWindow {
+
+  private final long[] samples;
+
+  private int next;
+
+  private int count;
+
+  private long[] sorted;
+
+  // samples recorded since sorted was taken.
+  private int stale;
+
+  LatencyWindow(int size) {
+    samples = new long[size];
+  }
+
+  synchronized void record(long millis) {
+    samples[next] = millis;
+    next = (next + 1) % samples.length;
+    count = Math.min(count + 1, samples.length);
+    stale++;
+  }
+
+  synchronized int size() {
+    return count;
+  }
+
+  /**
+   * The latency at the given percentile of the window, or -1 if nothing has been recorded.
+   */
+  synchronized long percentile(double percentile) {
+    if (count == 0) {
+      return -1;
+    }
+    if (sorted == null || stale >= Math.max(1, count / 10)) {
+      sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      stale = 0;
+    }
+    int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+  }
+}
@@ -0,0 +1,114 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.ExecutorService;
+import com.adaptris.annotation.AdvancedConfig;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.adaptris.util.TimeInterval;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Allows a clustered component to refuse work when it is saturated, rather than letting its internal queue grow without limit.
+ * </p>
+ * <p>
+ * When a message arrives and either the number of messages already waiting for a worker thread, or the average time they have
+ * recently spent waiting, passes the configured threshold; the message is immediately rejected with a recoverable failure. The
+ * sender will then resend it straight away (up to {@link #setMaxResends(Integer)} times), and the event bus will deliver it to
+ * the next member of the cluster; rather than the sender only finding out when its request times out.
+ * </p>
+ * 
+ * @config clustered-load-shedding
+ */
+@XStreamAlias("clustered-load-shedding")
+@ComponentProfile(summary = "Reject clustered messages early when this instance is saturated", tag = "clustering,vertx")
+public class LoadShedding {
+
+  static final int DEFAULT_MAX_RESENDS = 3;
+
+  private Integer maxPendingMessages;
+
+  private TimeInterval maxQueueLatency;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "3")
+  private Integer maxResends;
+
+  public LoadShedding() {
+  }
+
+  public LoadShedding(Integer maxPendingMessages, TimeInterval maxQueueLatency) {
+    this();
+    setMaxPendingMessages(maxPendingMessages);
+    setMaxQueueLatency(maxQueueLatency);
+  }
+
+  boolean overloaded(ExecutorService executor) {
+    return overloaded(executor, 0);
+  }
+
+  /**
+   * @param backlog messages waiting elsewhere to be handed to the executor.
+   */
+  boolean overloaded(ExecutorService executor, int backlog) {
+    if (executor instanceof WorkerPool) {
+      WorkerPool pool = (WorkerPool) executor;
+      return overloaded(pool.pending() + backlog, pool.queueWaitMillis());
+    }
+    return false;
+  }
+
+  boolean overloaded(int pending, long queueWaitMillis) {
+    if (pending == 0) {
+      return false;
+    }
+    if (getMaxPendingMessages() != null && pending >= getMaxPendingMessages()) {
+      return true;
+    }
+    return getMaxQueueLatency() != null && queueWaitMillis > getMaxQueueLatency().toMilliseconds();
+  }
+
+  int maxResends() {
+    return NumberUtils.toIntDefaultIfNull(getMaxResends(), DEFAULT_MAX_RESENDS);
+  }
+
+  public Integer getMaxPendingMessages() {
+    return maxPendingMessages;
+  }
+
+  /**
+   * Set the number of messages waiting for a worker thread at which further messages are rejected.
+   * 
+   * @param i the maximum number of pending messages; if not specified, then the queue size is not checked.
+   */
+  public void setMaxPendingMessages(Integer i) {
+    this.maxPendingMessages = i;
+  }
+
+  public TimeInterval getMaxQueueLatency() {
+    return maxQueueLatency;
+  }
+
+  /**
+   * Set the average time messages may wait for a worker thread before further messages are rejected.
+   * 
+   * @param t the maximum queue latency; if not specified, then latency is not checked.
+   */
+  public void setMaxQueueLatency(TimeInterval t) {
+    this.maxQueueLatency = t;
+  }
+
+  public Integer getMaxResends() {
+    return maxResends;
+  }
+
+  /**
+   * Set the number of times a message rejected as overloaded will be immediately resent by this component.
+   * 
+   * @param i the maximum number of resends, default is 3.
+   */
+  public void setMaxResends(Integer i) {
+    this.maxResends = i;
+  }
+}
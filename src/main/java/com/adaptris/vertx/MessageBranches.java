@@ -0,0 +1,107 @@
+package com.adaptris.vertx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.vertx.ParallelExecution.ConflictRule;
+
+/**
+ * Hands out copies of a message to services that run at the same time, and merges their changes back into it.
+ * <p>
+ * Branches must be merged in a fixed order (the service-list order) so the outcome of a conflict doesn't depend on which service
+ * finished first. Not thread-safe; branches are created and merged by the thread that owns the message.
+ * </p>
+ */
+final class MessageBranches {
+
+  private final AdaptrisMessage message;
+  private final ConflictRule rule;
+  private final Map<String, String> originalMetadata;
+  private final byte[] originalPayload;
+  private final Map<Object, Object> originalObjects;
+
+  // what has been merged so far, so we can spot the conflicts.
+  private final Map<String, String> mergedMetadata = new HashMap<>();
+  private boolean payloadMerged;
+
+  MessageBranches(AdaptrisMessage message, ConflictRule rule) {
+    this.message = message;
+    this.rule = rule;
+    originalMetadata = new HashMap<>(message.getMessageHeaders());
+    originalPayload = message.getPayload();
+    originalObjects = new HashMap<>(message.getObjectHeaders());
+  }
+
+  AdaptrisMessage branch() throws CloneNotSupportedException {
+    return (AdaptrisMessage) message.clone();
+  }
+
+  /**
+   * Merge the changes made to a branch back into the message.
+   *
+   * @throws ServiceRecordException if the branch conflicts with an earlier one and the rule is {@link ConflictRule#FAIL}; in which
+   *           case nothing from this branch is merged.
+   */
+  void merge(AdaptrisMessage branch) throws ServiceRecordException {
+    Map<String, String> changes = metadataChanges(branch.getMessageHeaders());
+    byte[] payload = branch.getPayload();
+    boolean payloadChanged = !Arrays.equals(originalPayload, payload);
+    if (rule == ConflictRule.FAIL) {
+      for (Map.Entry<String, String> change : changes.entrySet()) {
+        if (conflicts(change.getKey(), change.getValue())) {
+          throw new ServiceRecordException("Conflicting change to metadata key [" + change.getKey() + "]");
+        }
+      }
+      if (payloadChanged && payloadMerged && !Arrays.equals(message.getPayload(), payload)) {
+        throw new ServiceRecordException("Conflicting change to the payload");
+      }
+    }
+    for (Map.Entry<String, String> change : changes.entrySet()) {
+      if (rule == ConflictRule.FIRST_WINS && mergedMetadata.containsKey(change.getKey())) {
+        continue;
+      }
+      apply(change.getKey(), change.getValue());
+      mergedMetadata.put(change.getKey(), change.getValue());
+    }
+    if (payloadChanged && !(rule == ConflictRule.FIRST_WINS && payloadMerged)) {
+      message.setPayload(payload);
+      payloadMerged = true;
+    }
+    for (Map.Entry<Object, Object> entry : branch.getObjectHeaders().entrySet()) {
+      if (originalObjects.get(entry.getKey()) != entry.getValue()) {
+        message.addObjectHeader(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  // A null value means the key was removed.
+  private Map<String, String> metadataChanges(Map<String, String> branchMetadata) {
+    Map<String, String> changes = new HashMap<>();
+    for (Map.Entry<String, String> entry : branchMetadata.entrySet()) {
+      if (!Objects.equals(originalMetadata.get(entry.getKey()), entry.getValue())) {
+        changes.put(entry.getKey(), entry.getValue());
+      }
+    }
+    for (String key : originalMetadata.keySet()) {
+      if (!branchMetadata.containsKey(key)) {
+        changes.put(key, null);
+      }
+    }
+    return changes;
+  }
+
+  private boolean conflicts(String key, String value) {
+    return mergedMetadata.containsKey(key) && !Objects.equals(mergedMetadata.get(key), value);
+  }
+
+  private void apply(String key, String value) {
+    if (value != null) {
+      message.addMessageHeader(key, value);
+    } else {
+      message.removeMessageHeader(key);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.adaptris.vertx;
+
+import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.AdvancedConfig;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Serves the statistics of every clustered workflow and service in the JVM over HTTP, in the Prometheus text format.
+ * </p>
+ * <p>
+ * The endpoint is a vertx {@code HttpServer} on the component's own vertx instance, so nothing else is needed. Components that
+ * configure the same host and port share the one endpoint (on the path of the first of them to start), which stays up until the
+ * last of them stops. Nothing is measured until the endpoint is scraped; that includes the event loop lag, which is how long the
+ * scrape waited for its turn on the event loop.
+ * </p>
+ * <p>
+ * Vertx itself only counts event bus traffic when a metrics implementation is on the classpath; so the event bus figures are
+ * the ones this component counts as messages pass through its codec.
+ * </p>
+ *
+ * @config clustered-metrics-endpoint
+ */
+@XStreamAlias("clustered-metrics-endpoint")
+@ComponentProfile(summary = "Serve clustered workflow and service statistics for Prometheus", tag = "clustering,vertx")
+public class MetricsEndpoint {
+
+  private static final String DEFAULT_HOST = "0.0.0.0";
+
+  private static final String DEFAULT_PATH = "/metrics";
+
+  @NotNull
+  private Integer port;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "0.0.0.0")
+  private String host;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "/metrics")
+  private String path;
+
+  public MetricsEndpoint() {
+  }
+
+  public MetricsEndpoint(Integer port) {
+    this();
+    setPort(port);
+  }
+
+  int port() {
+    return NumberUtils.toIntDefaultIfNull(getPort(), 0);
+  }
+
+  String host() {
+    return defaultIfBlank(getHost(), DEFAULT_HOST);
+  }
+
+  String path() {
+    return defaultIfBlank(getPath(), DEFAULT_PATH);
+  }
+
+  public Integer getPort() {
+    return port;
+  }
+
+  /**
+   * Set the port to listen on.
+   *
+   * @param i the port.
+   */
+  public void setPort(Integer i) {
+    this.port = i;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * Set the address to listen on.
+   *
+   * @param s the host, default is 0.0.0.0 (every address).
+   */
+  public void setHost(String s) {
+    this.host = s;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Set the path the statistics are served from.
+   *
+   * @param s the path, default is /metrics.
+   */
+  public void setPath(String s) {
+    this.path = s;
+  }
+}
@@ -0,0 +1,111 @@
+package com.adaptris.vertx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * The HTTP endpoint for a {@link MetricsEndpoint}; one for each host and port in the JVM, shared by every component that
+ * configures it.
+ */
+class MetricsServer {
+
+  private static final Map<String, MetricsServer> SERVERS = new HashMap<>();
+
+  private transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private final Vertx vertx;
+
+  private final MetricsEndpoint config;
+
+  private HttpServer server;
+
+  private int users;
+
+  private MetricsServer(Vertx vertx, MetricsEndpoint config) {
+    this.vertx = vertx;
+    this.config = config;
+  }
+
+  /**
+   * Start serving on the configured host and port, unless another component already is; in which case the path that it
+   * configured is the one served.
+   *
+   * @param vertx the vertx instance to serve from, if this is the first component to use the host and port.
+   */
+  static MetricsServer start(Vertx vertx, MetricsEndpoint config) {
+    synchronized (SERVERS) {
+      MetricsServer result = SERVERS.computeIfAbsent(key(config), key -> new MetricsServer(vertx, config));
+      if (result.users++ == 0) {
+        result.listen();
+      } else if (!result.config.path().equals(config.path())) {
+        result.log.warn("Already serving clustered statistics on [{}:{}{}], not on [{}]", config.host(), config.port(),
+            result.config.path(), config.path());
+      }
+      return result;
+    }
+  }
+
+  private static String key(MetricsEndpoint config) {
+    return config.host() + ":" + config.port();
+  }
+
+  /**
+   * Stop serving, once every component that started the server has stopped it.
+   */
+  void stop() {
+    synchronized (SERVERS) {
+      if (--users > 0) {
+        return;
+      }
+      SERVERS.remove(key(config));
+      if (server != null) {
+        server.close();
+        server = null;
+      }
+    }
+  }
+
+  private void listen() {
+    server = vertx.createHttpServer(new HttpServerOptions().setHost(config.host()).setPort(config.port()));
+    server.requestHandler(this::handle).listen(result -> {
+      if (result.succeeded()) {
+        log.info("Serving clustered statistics on [{}:{}{}]", config.host(), result.result().actualPort(), config.path());
+      } else {
+        log.warn("Cannot serve clustered statistics on [{}:{}]", config.host(), config.port(), result.cause());
+      }
+    });
+  }
+
+  /**
+   * The port actually listened on; or -1 if not listening (yet).
+   */
+  int actualPort() {
+    synchronized (SERVERS) {
+      return server != null ? server.actualPort() : -1;
+    }
+  }
+
+  private void handle(HttpServerRequest request) {
+    if (!config.path().equals(request.path())) {
+      request.response().setStatusCode(404).end();
+      return;
+    }
+    if (request.method() != HttpMethod.GET) {
+      request.response().setStatusCode(405).putHeader("Allow", "GET").end();
+      return;
+    }
+    // We are on the event loop; whatever is already queued on it runs before this does.
+    long queued = System.nanoTime();
+    vertx.runOnContext(v -> request.response().putHeader("Content-Type", PrometheusFormat.CONTENT_TYPE)
+        .end(PrometheusFormat.write(VertxComponentStatistics.registered(), System.nanoTime() - queued)));
+  }
+}
@@ -0,0 +1,124 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.AutoPopulated;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamImplicit;
+
+/**
+ * <p>
+ * Runs groups of independent services from the service-list at the same time, rather than one after another.
+ * </p>
+ * <p>
+ * Each {@link ParallelStage} runs when the first of its services is reached in the service-list; every service in the stage is
+ * given its own copy of the message. Once they have all finished, the changes each successful service made to the metadata and
+ * payload are merged back into the message in service-list order, and the remaining services run as normal. If two services in
+ * the same stage change the same metadata key (or both change the payload), the {@link ConflictRule} decides which change is kept.
+ * Changes made by a service that failed are discarded. Every service still has its own entry in the {@link ServiceRecord}.
+ * </p>
+ * <p>
+ * Object metadata added by any successful service is kept, without conflict checks.
+ * </p>
+ *
+ * @config clustered-parallel-execution
+ */
+@XStreamAlias("clustered-parallel-execution")
+@ComponentProfile(summary = "Run independent clustered services at the same time", tag = "clustering,vertx")
+public class ParallelExecution {
+
+  /**
+   * What happens when services in the same stage make different changes to the same thing.
+   */
+  public enum ConflictRule {
+    /**
+     * The change from the service that is later in the service-list is kept.
+     */
+    LAST_WINS,
+    /**
+     * The change from the service that is earlier in the service-list is kept.
+     */
+    FIRST_WINS,
+    /**
+     * The later service is marked as failed.
+     */
+    FAIL
+  }
+
+  @NotNull
+  @AutoPopulated
+  @Valid
+  @XStreamImplicit
+  private List<ParallelStage> stages;
+
+  @InputFieldDefault(value = "LAST_WINS")
+  private ConflictRule conflictRule;
+
+  public ParallelExecution() {
+    setStages(new ArrayList<>());
+  }
+
+  public ParallelExecution(ParallelStage... stages) {
+    this();
+    for (ParallelStage stage : stages) {
+      getStages().add(stage);
+    }
+  }
+
+  ParallelStage stageOf(String serviceId) {
+    for (ParallelStage stage : getStages()) {
+      if (stage.contains(serviceId)) {
+        return stage;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The threads needed to run every stage side by side on each of the worker threads; the first service of a stage runs on the
+   * worker thread itself.
+   */
+  int threads(int workers) {
+    int widest = 1;
+    for (ParallelStage stage : getStages()) {
+      widest = Math.max(widest, stage.getServiceIds().size());
+    }
+    return Math.max(1, workers * (widest - 1));
+  }
+
+  ConflictRule conflictRule() {
+    return getConflictRule() != null ? getConflictRule() : ConflictRule.LAST_WINS;
+  }
+
+  public List<ParallelStage> getStages() {
+    return stages;
+  }
+
+  /**
+   * Set the groups of services that may be run at the same time.
+   *
+   * @param stages the stages; a service should only be in one of them.
+   */
+  public void setStages(List<ParallelStage> stages) {
+    this.stages = stages;
+  }
+
+  public ConflictRule getConflictRule() {
+    return conflictRule;
+  }
+
+  /**
+   * Set what happens when services in the same stage change the same metadata key, or the payload.
+   *
+   * @param rule the rule, default is {@link ConflictRule#LAST_WINS}.
+   */
+  public void setConflictRule(ConflictRule rule) {
+    this.conflictRule = rule;
+  }
+}
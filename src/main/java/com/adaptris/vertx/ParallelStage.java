@@ -0,0 +1,53 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.AutoPopulated;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamImplicit;
+
+/**
+ * A group of services, identified by their unique-ids, that do not depend on each other and so can be run at the same time.
+ *
+ * @config clustered-parallel-stage
+ * @see ParallelExecution
+ */
+@XStreamAlias("clustered-parallel-stage")
+public class ParallelStage {
+
+  @NotNull
+  @AutoPopulated
+  @XStreamImplicit(itemFieldName = "service-id")
+  private List<String> serviceIds;
+
+  public ParallelStage() {
+    setServiceIds(new ArrayList<>());
+  }
+
+  public ParallelStage(String... serviceIds) {
+    this();
+    for (String id : serviceIds) {
+      getServiceIds().add(id);
+    }
+  }
+
+  boolean contains(String serviceId) {
+    return getServiceIds().contains(serviceId);
+  }
+
+  public List<String> getServiceIds() {
+    return serviceIds;
+  }
+
+  /**
+   * Set the unique-ids of the services in this stage.
+   *
+   * @param ids the unique-ids; services that are not in the service-list are ignored.
+   */
+  public void setServiceIds(List<String> ids) {
+    this.serviceIds = ids;
+  }
+}
@@ -0,0 +1,225 @@
+package com.adaptris.vertx;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue for each priority level, behind a single {@link BlockingQueue}.
+ * <p>
+ * Adding a message only ever blocks on the queue for its own level. Taking a message picks the level according to the
+ * {@link PriorityLanes.Mode}; weighted levels are served with a smooth weighted round-robin, so that a level with weight 3 is served
+ * 3 times for each time a level with weight 1 is, interleaved rather than in bursts. Any message that has waited longer than the
+ * max-wait goes first.
+ * </p>
+ */
+class PriorityLaneQueue extends AbstractQueue<VertXMessage> implements BlockingQueue<VertXMessage> {
+
+  private final PriorityLanes config;
+
+  private final List<ArrayBlockingQueue<VertXMessage>> lanes = new ArrayList<>();
+
+  private final int[] credit;
+
+  // more permits than messages is fine (messages can be removed directly); fewer is not.
+  private final Semaphore available = new Semaphore(0);
+
+  PriorityLaneQueue(PriorityLanes config, int capacity) {
+    this.config = config;
+    for (int i = 0; i < config.levels(); i++) {
+      lanes.add(new ArrayBlockingQueue<>(capacity, true));
+    }
+    credit = new int[lanes.size()];
+  }
+
+  private ArrayBlockingQueue<VertXMessage> lane(VertXMessage msg) {
+    return lanes.get(config.level(msg.getPriority()));
+  }
+
+  @Override
+  public void put(VertXMessage msg) throws InterruptedException {
+    lane(msg).put(msg);
+    available.release();
+  }
+
+  @Override
+  public boolean offer(VertXMessage msg) {
+    if (lane(msg).offer(msg)) {
+      available.release();
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean offer(VertXMessage msg, long timeout, TimeUnit unit) throws InterruptedException {
+    if (lane(msg).offer(msg, timeout, unit)) {
+      available.release();
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public VertXMessage poll() {
+    return available.tryAcquire() ? next() : null;
+  }
+
+  @Override
+  public VertXMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return available.tryAcquire(timeout, unit) ? next() : null;
+  }
+
+  @Override
+  public VertXMessage take() throws InterruptedException {
+    VertXMessage result = null;
+    while (result == null) {
+      available.acquire();
+      result = next();
+    }
+    return result;
+  }
+
+  private synchronized VertXMessage next() {
+    int lane = starving(System.currentTimeMillis());
+    if (lane < 0) {
+      lane = config.mode() == PriorityLanes.Mode.STRICT ? highest() : weighted();
+    }
+    return lane >= 0 ? lanes.get(lane).poll() : null;
+  }
+
+  // The lane with the longest waiting message, if that has waited too long.
+  private int starving(long now) {
+    int result = -1;
+    long oldest = now - config.maxWaitMs();
+    for (int i = 0; i < lanes.size(); i++) {
+      VertXMessage head = lanes.get(i).peek();
+      if (head != null && head.getStartProcessingTime() < oldest) {
+        oldest = head.getStartProcessingTime();
+        result = i;
+      }
+    }
+    return result;
+  }
+
+  private int highest() {
+    for (int i = lanes.size() - 1; i >= 0; i--) {
+      if (!lanes.get(i).isEmpty()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int weighted() {
+    int result = -1;
+    int total = 0;
+    for (int i = 0; i < lanes.size(); i++) {
+      if (lanes.get(i).isEmpty()) {
+        continue;
+      }
+      credit[i] += config.weight(i);
+      total += config.weight(i);
+      if (result < 0 || credit[i] > credit[result]) {
+        result = i;
+      }
+    }
+    if (result >= 0) {
+      credit[result] -= total;
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized VertXMessage peek() {
+    for (int i = lanes.size() - 1; i >= 0; i--) {
+      VertXMessage head = lanes.get(i).peek();
+      if (head != null) {
+        return head;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int size() {
+    int result = 0;
+    for (ArrayBlockingQueue<VertXMessage> lane : lanes) {
+      result += lane.size();
+    }
+    return result;
+  }
+
+  /**
+   * The number of messages waiting at each level.
+   */
+  List<Integer> depths() {
+    List<Integer> result = new ArrayList<>();
+    lanes.forEach(lane -> result.add(lane.size()));
+    return result;
+  }
+
+  @Override
+  public int remainingCapacity() {
+    int result = 0;
+    for (ArrayBlockingQueue<VertXMessage> lane : lanes) {
+      result += lane.remainingCapacity();
+    }
+    return result;
+  }
+
+  @Override
+  public int drainTo(Collection<? super VertXMessage> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super VertXMessage> c, int maxElements) {
+    int drained = 0;
+    VertXMessage msg;
+    while (drained < maxElements && (msg = poll()) != null) {
+      c.add(msg);
+      drained++;
+    }
+    return drained;
+  }
+
+  /**
+   * Highest priority first; removing through the iterator removes from the underlying lane.
+   */
+  @Override
+  public Iterator<VertXMessage> iterator() {
+    return new Iterator<VertXMessage>() {
+      private int lane = lanes.size();
+      private Iterator<VertXMessage> current = null;
+
+      @Override
+      public boolean hasNext() {
+        while ((current == null || !current.hasNext()) && lane > 0) {
+          current = lanes.get(--lane).iterator();
+        }
+        return current != null && current.hasNext();
+      }
+
+      @Override
+      public VertXMessage next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+
+      @Override
+      public void remove() {
+        current.remove();
+      }
+    };
+  }
+}
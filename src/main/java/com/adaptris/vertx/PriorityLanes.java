@@ -0,0 +1,206 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.AdvancedConfig;
+import com.adaptris.annotation.AutoPopulated;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.interlok.InterlokException;
+import com.adaptris.interlok.config.DataInputParameter;
+import com.adaptris.util.NumberUtils;
+import com.adaptris.util.TimeInterval;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamImplicit;
+
+/**
+ * <p>
+ * Gives each priority level its own queue and worker threads; so that urgent messages don't wait behind bulk loads.
+ * </p>
+ * <p>
+ * The priority of each message is resolved from {@link #setPriority(DataInputParameter)}; levels go from 0 (the default, and the
+ * lowest) up to {@code levels - 1}, anything out of range is clamped. Each level is queued separately, up to queue-capacity
+ * messages each, and the queues are served either:
+ * </p>
+ * <ul>
+ * <li>{@link Mode#WEIGHTED} - in proportion to their weights; by default level {@code n} has weight {@code n + 1}.</li>
+ * <li>{@link Mode#STRICT} - the highest level with anything waiting always goes first.</li>
+ * </ul>
+ * <p>
+ * Either way, a message that has waited longer than {@link #setMaxWait(TimeInterval)} is sent next, so that low priority messages
+ * are never starved.
+ * </p>
+ * <p>
+ * The level travels with each message as an event-bus header, and the receiving workflow processes each level with its own worker
+ * threads; the max-threads are shared out in proportion to the weights, with at least one thread each. So to keep bulk loads from
+ * using up the workers on the receiving side, it needs to be configured (with the same levels) on the receiving workflows as well.
+ * </p>
+ *
+ * @config clustered-priority-lanes
+ */
+@XStreamAlias("clustered-priority-lanes")
+@ComponentProfile(summary = "Queue and process clustered messages by priority", tag = "clustering,vertx")
+public class PriorityLanes {
+
+  /**
+   * How the queues for each level are served.
+   */
+  public enum Mode {
+    WEIGHTED,
+    STRICT
+  }
+
+  private static final int DEFAULT_LEVELS = 3;
+
+  private static final TimeInterval DEFAULT_MAX_WAIT = new TimeInterval(5L, TimeUnit.SECONDS);
+
+  @Valid
+  private DataInputParameter<String> priority;
+
+  @InputFieldDefault(value = "3")
+  private Integer levels;
+
+  @InputFieldDefault(value = "WEIGHTED")
+  private Mode mode;
+
+  @AdvancedConfig
+  @NotNull
+  @AutoPopulated
+  @XStreamImplicit(itemFieldName = "weight")
+  private List<Integer> weights;
+
+  @AdvancedConfig
+  @Valid
+  @InputFieldDefault(value = "5 seconds")
+  private TimeInterval maxWait;
+
+  public PriorityLanes() {
+    setWeights(new ArrayList<>());
+  }
+
+  public PriorityLanes(DataInputParameter<String> priority) {
+    this();
+    setPriority(priority);
+  }
+
+  int levels() {
+    return Math.max(1, NumberUtils.toIntDefaultIfNull(getLevels(), DEFAULT_LEVELS));
+  }
+
+  Mode mode() {
+    return getMode() != null ? getMode() : Mode.WEIGHTED;
+  }
+
+  int weight(int level) {
+    return level < getWeights().size() && getWeights().get(level) != null ? Math.max(1, getWeights().get(level)) : level + 1;
+  }
+
+  long maxWaitMs() {
+    return TimeInterval.toMillisecondsDefaultIfNull(getMaxWait(), DEFAULT_MAX_WAIT);
+  }
+
+  int level(AdaptrisMessage msg) throws InterlokException {
+    if (getPriority() == null) {
+      return 0;
+    }
+    return level(NumberUtils.toIntDefaultIfNull(toInteger(getPriority().extract(msg)), 0));
+  }
+
+  int level(int priority) {
+    return Math.max(0, Math.min(levels() - 1, priority));
+  }
+
+  /**
+   * The worker threads for each level, shared out by weight.
+   */
+  int[] threads(int maxThreads) {
+    int[] result = new int[levels()];
+    int total = 0;
+    for (int i = 0; i < result.length; i++) {
+      total += weight(i);
+    }
+    for (int i = 0; i < result.length; i++) {
+      result[i] = Math.max(1, maxThreads * weight(i) / total);
+    }
+    return result;
+  }
+
+  private static Integer toInteger(String value) {
+    try {
+      return value != null ? Integer.valueOf(value.trim()) : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  public DataInputParameter<String> getPriority() {
+    return priority;
+  }
+
+  /**
+   * Set where the priority of each message comes from.
+   *
+   * @param priority the priority, e.g. from metadata; anything that isn't a number means level 0.
+   */
+  public void setPriority(DataInputParameter<String> priority) {
+    this.priority = priority;
+  }
+
+  public Integer getLevels() {
+    return levels;
+  }
+
+  /**
+   * Set the number of priority levels.
+   *
+   * @param i the number of levels, default is 3.
+   */
+  public void setLevels(Integer i) {
+    this.levels = i;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Set how the queues for each level are served.
+   *
+   * @param mode the mode, default is {@link Mode#WEIGHTED}.
+   */
+  public void setMode(Mode mode) {
+    this.mode = mode;
+  }
+
+  public List<Integer> getWeights() {
+    return weights;
+  }
+
+  /**
+   * Set the weight of each level, lowest level first.
+   *
+   * @param weights the weights; any level without one has a weight of its level + 1.
+   */
+  public void setWeights(List<Integer> weights) {
+    this.weights = weights;
+  }
+
+  public TimeInterval getMaxWait() {
+    return maxWait;
+  }
+
+  /**
+   * Set the longest a message waits before it is sent regardless of its priority.
+   *
+   * @param t the maximum wait, default is 5 seconds.
+   */
+  public void setMaxWait(TimeInterval t) {
+    this.maxWait = t;
+  }
+}
@@ -0,0 +1,168 @@
+package com.adaptris.vertx;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Writes the statistics of clustered components in the Prometheus text exposition format (version 0.0.4).
+ * <p>
+ * Every sample is labelled with the component's class and unique id; times are in seconds.
+ * </p>
+ */
+class PrometheusFormat {
+
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final String PREFIX = "interlok_vertx_";
+
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+  private static final String[] LATENCIES = {VertxComponentStatistics.QUEUE_WAIT, VertxComponentStatistics.SERVICE_TIME,
+      VertxComponentStatistics.ROUND_TRIP, VertxComponentStatistics.REMOTE_TIME, VertxComponentStatistics.NETWORK};
+
+  private final StringBuilder out = new StringBuilder();
+
+  private final Collection<VertxComponentStatistics> components;
+
+  private PrometheusFormat(Collection<VertxComponentStatistics> components) {
+    this.components = components;
+  }
+
+  /**
+   * @param eventLoopLagNanos how long the request waited for the event loop, or -1 if not known.
+   */
+  static String write(Collection<VertxComponentStatistics> components, long eventLoopLagNanos) {
+    PrometheusFormat format = new PrometheusFormat(components);
+    if (eventLoopLagNanos >= 0) {
+      format.family("event_loop_lag_seconds", "gauge", "How long the scrape waited for the event loop.");
+      format.out.append(PREFIX).append("event_loop_lag_seconds ").append(seconds(eventLoopLagNanos)).append('\n');
+    }
+    format.gauge("queue_depth", "Messages waiting to be sent.", VertxComponentStatistics::getQueueDepth);
+    format.gauge("queue_remaining_capacity", "Room left for messages waiting to be sent.",
+        VertxComponentStatistics::getQueueRemainingCapacity);
+    format.gauge("in_flight", "Messages sent and waiting for a reply.", VertxComponentStatistics::getInFlight);
+    format.gauge("active_threads", "Threads processing messages received from the cluster.",
+        VertxComponentStatistics::getActiveThreads);
+    format.gauge("executor_queue_length", "Messages received from the cluster waiting for a thread.",
+        VertxComponentStatistics::getExecutorQueueLength);
+    format.counter("replies_total", "Replies received.", VertxComponentStatistics::getReplies);
+    format.counter("reply_failures_total", "Messages sent that got no reply, after any retries.",
+        VertxComponentStatistics::getReplyFailures);
+    format.counter("replies_expired_total", "Replies given up on.", VertxComponentStatistics::getRepliesExpired);
+    format.counter("expired_total", "Messages received that expired before they were processed.",
+        VertxComponentStatistics::getExpiredBeforeProcessing);
+    format.counter("rejected_total", "Messages received that were rejected as overloaded.", VertxComponentStatistics::getRejected);
+    format.counter("hedges_total", "Duplicates sent of slow messages.", c -> c.clusterStatistics().getHedged());
+    format.counter("circuits_opened_total", "Times a circuit to a target opened.", c -> c.clusterStatistics().getCircuitsOpened());
+    format.counter("circuit_rejected_total", "Messages failed because their circuit was open.",
+        c -> c.clusterStatistics().getCircuitRejected());
+    format.counter("eventbus_encoded_messages_total", "Messages encoded for the event bus.",
+        VertxComponentStatistics::getEncodedMessages);
+    format.counter("eventbus_encoded_bytes_total", "Bytes encoded for the event bus.", VertxComponentStatistics::getEncodedBytes);
+    format.counter("eventbus_encode_seconds_total", "Time spent encoding messages for the event bus.",
+        c -> seconds(c.codecStatistics().getEncodeNanos()));
+    format.counter("eventbus_decoded_messages_total", "Messages decoded from the event bus.",
+        VertxComponentStatistics::getDecodedMessages);
+    format.counter("eventbus_decoded_bytes_total", "Bytes decoded from the event bus.", VertxComponentStatistics::getDecodedBytes);
+    format.counter("eventbus_decode_seconds_total", "Time spent decoding messages from the event bus.",
+        c -> seconds(c.codecStatistics().getDecodeNanos()));
+    format.latencies();
+    return format.out.toString();
+  }
+
+  private void gauge(String name, String help, ToDoubleFunction<VertxComponentStatistics> value) {
+    metric(name, "gauge", help, value);
+  }
+
+  private void counter(String name, String help, ToDoubleFunction<VertxComponentStatistics> value) {
+    metric(name, "counter", help, value);
+  }
+
+  private void metric(String name, String type, String help, ToDoubleFunction<VertxComponentStatistics> value) {
+    family(name, type, help);
+    for (VertxComponentStatistics component : components) {
+      sample(name, labels(component, null), value.applyAsDouble(component));
+    }
+  }
+
+  private void latencies() {
+    String name = "latency_seconds";
+    family(name, "summary", "Latency of each stage; queue-wait, round-trip, remote-time and network when sending, "
+        + "service-time when processing.");
+    for (VertxComponentStatistics component : components) {
+      ClusterStatistics statistics = component.clusterStatistics();
+      for (String stage : LATENCIES) {
+        LatencyHistogram histogram = histogram(statistics, stage);
+        String labels = labels(component, stage);
+        if (histogram.count() > 0) {
+          for (double quantile : QUANTILES) {
+            sample(name, labels + ",quantile=\"" + quantile + "\"", micros(histogram.percentile(quantile * 100)));
+          }
+        }
+        sample(name + "_sum", labels, micros(histogram.sum()));
+        sample(name + "_count", labels, histogram.count());
+      }
+    }
+  }
+
+  private static LatencyHistogram histogram(ClusterStatistics statistics, String stage) {
+    Function<ClusterStatistics, LatencyHistogram> histogram;
+    switch (stage) {
+    case VertxComponentStatistics.QUEUE_WAIT:
+      histogram = ClusterStatistics::queueWait;
+      break;
+    case VertxComponentStatistics.SERVICE_TIME:
+      histogram = ClusterStatistics::serviceTime;
+      break;
+    case VertxComponentStatistics.ROUND_TRIP:
+      histogram = ClusterStatistics::roundTrip;
+      break;
+    case VertxComponentStatistics.REMOTE_TIME:
+      histogram = ClusterStatistics::remoteTime;
+      break;
+    default:
+      histogram = ClusterStatistics::network;
+      break;
+    }
+    return histogram.apply(statistics);
+  }
+
+  private void family(String name, String type, String help) {
+    out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  private void sample(String name, String labels, double value) {
+    out.append(PREFIX).append(name).append('{').append(labels).append("} ");
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      out.append((long) value);
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+  }
+
+  private static String labels(VertxComponentStatistics component, String stage) {
+    StringBuilder result = new StringBuilder();
+    result.append("component=\"").append(escape(component.type())).append('"');
+    result.append(",id=\"").append(escape(component.id())).append('"');
+    if (stage != null) {
+      result.append(",stage=\"").append(stage).append('"');
+    }
+    return result.toString();
+  }
+
+  static String escape(String value) {
+    return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static double seconds(long nanos) {
+    return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+  }
+
+  private static double micros(long micros) {
+    return micros / (double) TimeUnit.SECONDS.toMicros(1);
+  }
+}
@@ -0,0 +1,82 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.Valid;
+
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.adaptris.util.TimeInterval;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Lets the members of the cluster pull messages when they have free worker threads, rather than having messages pushed to them
+ * whether they are busy or not.
+ * </p>
+ * <p>
+ * The sending workflow keeps its messages in its queue, and announces that it has work for the target cluster. A member with free
+ * worker threads asks for up to {@link #setBatchSize(Integer)} messages, and asks again each time it finishes one of them. So a
+ * faster member takes proportionally more of the work, and a slow or paused one stops getting new messages. While there are
+ * messages waiting, the announcement is repeated every {@link #setAnnounceInterval(TimeInterval)} so that members that have just
+ * become idle (or just joined) can pick up work.
+ * </p>
+ * <p>
+ * Only applies to the "single" target send mode; it needs to be configured on both the sending and the receiving workflows.
+ * </p>
+ *
+ * @config clustered-pull-dispatch
+ */
+@XStreamAlias("clustered-pull-dispatch")
+@ComponentProfile(summary = "Let cluster members pull work when they have capacity", tag = "clustering,vertx")
+public class PullDispatch {
+
+  private static final int DEFAULT_BATCH_SIZE = 1;
+
+  private static final TimeInterval DEFAULT_ANNOUNCE_INTERVAL = new TimeInterval(1L, TimeUnit.SECONDS);
+
+  @InputFieldDefault(value = "1")
+  private Integer batchSize;
+
+  @Valid
+  @InputFieldDefault(value = "1 second")
+  private TimeInterval announceInterval;
+
+  public PullDispatch() {
+  }
+
+  int batchSize() {
+    return NumberUtils.toIntDefaultIfNull(getBatchSize(), DEFAULT_BATCH_SIZE);
+  }
+
+  long announceIntervalMs() {
+    return TimeInterval.toMillisecondsDefaultIfNull(getAnnounceInterval(), DEFAULT_ANNOUNCE_INTERVAL);
+  }
+
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set the most messages a member asks for at once.
+   *
+   * @param i the batch size, default is 1; never more than the member's free worker threads.
+   */
+  public void setBatchSize(Integer i) {
+    this.batchSize = i;
+  }
+
+  public TimeInterval getAnnounceInterval() {
+    return announceInterval;
+  }
+
+  /**
+   * Set how often the sender repeats that it has work waiting.
+   *
+   * @param t the interval, default is 1 second.
+   */
+  public void setAnnounceInterval(TimeInterval t) {
+    this.announceInterval = t;
+  }
+}
@@ -0,0 +1,125 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.util.GuidGenerator;
+
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Both sides of {@link PullDispatch}.
+ * <p>
+ * The sender publishes its own pull address to {@code <target>.available}. A receiver with free workers sends a pull request
+ * (where to send the work, and how much) to that address; and the sender then sends that many queued messages, as normal
+ * requests, to the receiver's own address. Each message carries the pull address of its sender as a header, so that the receiver
+ * can ask for more as soon as it has finished one.
+ * </p>
+ */
+class PullDispatcher {
+
+  static final String AVAILABLE_SUFFIX = ".available";
+
+  private static final String PULL_SUFFIX = ".pull.";
+
+  private static final String WORKER_SUFFIX = ".worker.";
+
+  private static final String REQUEST_TARGET = "target";
+
+  private static final String REQUEST_REPLY_TO = "replyTo";
+
+  private static final String REQUEST_SLOTS = "slots";
+
+  private transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private final ClusteredEventBus clusteredEventBus;
+
+  private final PullDispatch config;
+
+  private final String pullAddress;
+
+  private final String workerAddress;
+
+  private final String clusterId;
+
+  private final List<MessageConsumer<?>> consumers = new ArrayList<>();
+
+  private IntSupplier freeSlots;
+
+  PullDispatcher(ClusteredEventBus clusteredEventBus, PullDispatch config, String clusterId) {
+    this.clusteredEventBus = clusteredEventBus;
+    this.config = config;
+    this.clusterId = clusterId;
+    String id = new GuidGenerator().getUUID();
+    pullAddress = clusterId + PULL_SUFFIX + id;
+    workerAddress = clusterId + WORKER_SUFFIX + id;
+  }
+
+  /**
+   * Start handing out work, and start asking for it.
+   *
+   * @param take removes up to the given number of queued messages for the target.
+   * @param handler handles the messages we are sent.
+   * @param freeSlots how many more messages we could start processing now.
+   */
+  void start(BiFunction<String, Integer, List<VertXMessage>> take, Handler<Message<VertXMessage>> handler,
+      IntSupplier freeSlots) {
+    this.freeSlots = freeSlots;
+    consumers.add(clusteredEventBus.getEventBus().<JsonObject>consumer(pullAddress, request -> {
+      JsonObject body = request.body();
+      String replyTo = body.getString(REQUEST_REPLY_TO);
+      for (VertXMessage message : take.apply(body.getString(REQUEST_TARGET), body.getInteger(REQUEST_SLOTS, 1))) {
+        VertxHeaders.setPullFrom(message, pullAddress);
+        clusteredEventBus.send(replyTo, message, true);
+      }
+    }));
+    consumers.add(clusteredEventBus.getEventBus().consumer(workerAddress, handler));
+    consumers.add(clusteredEventBus.getEventBus().<String>consumer(clusterId + AVAILABLE_SUFFIX, announcement -> {
+      pull(announcement.body());
+    }));
+  }
+
+  void stop() {
+    consumers.forEach(MessageConsumer::unregister);
+    consumers.clear();
+  }
+
+  /**
+   * Tell the members of the target cluster that there is work waiting for them.
+   */
+  void announce(String target) {
+    clusteredEventBus.getEventBus().publish(target + AVAILABLE_SUFFIX, pullAddress);
+  }
+
+  /**
+   * Ask the sender for as much work as we have room for.
+   */
+  void pull(String from) {
+    pull(from, 0);
+  }
+
+  /**
+   * Ask the sender for more work, having just finished some of it; so there is always room for at least one more.
+   */
+  void pullAgain(String from) {
+    pull(from, 1);
+  }
+
+  private void pull(String from, int minimum) {
+    int slots = Math.min(config.batchSize(), Math.max(minimum, freeSlots.getAsInt()));
+    if (from == null || slots <= 0) {
+      return;
+    }
+    log.trace("Pulling {} messages from [{}]", slots, from);
+    clusteredEventBus.getEventBus().send(from, new JsonObject().put(REQUEST_TARGET, clusterId)
+        .put(REQUEST_REPLY_TO, workerAddress).put(REQUEST_SLOTS, slots));
+  }
+}
@@ -0,0 +1,121 @@
+package com.adaptris.vertx;
+
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.AdvancedConfig;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Limits the rate that messages are sent to each target; for when the systems behind the target can only take so many messages a
+ * second.
+ * </p>
+ * <p>
+ * Each target has its own token bucket, holding up to {@link #setBurst(Integer)} tokens and refilled at
+ * {@link #setMessagesPerSecond(Integer)}; every message sent (including retries) takes a token. Messages that have to wait are
+ * held in order and sent from a vertx timer once there are tokens for them, so no thread is blocked waiting; when replies are
+ * expected, how many can be held is limited by the queue-capacity.
+ * </p>
+ * <p>
+ * With {@link #setClusterWide(Boolean)} the rate applies across every instance sending to the target, rather than to each of them.
+ * The instances take tokens from a shared vertx counter, {@link #setLeaseSize(Integer)} at a time; this relies on their clocks
+ * being reasonably in step.
+ * </p>
+ *
+ * @config clustered-rate-limit
+ */
+@XStreamAlias("clustered-rate-limit")
+@ComponentProfile(summary = "Limit the rate clustered messages are sent to each target", tag = "clustering,vertx")
+public class RateLimit {
+
+  @NotNull
+  private Integer messagesPerSecond;
+
+  private Integer burst;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "false")
+  private Boolean clusterWide;
+
+  @AdvancedConfig
+  private Integer leaseSize;
+
+  public RateLimit() {
+  }
+
+  public RateLimit(Integer messagesPerSecond) {
+    this();
+    setMessagesPerSecond(messagesPerSecond);
+  }
+
+  int messagesPerSecond() {
+    return Math.max(1, NumberUtils.toIntDefaultIfNull(getMessagesPerSecond(), 1));
+  }
+
+  int burst() {
+    return Math.max(1, NumberUtils.toIntDefaultIfNull(getBurst(), messagesPerSecond()));
+  }
+
+  boolean clusterWide() {
+    return getClusterWide() != null ? getClusterWide().booleanValue() : false;
+  }
+
+  int leaseSize() {
+    return Math.max(1, Math.min(burst(), NumberUtils.toIntDefaultIfNull(getLeaseSize(), messagesPerSecond() / 10)));
+  }
+
+  public Integer getMessagesPerSecond() {
+    return messagesPerSecond;
+  }
+
+  /**
+   * Set the rate that messages may be sent to each target.
+   *
+   * @param i the number of messages a second.
+   */
+  public void setMessagesPerSecond(Integer i) {
+    this.messagesPerSecond = i;
+  }
+
+  public Integer getBurst() {
+    return burst;
+  }
+
+  /**
+   * Set the most messages that may be sent to a target at once, after it has been quiet for a while.
+   *
+   * @param i the burst size; defaults to the messages per second.
+   */
+  public void setBurst(Integer i) {
+    this.burst = i;
+  }
+
+  public Boolean getClusterWide() {
+    return clusterWide;
+  }
+
+  /**
+   * Set whether the rate is shared by every instance sending to a target.
+   *
+   * @param b true to share the rate across the cluster, default is false.
+   */
+  public void setClusterWide(Boolean b) {
+    this.clusterWide = b;
+  }
+
+  public Integer getLeaseSize() {
+    return leaseSize;
+  }
+
+  /**
+   * Set how many tokens are taken from the cluster at once, when the rate is cluster wide.
+   *
+   * @param i the number of tokens; defaults to a tenth of the messages per second (at least 1, at most the burst).
+   */
+  public void setLeaseSize(Integer i) {
+    this.leaseSize = i;
+  }
+}
@@ -0,0 +1,195 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Counter;
+
+/**
+ * A token bucket for each target, with the sends that are waiting for a token held in order.
+ * <p>
+ * Locally the bucket refills continuously. Cluster wide, tokens are leased from a shared counter holding the time (in
+ * microseconds) at which the target next has a token free, i.e. the generic cell rate algorithm; a lease is granted if that time
+ * is no more than the burst ahead of now, and the counter is moved on by the lease with a compare-and-set.
+ * </p>
+ */
+class RateLimiter {
+
+  static final String COUNTER_PREFIX = "interlok.rate-limit.";
+
+  private static final long LEASE_RETRY_MS = 1000;
+
+  private transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private final Supplier<Vertx> vertx;
+
+  private final int rate;
+
+  private final int burst;
+
+  private final boolean clusterWide;
+
+  private final int leaseSize;
+
+  // microseconds between tokens, and how far ahead the cluster may go.
+  private final long interval;
+
+  private final long tolerance;
+
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+  RateLimiter(RateLimit config, Supplier<Vertx> vertx) {
+    this.vertx = vertx;
+    rate = config.messagesPerSecond();
+    burst = config.burst();
+    clusterWide = config.clusterWide();
+    leaseSize = config.leaseSize();
+    interval = Math.max(1, TimeUnit.SECONDS.toMicros(1) / rate);
+    tolerance = burst * interval;
+  }
+
+  /**
+   * Run the send now if there is a token for it, otherwise once there is.
+   */
+  void submit(String target, Runnable send) {
+    buckets.computeIfAbsent(target, Bucket::new).submit(send);
+  }
+
+  /**
+   * The number of sends waiting for a token, for each target.
+   */
+  Map<String, Integer> pending() {
+    Map<String, Integer> result = new LinkedHashMap<>();
+    buckets.forEach((target, bucket) -> result.put(target, bucket.pending()));
+    return result;
+  }
+
+  private class Bucket {
+    private final String target;
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    // a timer or lease is outstanding, and will drain the pending sends.
+    private boolean waiting;
+
+    Bucket(String target) {
+      this.target = target;
+      tokens = clusterWide ? 0 : burst;
+    }
+
+    void submit(Runnable send) {
+      synchronized (this) {
+        if (!pending.isEmpty() || !take()) {
+          pending.add(send);
+          schedule();
+          return;
+        }
+      }
+      send.run();
+    }
+
+    synchronized int pending() {
+      return pending.size();
+    }
+
+    private boolean take() {
+      refill();
+      if (tokens >= 1) {
+        tokens--;
+        return true;
+      }
+      return false;
+    }
+
+    private void refill() {
+      if (clusterWide) {
+        return;
+      }
+      long now = System.nanoTime();
+      tokens = Math.min(burst, tokens + (double) (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+      refilledAt = now;
+    }
+
+    private void schedule() {
+      if (waiting) {
+        return;
+      }
+      waiting = true;
+      if (clusterWide) {
+        lease();
+      } else {
+        long delay = (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toMillis(1) / rate);
+        vertx.get().setTimer(Math.max(1, delay), id -> drain());
+      }
+    }
+
+    private void drain() {
+      List<Runnable> ready = new ArrayList<>();
+      synchronized (this) {
+        waiting = false;
+        while (!pending.isEmpty() && take()) {
+          ready.add(pending.poll());
+        }
+        if (!pending.isEmpty()) {
+          schedule();
+        }
+      }
+      ready.forEach(Runnable::run);
+    }
+
+    private void lease() {
+      vertx.get().sharedData().getCounter(COUNTER_PREFIX + target, counter -> {
+        if (counter.failed()) {
+          leaseFailed(counter.cause());
+          return;
+        }
+        lease(counter.result());
+      });
+    }
+
+    private void lease(Counter counter) {
+      counter.get(current -> {
+        if (current.failed()) {
+          leaseFailed(current.cause());
+          return;
+        }
+        long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long next = Math.max(current.result(), now);
+        long granted = Math.min(leaseSize, (now + tolerance - next) / interval);
+        if (granted < 1) {
+          long wait = TimeUnit.MICROSECONDS.toMillis(next + interval - tolerance - now);
+          vertx.get().setTimer(Math.max(1, wait), id -> lease(counter));
+          return;
+        }
+        counter.compareAndSet(current.result(), next + granted * interval, set -> {
+          if (set.failed()) {
+            leaseFailed(set.cause());
+          } else if (!set.result()) {
+            // another instance got there first.
+            lease(counter);
+          } else {
+            synchronized (this) {
+              tokens += granted;
+            }
+            drain();
+          }
+        });
+      });
+    }
+
+    private void leaseFailed(Throwable cause) {
+      log.warn("Cannot lease tokens for [{}], trying again: {}", target, cause.getMessage());
+      vertx.get().setTimer(LEASE_RETRY_MS, id -> lease());
+    }
+  }
+}
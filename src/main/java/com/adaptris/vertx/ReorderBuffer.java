@@ -0,0 +1,189 @@
+package com.adaptris.vertx;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds replies that arrive out of order, releasing each sequence in the order it was registered.
+ * <p>
+ * Items are released to the supplied {@link Consumer} while the buffer is locked, so releases from different threads never
+ * interleave.
+ * </p>
+ */
+class ReorderBuffer<T> {
+
+  // how many given up places to remember, so that their replies still can't jump the queue if they turn up.
+  private static final int MAX_PASSED = 10000;
+
+  private transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private final int maxBuffered;
+
+  // true if a late reply should be reported, false if the message was already dealt with.
+  private final Map<String, Boolean> passed = new LinkedHashMap<String, Boolean>() {
+    private static final long serialVersionUID = -4723094611482290731L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > MAX_PASSED;
+    }
+  };
+
+  private final Map<String, Sequence> sequences = new HashMap<>();
+
+  private final Map<String, Slot> slots = new HashMap<>();
+
+  ReorderBuffer(int maxBuffered) {
+    this.maxBuffered = maxBuffered;
+  }
+
+  /**
+   * Give the next place in the named sequence to a message.
+   * 
+   * @param deadline when to stop waiting for the message, 0 to wait until the buffer fills.
+   * @return the sequence number.
+   */
+  synchronized long register(String key, String id, long deadline) {
+    Sequence sequence = sequences.computeIfAbsent(key, Sequence::new);
+    Slot slot = new Slot(sequence, sequence.next++, id, deadline);
+    sequence.slots.put(slot.number, slot);
+    slots.put(id, slot);
+    return slot.number;
+  }
+
+  /**
+   * Fill the place of a message, releasing it and any later items it was holding up.
+   * <p>
+   * Items that were never registered are released immediately. Items whose place was already given up because it took too long
+   * go to {@code late} instead, since releasing them now would put them after later items; those whose place was given up with
+   * {@link #skip(String, Consumer)} are dropped.
+   * </p>
+   */
+  synchronized void complete(String id, T item, Consumer<T> release, Consumer<T> late) {
+    Boolean report = passed.remove(id);
+    if (report != null) {
+      log.warn("Reply for message [{}] arrived after its place in the sequence was given up", id);
+      if (report) {
+        late.accept(item);
+      }
+      return;
+    }
+    Slot slot = slots.get(id);
+    if (slot == null) {
+      release.accept(item);
+      return;
+    }
+    slot.item = item;
+    slot.done = true;
+    Sequence sequence = slot.sequence;
+    release(sequence, release);
+    while (held(sequence) > maxBuffered) {
+      skipHead(sequence, "too many replies waiting");
+      release(sequence, release);
+    }
+  }
+
+  /**
+   * Give up on a message; later items no longer wait for it.
+   */
+  synchronized void skip(String id, Consumer<T> release) {
+    Slot slot = slots.get(id);
+    if (slot != null && !slot.done) {
+      slot.done = true;
+      passed.put(id, false);
+      release(slot.sequence, release);
+    }
+  }
+
+  /**
+   * Give up on any message at the head of a sequence whose deadline has passed.
+   */
+  synchronized void skipExpired(long now, Consumer<T> release) {
+    for (Sequence sequence : sequences.values()) {
+      Slot head = head(sequence);
+      while (head != null && !head.done && head.deadline > 0 && now > head.deadline) {
+        skipHead(sequence, "deadline passed");
+        release(sequence, release);
+        head = head(sequence);
+      }
+    }
+    sequences.values().removeIf(s -> s.slots.isEmpty());
+  }
+
+  synchronized int held() {
+    int held = 0;
+    for (Sequence sequence : sequences.values()) {
+      held += held(sequence);
+    }
+    return held;
+  }
+
+  private int held(Sequence sequence) {
+    int held = 0;
+    for (Slot slot : sequence.slots.values()) {
+      if (slot.item != null) {
+        held++;
+      }
+    }
+    return held;
+  }
+
+  private Slot head(Sequence sequence) {
+    Map.Entry<Long, Slot> first = sequence.slots.firstEntry();
+    return first != null ? first.getValue() : null;
+  }
+
+  private void skipHead(Sequence sequence, String reason) {
+    Slot head = head(sequence);
+    log.warn("Skipping message [{}] in sequence [{}], {}", head.id, sequence.key, reason);
+    head.done = true;
+    passed.put(head.id, true);
+  }
+
+  private void release(Sequence sequence, Consumer<T> release) {
+    for (Iterator<Slot> i = sequence.slots.values().iterator(); i.hasNext();) {
+      Slot slot = i.next();
+      if (!slot.done) {
+        break;
+      }
+      i.remove();
+      slots.remove(slot.id);
+      if (slot.item != null) {
+        release.accept(slot.item);
+      }
+    }
+  }
+
+  private class Sequence {
+    private final String key;
+    private final TreeMap<Long, Slot> slots = new TreeMap<>();
+    private long next;
+
+    Sequence(String key) {
+      this.key = key;
+    }
+  }
+
+  private class Slot {
+    private final Sequence sequence;
+    private final long number;
+    private final String id;
+    private final long deadline;
+    private boolean done;
+    private T item;
+
+    Slot(Sequence sequence, long number, String id, long deadline) {
+      this.sequence = sequence;
+      this.number = number;
+      this.id = id;
+      this.deadline = deadline;
+    }
+  }
+}
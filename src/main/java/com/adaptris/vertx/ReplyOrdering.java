@@ -0,0 +1,87 @@
+package com.adaptris.vertx;
+
+import com.adaptris.annotation.AdvancedConfig;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.util.NumberUtils;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Produces the replies from the cluster in the order the messages were consumed, while still processing them in parallel.
+ * </p>
+ * <p>
+ * Each consumed message is given a sequence number; either a single sequence for the whole workflow, or one sequence for each
+ * distinct value of {@link #setOrderingMetadataKey(String)}. Replies that arrive early are held until the replies for all earlier
+ * messages in their sequence have been produced. A message that fails, or passes its deadline (see
+ * {@link VertxWorkflow#setItemExpiryTimeout(com.adaptris.util.TimeInterval)}) without a reply, leaves a gap that is skipped so
+ * that later replies are not held forever. If the reply for a skipped message does turn up, it is handed to the
+ * message-error-handler rather than produced out of order.
+ * </p>
+ * <p>
+ * Held replies keep their place in the workflow's queue, so at most queue-capacity replies are ever held; if more than
+ * {@link #setMaxBufferedReplies(Integer)} are waiting on a single gap, the gap is skipped early.
+ * </p>
+ * 
+ * @config clustered-reply-ordering
+ */
+@XStreamAlias("clustered-reply-ordering")
+@ComponentProfile(summary = "Produce clustered replies in the order they were consumed", tag = "clustering,vertx")
+public class ReplyOrdering {
+
+  private static final int DEFAULT_MAX_BUFFERED = 100;
+
+  private static final String GLOBAL = "";
+
+  private String orderingMetadataKey;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "100")
+  private Integer maxBufferedReplies;
+
+  public ReplyOrdering() {
+  }
+
+  public ReplyOrdering(String orderingMetadataKey) {
+    this();
+    setOrderingMetadataKey(orderingMetadataKey);
+  }
+
+  String sequenceKey(AdaptrisMessage msg) {
+    if (getOrderingMetadataKey() == null || !msg.headersContainsKey(getOrderingMetadataKey())) {
+      return GLOBAL;
+    }
+    return msg.getMetadataValue(getOrderingMetadataKey());
+  }
+
+  int maxBufferedReplies() {
+    return NumberUtils.toIntDefaultIfNull(getMaxBufferedReplies(), DEFAULT_MAX_BUFFERED);
+  }
+
+  public String getOrderingMetadataKey() {
+    return orderingMetadataKey;
+  }
+
+  /**
+   * Set the metadata key whose value identifies the sequence a message belongs to.
+   * 
+   * @param key the metadata key; if not configured (or missing from a message), all messages share a single sequence.
+   */
+  public void setOrderingMetadataKey(String key) {
+    this.orderingMetadataKey = key;
+  }
+
+  public Integer getMaxBufferedReplies() {
+    return maxBufferedReplies;
+  }
+
+  /**
+   * Set the most replies that may be held waiting for a gap in a single sequence.
+   * 
+   * @param i the maximum, default is 100.
+   */
+  public void setMaxBufferedReplies(Integer i) {
+    this.maxBufferedReplies = i;
+  }
+}
@@ -0,0 +1,124 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.annotation.InputFieldDefault;
+import com.adaptris.util.NumberUtils;
+import com.adaptris.util.TimeInterval;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Controls how a clustered component retries a message when no successful reply comes back; because there was nobody listening on
+ * the target address, the request timed out, or the recipient failed it.
+ * </p>
+ * <p>
+ * Each retry waits for an exponentially increasing delay (starting at {@link #setInitialDelay(TimeInterval)}, doubling each time, up
+ * to {@link #setMaxDelay(TimeInterval)}) with a random jitter of up to half the delay, so that many senders don't all retry at the
+ * same moment. Messages whose deadline has passed are never retried. Once all attempts are used up the message is handed to the
+ * error handler.
+ * </p>
+ * <p>
+ * Unless the delivery properties set a send-timeout, each attempt waits for its share of the time left before the deadline of the
+ * message; so that an attempt that times out can still be retried.
+ * </p>
+ * 
+ * @config clustered-retry-policy
+ */
+@XStreamAlias("clustered-retry-policy")
+@ComponentProfile(summary = "Retry clustered messages that do not get a reply", tag = "clustering,vertx")
+public class RetryPolicy {
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+  private static final TimeInterval DEFAULT_INITIAL_DELAY = new TimeInterval(100L, TimeUnit.MILLISECONDS);
+
+  private static final TimeInterval DEFAULT_MAX_DELAY = new TimeInterval(10L, TimeUnit.SECONDS);
+
+  @InputFieldDefault(value = "3")
+  private Integer maxAttempts;
+
+  private TimeInterval initialDelay;
+
+  private TimeInterval maxDelay;
+
+  public RetryPolicy() {
+  }
+
+  public RetryPolicy(Integer maxAttempts, TimeInterval initialDelay, TimeInterval maxDelay) {
+    this();
+    setMaxAttempts(maxAttempts);
+    setInitialDelay(initialDelay);
+    setMaxDelay(maxDelay);
+  }
+
+  /**
+   * Whether a message that has already been sent {@code attempts} times may be sent again.
+   */
+  boolean retry(int attempts) {
+    return attempts < maxAttempts();
+  }
+
+  /**
+   * The delay before the next attempt, for a message that has already been sent {@code attempts} times.
+   */
+  long delay(int attempts) {
+    long max = maxDelay().toMilliseconds();
+    long delay = Math.min(initialDelay().toMilliseconds() << Math.min(Math.max(attempts - 1, 0), 30), max);
+    long jitter = delay / 2;
+    return Math.max(1, delay - jitter + ThreadLocalRandom.current().nextLong(jitter + 1));
+  }
+
+  int maxAttempts() {
+    return NumberUtils.toIntDefaultIfNull(getMaxAttempts(), DEFAULT_MAX_ATTEMPTS);
+  }
+
+  TimeInterval initialDelay() {
+    return getInitialDelay() != null ? getInitialDelay() : DEFAULT_INITIAL_DELAY;
+  }
+
+  TimeInterval maxDelay() {
+    return getMaxDelay() != null ? getMaxDelay() : DEFAULT_MAX_DELAY;
+  }
+
+  public Integer getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Set the number of times a message will be sent before giving up.
+   * 
+   * @param i the maximum number of attempts, including the first; default is 3.
+   */
+  public void setMaxAttempts(Integer i) {
+    this.maxAttempts = i;
+  }
+
+  public TimeInterval getInitialDelay() {
+    return initialDelay;
+  }
+
+  /**
+   * Set the delay before the first retry.
+   * 
+   * @param t the delay; default is 100 milliseconds.
+   */
+  public void setInitialDelay(TimeInterval t) {
+    this.initialDelay = t;
+  }
+
+  public TimeInterval getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * Set the longest delay between retries.
+   * 
+   * @param t the delay; default is 10 seconds.
+   */
+  public void setMaxDelay(TimeInterval t) {
+    this.maxDelay = t;
+  }
+}
@@ -24,7 +24,13 @@ public class SendMode {
     @Deprecated
     all,
     ALL,
-    SINGLE
+    SINGLE,
+    /**
+     * Send to every member of the cluster, and combine their replies.
+     * 
+     * @see GatherPolicy
+     */
+    GATHER
   }
 
   private static boolean warningLogged = false;
@@ -35,6 +41,17 @@ public class SendMode {
     return mode == Mode.single || mode == Mode.SINGLE;
   }
 
+  static boolean gather(Mode mode) {
+    return mode == Mode.GATHER;
+  }
+
+  /**
+   * Whether replies come back in this mode.
+   */
+  static boolean replies(Mode mode) {
+    return single(mode) || gather(mode);
+  }
+
   private static void logDeprecated(Mode m) {
     if (!warningLogged && (m == Mode.single || m == Mode.all)) {
       log.warn("{} is deprecated, use {} instead", m.name(), m == Mode.single ? Mode.SINGLE.name() : Mode.ALL.name());
@@ -0,0 +1,83 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.DefaultMarshaller;
+import com.adaptris.core.Service;
+import com.adaptris.core.util.LifecycleHelper;
+
+/**
+ * A fixed number of independent instances of a service, so that services which are not thread-safe can still be run by many
+ * threads at once.
+ * <p>
+ * The configured service is one of the instances, and its lifecycle stays with the component that owns it; the others are copies
+ * made by marshalling and unmarshalling it, each with its own lifecycle managed by the pool. A thread borrows an instance for the
+ * duration of a message and then hands it back.
+ * </p>
+ */
+class ServicePool<T extends Service> {
+
+  private final T template;
+
+  private final List<T> copies = new ArrayList<>();
+
+  private final BlockingQueue<T> available;
+
+  /**
+   * @param size the number of instances, including the configured service; at least 1.
+   */
+  ServicePool(T template, int size) throws CoreException {
+    this.template = template;
+    available = new ArrayBlockingQueue<>(Math.max(1, size));
+    for (int i = 1; i < size; i++) {
+      copies.add(DefaultMarshaller.roundTrip(template));
+    }
+  }
+
+  void init() throws CoreException {
+    for (T instance : copies) {
+      LifecycleHelper.prepare(instance);
+      LifecycleHelper.init(instance);
+    }
+    available.clear();
+    available.add(template);
+    available.addAll(copies);
+  }
+
+  void start() throws CoreException {
+    for (T instance : copies) {
+      LifecycleHelper.start(instance);
+    }
+  }
+
+  void stop() {
+    for (T instance : copies) {
+      LifecycleHelper.stop(instance);
+    }
+  }
+
+  void close() {
+    for (T instance : copies) {
+      LifecycleHelper.close(instance);
+    }
+  }
+
+  /**
+   * Wait for an instance that no other thread is using.
+   */
+  T borrow() throws InterruptedException {
+    return available.take();
+  }
+
+  void release(T instance) {
+    available.offer(instance);
+  }
+
+  int size() {
+    return copies.size() + 1;
+  }
+}
@@ -12,6 +12,18 @@ import com.thoughtworks.xstream.annotations.XStreamAlias;
 public class ServiceRecord {
   
   private List<InterlokService> services;
+
+  // Timings; only carried by the binary wire format, so that XStream frames stay readable by nodes that don't know them.
+  private transient long queueWaitNanos;
+
+  private transient String nodeId;
+
+  private transient long receivedAt;
+
+  private transient long remoteNanos;
+
+  // Only meaningful on the node that received the message.
+  private transient long receivedNanos;
   
   public ServiceRecord() {
     services = new ArrayList<InterlokService>();
@@ -32,4 +44,86 @@ public class ServiceRecord {
   public void setServices(List<InterlokService> services) {
     this.services = services;
   }
+
+  /**
+   * Mark the message as received by this node; the service timings and {@link #getRemoteNanos()} are measured from here.
+   * 
+   * @param nodeId the id of this node in the cluster.
+   * @param receivedNanos when the message arrived, see {@link System#nanoTime()}.
+   */
+  public void received(String nodeId, long receivedNanos) {
+    setNodeId(nodeId);
+    setReceivedAt(System.currentTimeMillis());
+    this.receivedNanos = receivedNanos;
+  }
+
+  /**
+   * Mark the reply as about to be sent.
+   */
+  public void replying() {
+    if (receivedNanos > 0) {
+      setRemoteNanos(System.nanoTime() - receivedNanos);
+    }
+  }
+
+  /**
+   * How long ago this node received the message.
+   * 
+   * @return the nanoseconds since {@link #received(String, long)}, or 0 if it wasn't called.
+   */
+  long sinceReceived() {
+    return receivedNanos > 0 ? System.nanoTime() - receivedNanos : 0;
+  }
+
+  /**
+   * How long the message waited on the sender before it was sent.
+   * 
+   * @return the wait in nanoseconds, or 0 if not known.
+   */
+  public long getQueueWaitNanos() {
+    return queueWaitNanos;
+  }
+
+  public void setQueueWaitNanos(long queueWaitNanos) {
+    this.queueWaitNanos = queueWaitNanos;
+  }
+
+  /**
+   * The node that processed the message.
+   * 
+   * @return the node id, or null if not known.
+   */
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void setNodeId(String nodeId) {
+    this.nodeId = nodeId;
+  }
+
+  /**
+   * When the node that processed the message received it; by that node's clock, so only for display.
+   * 
+   * @return milliseconds since the epoch, or 0 if not known.
+   */
+  public long getReceivedAt() {
+    return receivedAt;
+  }
+
+  public void setReceivedAt(long receivedAt) {
+    this.receivedAt = receivedAt;
+  }
+
+  /**
+   * How long the message spent on the node that processed it, from being received to the reply being sent.
+   * 
+   * @return the time in nanoseconds, or 0 if not known.
+   */
+  public long getRemoteNanos() {
+    return remoteNanos;
+  }
+
+  public void setRemoteNanos(long remoteNanos) {
+    this.remoteNanos = remoteNanos;
+  }
 }
@@ -6,6 +6,11 @@ public enum ServiceState {
   
   ERROR,
   
-  NOT_STARTED;
+  NOT_STARTED,
+
+  /**
+   * The service was skipped, because the deadline for the message had passed.
+   */
+  EXPIRED;
 
 }
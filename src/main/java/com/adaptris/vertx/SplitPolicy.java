@@ -0,0 +1,71 @@
+package com.adaptris.vertx;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.core.services.aggregator.MessageAggregator;
+import com.adaptris.core.services.splitter.MessageSplitter;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Splits each consumed message into parts, so that the parts are processed by different members of the cluster at the same time;
+ * and then joins the replies back together.
+ * </p>
+ * <p>
+ * Only applies to the "single" target send mode. The parts are sent as they are split, each taking a slot in the queue-capacity of
+ * the workflow; so a large message never has more than queue-capacity parts in the cluster at once. Once every part has been
+ * replied to, the replies are passed to the {@link MessageAggregator} in the order the parts were split, and the original message
+ * is produced. If any part fails or expires, the original message is treated as failed.
+ * </p>
+ *
+ * @config clustered-split-policy
+ */
+@XStreamAlias("clustered-split-policy")
+@ComponentProfile(summary = "Split a message so the cluster processes the parts in parallel", tag = "clustering,vertx")
+public class SplitPolicy {
+
+  @NotNull
+  @Valid
+  private MessageSplitter messageSplitter;
+
+  @NotNull
+  @Valid
+  private MessageAggregator messageAggregator;
+
+  public SplitPolicy() {
+  }
+
+  public SplitPolicy(MessageSplitter splitter, MessageAggregator aggregator) {
+    this();
+    setMessageSplitter(splitter);
+    setMessageAggregator(aggregator);
+  }
+
+  public MessageSplitter getMessageSplitter() {
+    return messageSplitter;
+  }
+
+  /**
+   * Set how the consumed message is split into parts.
+   *
+   * @param splitter the splitter.
+   */
+  public void setMessageSplitter(MessageSplitter splitter) {
+    this.messageSplitter = splitter;
+  }
+
+  public MessageAggregator getMessageAggregator() {
+    return messageAggregator;
+  }
+
+  /**
+   * Set how the replies for the parts are joined back into the original message.
+   *
+   * @param aggregator the aggregator.
+   */
+  public void setMessageAggregator(MessageAggregator aggregator) {
+    this.messageAggregator = aggregator;
+  }
+}
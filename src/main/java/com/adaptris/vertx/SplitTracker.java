@@ -0,0 +1,90 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.adaptris.core.AdaptrisMessage;
+
+/**
+ * Keeps track of the parts of a split message, until every one of them has been replied to.
+ * <p>
+ * Parts can be replied to while the message is still being split; so the message is only complete once it has been
+ * {@link #sealed()} and all the replies are in.
+ * </p>
+ */
+final class SplitTracker {
+
+  private final AdaptrisMessage original;
+  private final Map<String, Integer> parts = new HashMap<>();
+  private final List<VertXMessage> replies = new ArrayList<>();
+  private int outstanding;
+  private boolean sealed;
+  private boolean failed;
+
+  SplitTracker(AdaptrisMessage original) {
+    this.original = original;
+  }
+
+  AdaptrisMessage original() {
+    return original;
+  }
+
+  synchronized void add(String partId) {
+    parts.put(partId, replies.size());
+    replies.add(null);
+    outstanding++;
+  }
+
+  /**
+   * No more parts will be added.
+   *
+   * @return true if every part has already been replied to.
+   */
+  synchronized boolean sealed() {
+    sealed = true;
+    return complete();
+  }
+
+  /**
+   * Record the reply for a part.
+   *
+   * @return true if that was the last reply outstanding.
+   */
+  synchronized boolean replied(String partId, VertXMessage reply) {
+    Integer index = parts.get(partId);
+    if (index == null || replies.get(index) != null) {
+      return false;
+    }
+    replies.set(index, reply);
+    outstanding--;
+    return complete();
+  }
+
+  /**
+   * Mark the message as failed; any further replies are ignored.
+   *
+   * @return true if it hadn't already failed.
+   */
+  synchronized boolean failed() {
+    boolean first = !failed;
+    failed = true;
+    return first;
+  }
+
+  synchronized boolean hasFailed() {
+    return failed;
+  }
+
+  /**
+   * The replies, in the order the parts were added.
+   */
+  synchronized List<VertXMessage> replies() {
+    return new ArrayList<>(replies);
+  }
+
+  private boolean complete() {
+    return sealed && !failed && outstanding == 0;
+  }
+}
@@ -0,0 +1,77 @@
+package com.adaptris.vertx;
+
+import javax.validation.constraints.NotBlank;
+
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.core.AdaptrisMessage;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Processes messages received from the cluster that share the same key one after another, in the order they arrived; while
+ * messages with different keys are processed in parallel.
+ * </p>
+ * <p>
+ * Each key is always assigned to the same stripe, and each stripe processes its messages sequentially. By default there is one
+ * stripe for each of the component's max-threads. The key is the value of {@link #setStripeMetadataKey(String)}; the sending
+ * component resolves it once and sends it as an event bus header. If the sender does not have striped execution configured,
+ * the receiver has to read the key from the message itself.
+ * </p>
+ * 
+ * @config clustered-striped-execution
+ */
+@XStreamAlias("clustered-striped-execution")
+@ComponentProfile(summary = "Process clustered messages with the same key in order", tag = "clustering,vertx")
+public class StripedExecution {
+
+  @NotBlank
+  private String stripeMetadataKey;
+
+  private Integer stripes;
+
+  public StripedExecution() {
+  }
+
+  public StripedExecution(String stripeMetadataKey) {
+    this();
+    setStripeMetadataKey(stripeMetadataKey);
+  }
+
+  String stripeKey(AdaptrisMessage msg) {
+    return msg.headersContainsKey(getStripeMetadataKey()) ? msg.getMetadataValue(getStripeMetadataKey()) : null;
+  }
+
+  String stripeKey(VertXMessage msg) {
+    return msg != null ? msg.getAdaptrisMessage().getMetadataValue(getStripeMetadataKey()) : null;
+  }
+
+  int stripes(int maxThreads) {
+    return getStripes() != null ? getStripes() : maxThreads;
+  }
+
+  public String getStripeMetadataKey() {
+    return stripeMetadataKey;
+  }
+
+  /**
+   * Set the metadata key whose value decides which messages are processed in order.
+   * 
+   * @param key the metadata key; messages without it are spread across all stripes.
+   */
+  public void setStripeMetadataKey(String key) {
+    this.stripeMetadataKey = key;
+  }
+
+  public Integer getStripes() {
+    return stripes;
+  }
+
+  /**
+   * Set the number of stripes.
+   * 
+   * @param i the number of stripes; defaults to the max-threads of the component.
+   */
+  public void setStripes(Integer i) {
+    this.stripes = i;
+  }
+}
@@ -0,0 +1,106 @@
+package com.adaptris.vertx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks with the same key one after another, in the order they were handed over; while tasks with different keys run in
+ * parallel on the underlying executor.
+ * <p>
+ * Handing over a task never blocks; it is added to the queue for its stripe, and if that stripe is idle a task to drain it is
+ * submitted to the underlying executor.
+ * </p>
+ */
+class StripedExecutor {
+
+  private final Executor executor;
+
+  private final Stripe[] stripes;
+
+  private final AtomicInteger roundRobin = new AtomicInteger();
+
+  StripedExecutor(Executor executor, int stripeCount) {
+    this.executor = executor;
+    stripes = new Stripe[Math.max(1, stripeCount)];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Run the task after any earlier tasks with the same key.
+   * 
+   * @param key the key; tasks without a key are spread evenly across the stripes.
+   */
+  void execute(String key, Runnable task) {
+    stripes[stripe(key)].add(task);
+  }
+
+  int stripe(String key) {
+    if (key == null) {
+      return Math.floorMod(roundRobin.getAndIncrement(), stripes.length);
+    }
+    int h = key.hashCode();
+    return Math.floorMod(h ^ (h >>> 16), stripes.length);
+  }
+
+  /**
+   * The number of tasks waiting in each stripe.
+   */
+  List<Integer> depths() {
+    List<Integer> result = new ArrayList<>(stripes.length);
+    for (Stripe stripe : stripes) {
+      result.add(stripe.depth.get());
+    }
+    return result;
+  }
+
+  /**
+   * The number of tasks waiting across all stripes.
+   */
+  int pending() {
+    int pending = 0;
+    for (Stripe stripe : stripes) {
+      pending += stripe.depth.get();
+    }
+    return pending;
+  }
+
+  private class Stripe implements Runnable {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    void add(Runnable task) {
+      depth.incrementAndGet();
+      tasks.add(task);
+      schedule();
+    }
+
+    private void schedule() {
+      if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          depth.decrementAndGet();
+          task.run();
+        }
+      } finally {
+        scheduled.set(false);
+        // a task may have been added after the last poll, but before we stopped.
+        schedule();
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.adaptris.vertx;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import com.adaptris.annotation.AutoPopulated;
+import com.adaptris.annotation.ComponentProfile;
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.util.KeyValuePairSet;
+import com.adaptris.util.NumberUtils;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * <p>
+ * Shares a clustered workflow fairly between tenants; so that a burst from one of them doesn't hold up everyone else.
+ * </p>
+ * <p>
+ * The tenant of each message is the value of {@link #setTenantMetadataKey(String)}; messages without it belong to a single
+ * default tenant. Each tenant has its own queue of at most {@link #setMaxQueuedPerTenant(Integer)} messages; a message for a
+ * tenant whose queue is full is rejected straight away (and handled by the message-error-handler) rather than blocking the
+ * consumer for everyone. The queues are served with deficit round-robin, each message costing one and each tenant being given its
+ * weight from {@link #setWeights(KeyValuePairSet)} (default 1) on each turn; and a tenant that already has
+ * {@link #setMaxInFlightPerTenant(Integer)} messages waiting for a reply is skipped until one of them comes back.
+ * </p>
+ *
+ * @config clustered-tenant-fairness
+ */
+@XStreamAlias("clustered-tenant-fairness")
+@ComponentProfile(summary = "Share a clustered workflow fairly between tenants", tag = "clustering,vertx")
+public class TenantFairness {
+
+  static final String DEFAULT_TENANT = "";
+
+  private static final int DEFAULT_WEIGHT = 1;
+
+  @NotBlank
+  private String tenantMetadataKey;
+
+  @NotNull
+  @AutoPopulated
+  @Valid
+  private KeyValuePairSet weights;
+
+  private Integer maxQueuedPerTenant;
+
+  private Integer maxInFlightPerTenant;
+
+  public TenantFairness() {
+    setWeights(new KeyValuePairSet());
+  }
+
+  public TenantFairness(String tenantMetadataKey) {
+    this();
+    setTenantMetadataKey(tenantMetadataKey);
+  }
+
+  String tenant(AdaptrisMessage msg) {
+    String tenant = msg.getMetadataValue(getTenantMetadataKey());
+    return tenant != null ? tenant : DEFAULT_TENANT;
+  }
+
+  int weight(String tenant) {
+    return Math.max(1, NumberUtils.toIntDefaultIfNull(toInteger(getWeights().getValue(tenant)), DEFAULT_WEIGHT));
+  }
+
+  int maxQueuedPerTenant(int queueCapacity) {
+    return NumberUtils.toIntDefaultIfNull(getMaxQueuedPerTenant(), queueCapacity);
+  }
+
+  int maxInFlightPerTenant() {
+    return NumberUtils.toIntDefaultIfNull(getMaxInFlightPerTenant(), Integer.MAX_VALUE);
+  }
+
+  private static Integer toInteger(String value) {
+    try {
+      return value != null ? Integer.valueOf(value.trim()) : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  public String getTenantMetadataKey() {
+    return tenantMetadataKey;
+  }
+
+  /**
+   * Set the metadata key whose value identifies the tenant of a message.
+   *
+   * @param key the metadata key.
+   */
+  public void setTenantMetadataKey(String key) {
+    this.tenantMetadataKey = key;
+  }
+
+  public KeyValuePairSet getWeights() {
+    return weights;
+  }
+
+  /**
+   * Set the weight of each tenant; the key being the tenant, and the value its weight.
+   *
+   * @param weights the weights; any tenant without one has a weight of 1.
+   */
+  public void setWeights(KeyValuePairSet weights) {
+    this.weights = weights;
+  }
+
+  public Integer getMaxQueuedPerTenant() {
+    return maxQueuedPerTenant;
+  }
+
+  /**
+   * Set the most messages each tenant may have waiting to be sent.
+   *
+   * @param i the maximum; defaults to the queue-capacity of the workflow.
+   */
+  public void setMaxQueuedPerTenant(Integer i) {
+    this.maxQueuedPerTenant = i;
+  }
+
+  public Integer getMaxInFlightPerTenant() {
+    return maxInFlightPerTenant;
+  }
+
+  /**
+   * Set the most messages each tenant may have in the cluster, waiting for a reply.
+   *
+   * @param i the maximum; if not configured, there is no limit.
+   */
+  public void setMaxInFlightPerTenant(Integer i) {
+    this.maxInFlightPerTenant = i;
+  }
+}
@@ -0,0 +1,416 @@
+package com.adaptris.vertx;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue for each tenant, behind a single {@link BlockingQueue}.
+ * <p>
+ * Tenants are served with deficit round-robin: on its turn each tenant is given its weight in credit, and is served until the
+ * credit runs out or it has nothing left to send; a tenant that has nothing queued loses whatever credit it had. Tenants at their
+ * in-flight limit are passed over until {@link #released(String)} is called for one of their messages.
+ * </p>
+ * <p>
+ * A tenant is forgotten (along with its latencies) once it has nothing queued or in flight, so that a tenant key with many
+ * distinct values doesn't leave an ever growing list of tenants to go round.
+ * </p>
+ */
+class TenantQueue extends AbstractQueue<VertXMessage> implements BlockingQueue<VertXMessage> {
+
+  private static final int LATENCY_WINDOW = 512;
+
+  private final TenantFairness config;
+
+  private final int capacity;
+
+  private final int maxInFlight;
+
+  private final boolean trackInFlight;
+
+  private final ReentrantLock lock = new ReentrantLock(true);
+
+  // signalled whenever a message is added, or a tenant might have become eligible again.
+  private final Condition changed = lock.newCondition();
+
+  // signalled whenever a tenant has more room.
+  private final Condition notFull = lock.newCondition();
+
+  private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+
+  private final List<Tenant> order = new ArrayList<>();
+
+  private final Map<String, Tenant> inFlight = new HashMap<>();
+
+  private int cursor;
+
+  private int count;
+
+  /**
+   * @param trackInFlight whether messages are in flight until {@link #released(String)} (i.e. replies are expected).
+   */
+  TenantQueue(TenantFairness config, int capacity, boolean trackInFlight) {
+    this.config = config;
+    this.capacity = Math.max(1, capacity);
+    this.maxInFlight = config.maxInFlightPerTenant();
+    this.trackInFlight = trackInFlight;
+  }
+
+  private Tenant tenant(VertXMessage msg) {
+    String name = msg.getTenant() != null ? msg.getTenant() : TenantFairness.DEFAULT_TENANT;
+    return tenants.computeIfAbsent(name, n -> {
+      Tenant t = new Tenant(n, config.weight(n));
+      order.add(t);
+      return t;
+    });
+  }
+
+  /**
+   * Whether the tenant has room for another message.
+   */
+  boolean admits(String tenant) {
+    lock.lock();
+    try {
+      Tenant t = tenants.get(tenant != null ? tenant : TenantFairness.DEFAULT_TENANT);
+      return t == null || t.queued.size() < capacity;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The message has been answered (or has failed); its tenant may send another.
+   */
+  void released(String messageId) {
+    lock.lock();
+    try {
+      Tenant t = inFlight.remove(messageId);
+      if (t != null) {
+        t.inFlight--;
+        forgetIfIdle(t);
+        changed.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void forgetIfIdle(Tenant t) {
+    if (!t.queued.isEmpty() || t.inFlight > 0) {
+      return;
+    }
+    int index = order.indexOf(t);
+    order.remove(index);
+    tenants.remove(t.name);
+    if (index < cursor) {
+      cursor--;
+    }
+    if (cursor >= order.size()) {
+      cursor = 0;
+    }
+  }
+
+  private void enqueue(Tenant t, VertXMessage msg) {
+    t.queued.add(msg);
+    count++;
+    changed.signalAll();
+  }
+
+  @Override
+  public void put(VertXMessage msg) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      Tenant t;
+      // look it up again after waiting, it may have been forgotten in the meantime.
+      while ((t = tenant(msg)).queued.size() >= capacity) {
+        notFull.await();
+      }
+      enqueue(t, msg);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(VertXMessage msg) {
+    lock.lock();
+    try {
+      Tenant t = tenant(msg);
+      if (t.queued.size() >= capacity) {
+        return false;
+      }
+      enqueue(t, msg);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(VertXMessage msg, long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      Tenant t;
+      while ((t = tenant(msg)).queued.size() >= capacity) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(t, msg);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public VertXMessage poll() {
+    lock.lock();
+    try {
+      return next();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public VertXMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      VertXMessage result;
+      while ((result = next()) == null) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = changed.awaitNanos(nanos);
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public VertXMessage take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      VertXMessage result;
+      while ((result = next()) == null) {
+        changed.await();
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Each eligible tenant gets credit on its first visit of a turn, so one pass round is always enough.
+  private VertXMessage next() {
+    int size = order.size();
+    for (int i = 0; count > 0 && i <= size; i++) {
+      Tenant t = order.get(cursor);
+      if (t.queued.isEmpty()) {
+        t.deficit = 0;
+      } else if (t.inFlight < maxInFlight) {
+        if (!t.visited) {
+          t.deficit += t.weight;
+          t.visited = true;
+        }
+        if (t.deficit > 0) {
+          t.deficit--;
+          return dispatch(t);
+        }
+      }
+      t.visited = false;
+      cursor = (cursor + 1) % size;
+    }
+    return null;
+  }
+
+  private VertXMessage dispatch(Tenant t) {
+    VertXMessage msg = t.queued.poll();
+    count--;
+    if (trackInFlight) {
+      t.inFlight++;
+      inFlight.put(msg.getAdaptrisMessage().getUniqueId(), t);
+    }
+    t.latencies.record(System.currentTimeMillis() - msg.getStartProcessingTime());
+    forgetIfIdle(t);
+    notFull.signalAll();
+    return msg;
+  }
+
+  @Override
+  public VertXMessage peek() {
+    lock.lock();
+    try {
+      for (Tenant t : order) {
+        if (!t.queued.isEmpty()) {
+          return t.queued.peek();
+        }
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The number of messages waiting to be sent for each tenant.
+   */
+  Map<String, Integer> depths() {
+    lock.lock();
+    try {
+      Map<String, Integer> result = new LinkedHashMap<>();
+      tenants.forEach((name, t) -> result.put(name, t.queued.size()));
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The time messages for each tenant (with anything queued or in flight) have spent waiting to be sent, at the given percentile;
+   * -1 if none have been sent.
+   */
+  Map<String, Long> latencies(double percentile) {
+    lock.lock();
+    try {
+      Map<String, Long> result = new LinkedHashMap<>();
+      tenants.forEach((name, t) -> result.put(name, t.latencies.percentile(percentile)));
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The number of messages in flight for each tenant.
+   */
+  Map<String, Integer> inFlight() {
+    lock.lock();
+    try {
+      Map<String, Integer> result = new LinkedHashMap<>();
+      tenants.forEach((name, t) -> result.put(name, t.inFlight));
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    // any new tenant has room.
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int drainTo(Collection<? super VertXMessage> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super VertXMessage> c, int maxElements) {
+    int drained = 0;
+    VertXMessage msg;
+    while (drained < maxElements && (msg = poll()) != null) {
+      c.add(msg);
+      drained++;
+    }
+    return drained;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    lock.lock();
+    try {
+      for (Tenant t : order) {
+        if (t.queued.remove(o)) {
+          count--;
+          forgetIfIdle(t);
+          notFull.signalAll();
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * A snapshot, tenant by tenant; removing through the iterator removes from the queue.
+   */
+  @Override
+  public Iterator<VertXMessage> iterator() {
+    List<VertXMessage> snapshot = new ArrayList<>();
+    lock.lock();
+    try {
+      order.forEach(t -> snapshot.addAll(t.queued));
+    } finally {
+      lock.unlock();
+    }
+    Iterator<VertXMessage> messages = snapshot.iterator();
+    return new Iterator<VertXMessage>() {
+      private VertXMessage current;
+
+      @Override
+      public boolean hasNext() {
+        return messages.hasNext();
+      }
+
+      @Override
+      public VertXMessage next() {
+        current = messages.next();
+        return current;
+      }
+
+      @Override
+      public void remove() {
+        if (current == null) {
+          throw new IllegalStateException();
+        }
+        TenantQueue.this.remove(current);
+        current = null;
+      }
+    };
+  }
+
+  private static class Tenant {
+    private final String name;
+    private final ArrayDeque<VertXMessage> queued = new ArrayDeque<>();
+    private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW);
+    private final int weight;
+    private int deficit;
+    private boolean visited;
+    private int inFlight;
+
+    Tenant(String name, int weight) {
+      this.name = name;
+      this.weight = weight;
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package com.adaptris.vertx;
 
+import java.util.Collections;
+import java.util.Map;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import com.adaptris.core.SerializableAdaptrisMessage;
 import com.adaptris.util.GuidGenerator;
@@ -13,18 +16,47 @@ public class VertXMessage {
   private ServiceRecord serviceRecord;
   
   private long startProcessingTime;
+
+  // Chosen by the sender; never marshalled.
+  private transient byte wireFormatId;
+
+  // Routing resolved once by the sender; travels as event-bus headers.
+  private transient String targetComponentId;
+
+  private transient int priority;
+
+  private transient long deadline;
+
+  private transient Map<String, String> headers;
+
+  private transient String stripeKey;
+
+  private transient String tenant;
+
+  // Measured by the sender, see System.nanoTime().
+  private transient long queuedNanos;
+
+  private transient long roundTripNanos;
   
+  /**
+   * Nothing is allocated up front; the {@link ServiceRecord} and the underlying message are only created if they are asked for
+   * before being set.
+   */
   public VertXMessage() {
-    serviceRecord = new ServiceRecord();
-    adaptrisMessage = new SerializableAdaptrisMessage(new GuidGenerator().getUUID());
   }
   
   public VertXMessage(SerializableAdaptrisMessage msg) {
-    this();
     setAdaptrisMessage(msg);
   }
 
+  public static Builder builder() {
+    return new Builder();
+  }
+
   public SerializableAdaptrisMessage getAdaptrisMessage() {
+    if (adaptrisMessage == null) {
+      adaptrisMessage = new SerializableAdaptrisMessage(new GuidGenerator().getUUID());
+    }
     return adaptrisMessage;
   }
 
@@ -33,6 +65,9 @@ public class VertXMessage {
   }
 
   public ServiceRecord getServiceRecord() {
+    if (serviceRecord == null) {
+      serviceRecord = new ServiceRecord();
+    }
     return serviceRecord;
   }
 
@@ -48,6 +83,109 @@ public class VertXMessage {
     this.startProcessingTime = startProcessingTime;
   }
   
+  /**
+   * The cluster address the message is routed to, resolved when the message was queued.
+   * 
+   * @return the target, or null if it has not been resolved.
+   */
+  public String getTargetComponentId() {
+    return targetComponentId;
+  }
+
+  public void setTargetComponentId(String targetComponentId) {
+    this.targetComponentId = targetComponentId;
+  }
+
+  public int getPriority() {
+    return priority;
+  }
+
+  public void setPriority(int priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * The absolute time (milliseconds since the epoch) after which nobody is waiting for this message anymore.
+   * 
+   * @return the deadline or 0 if there isn't one.
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  public void setDeadline(long deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Additional event-bus headers, resolved by the sender.
+   * 
+   * @return the headers, never null.
+   */
+  public Map<String, String> getHeaders() {
+    return headers != null ? headers : Collections.emptyMap();
+  }
+
+  public void setHeaders(Map<String, String> headers) {
+    this.headers = headers;
+  }
+
+  /**
+   * The key deciding which receiving messages are processed in order, resolved by the sender.
+   * 
+   * @return the key or null.
+   */
+  public String getStripeKey() {
+    return stripeKey;
+  }
+
+  public void setStripeKey(String stripeKey) {
+    this.stripeKey = stripeKey;
+  }
+
+  /**
+   * The tenant the message belongs to, resolved by the sender.
+   * 
+   * @return the tenant or null.
+   */
+  public String getTenant() {
+    return tenant;
+  }
+
+  public void setTenant(String tenant) {
+    this.tenant = tenant;
+  }
+
+  /**
+   * When the sender queued the message, see {@link System#nanoTime()}.
+   */
+  long getQueuedNanos() {
+    return queuedNanos;
+  }
+
+  void setQueuedNanos(long queuedNanos) {
+    this.queuedNanos = queuedNanos;
+  }
+
+  /**
+   * On a reply; how long after the message was first sent the reply arrived, or 0 if not known.
+   */
+  long getRoundTripNanos() {
+    return roundTripNanos;
+  }
+
+  void setRoundTripNanos(long roundTripNanos) {
+    this.roundTripNanos = roundTripNanos;
+  }
+
+  byte getWireFormatId() {
+    return wireFormatId;
+  }
+
+  void setWireFormatId(byte wireFormatId) {
+    this.wireFormatId = wireFormatId;
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -80,4 +218,38 @@ public class VertXMessage {
   public int hashCode() {
     return this.getAdaptrisMessage().getUniqueId().hashCode();
   }
+
+  /**
+   * Builds a {@link VertXMessage} without any of the throwaway allocations of the default constructor and setters.
+   */
+  public static class Builder {
+    private SerializableAdaptrisMessage adaptrisMessage;
+    private ServiceRecord serviceRecord;
+    private long startProcessingTime;
+
+    private Builder() {
+    }
+
+    public Builder adaptrisMessage(SerializableAdaptrisMessage msg) {
+      this.adaptrisMessage = msg;
+      return this;
+    }
+
+    public Builder serviceRecord(ServiceRecord record) {
+      this.serviceRecord = record;
+      return this;
+    }
+
+    public Builder startProcessingTime(long time) {
+      this.startProcessingTime = time;
+      return this;
+    }
+
+    public VertXMessage build() {
+      VertXMessage result = new VertXMessage(adaptrisMessage);
+      result.serviceRecord = serviceRecord;
+      result.startProcessingTime = startProcessingTime;
+      return result;
+    }
+  }
 }
@@ -22,11 +22,8 @@ public class VertXMessageTranslator implements MessageTranslator {
 
   @Override
   public VertXMessage translate(AdaptrisMessage adaptrisMessage) throws CoreException {
-    VertXMessage vertXMessage = new VertXMessage();
-    
     SerializableAdaptrisMessage serializableMessage = (SerializableAdaptrisMessage) this.getSerializableMessageTranslator().translate(adaptrisMessage);
-    vertXMessage.setAdaptrisMessage(serializableMessage);
-    return vertXMessage;
+    return new VertXMessage(serializableMessage);
   }
 
   @Override
@@ -0,0 +1,298 @@
+package com.adaptris.vertx;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Publishes the statistics of a clustered component on the platform MBean server, as
+ * {@code com.adaptris.vertx:type=<component class>,id=<unique id>}; and to any {@link MetricsServer} in the same JVM.
+ */
+class VertxComponentStatistics implements VertxComponentStatisticsMBean {
+
+  static final String DOMAIN = "com.adaptris.vertx";
+
+  static final String QUEUE_WAIT = "queue-wait";
+
+  static final String SERVICE_TIME = "service-time";
+
+  static final String ROUND_TRIP = "round-trip";
+
+  static final String REMOTE_TIME = "remote-time";
+
+  static final String NETWORK = "network";
+
+  private static final Set<VertxComponentStatistics> REGISTERED = ConcurrentHashMap.newKeySet();
+
+  private transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private final ClusterStatistics statistics;
+
+  private final Supplier<BlockingQueue<?>> queue;
+
+  private final Supplier<ExecutorService> executor;
+
+  private final Supplier<MessageCodec<?, ?>> codec;
+
+  private ObjectName objectName;
+
+  private String type;
+
+  private String id;
+
+  /**
+   * @param queue the messages waiting to be sent, may supply null.
+   */
+  VertxComponentStatistics(ClusterStatistics statistics, Supplier<BlockingQueue<?>> queue, Supplier<ExecutorService> executor,
+      Supplier<MessageCodec<?, ?>> codec) {
+    this.statistics = statistics;
+    this.queue = queue;
+    this.executor = executor;
+    this.codec = codec;
+  }
+
+  /**
+   * Register, unless something is already registered with the same name (i.e. another component with the same unique id); a
+   * failure is only logged, and leaves the statistics unpublished.
+   */
+  void register(Object component, String id) {
+    type = component.getClass().getSimpleName();
+    this.id = id != null ? id : Integer.toHexString(System.identityHashCode(component));
+    try {
+      ObjectName name = new ObjectName(DOMAIN + ":type=" + type + ",id=" + ObjectName.quote(this.id));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, VertxComponentStatisticsMBean.class),
+          name);
+      objectName = name;
+      REGISTERED.add(this);
+    } catch (InstanceAlreadyExistsException e) {
+      log.warn("Statistics for [{}] are already registered, give it a unique id to publish its statistics too", this.id);
+    } catch (JMException e) {
+      log.warn("Cannot register the statistics MBean for [{}]", id, e);
+    }
+  }
+
+  void unregister() {
+    REGISTERED.remove(this);
+    if (objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      log.trace("Cannot unregister [{}]", objectName, e);
+    }
+    objectName = null;
+  }
+
+  ObjectName objectName() {
+    return objectName;
+  }
+
+  /**
+   * Everything registered in this JVM.
+   */
+  static Collection<VertxComponentStatistics> registered() {
+    return Collections.unmodifiableSet(REGISTERED);
+  }
+
+  /**
+   * The simple class name of the component; null until registered.
+   */
+  String type() {
+    return type;
+  }
+
+  String id() {
+    return id;
+  }
+
+  ClusterStatistics clusterStatistics() {
+    return statistics;
+  }
+
+  private ThreadPoolExecutor pool() {
+    ExecutorService result = executor.get();
+    return result instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) result : null;
+  }
+
+  CodecStatistics codecStatistics() {
+    MessageCodec<?, ?> result = codec.get();
+    return result instanceof AdaptrisMessageCodec ? ((AdaptrisMessageCodec) result).statistics() : new CodecStatistics();
+  }
+
+  private static double averageMicros(long nanos, long count) {
+    return count > 0 ? (double) TimeUnit.NANOSECONDS.toMicros(nanos) / count : 0;
+  }
+
+  @Override
+  public int getQueueDepth() {
+    BlockingQueue<?> result = queue.get();
+    return result != null ? result.size() : -1;
+  }
+
+  @Override
+  public int getQueueRemainingCapacity() {
+    BlockingQueue<?> result = queue.get();
+    return result != null ? result.remainingCapacity() : -1;
+  }
+
+  @Override
+  public int getInFlight() {
+    return statistics.getInFlight();
+  }
+
+  @Override
+  public int getActiveThreads() {
+    ThreadPoolExecutor pool = pool();
+    return pool != null ? pool.getActiveCount() : 0;
+  }
+
+  @Override
+  public int getExecutorQueueLength() {
+    ThreadPoolExecutor pool = pool();
+    return pool != null ? pool.getQueue().size() : 0;
+  }
+
+  @Override
+  public long getExpiredBeforeProcessing() {
+    return statistics.getExpired();
+  }
+
+  @Override
+  public long getRepliesExpired() {
+    return statistics.getReplyExpired();
+  }
+
+  @Override
+  public long getRejected() {
+    return statistics.getRejected();
+  }
+
+  @Override
+  public long getReplies() {
+    return statistics.getReplied();
+  }
+
+  @Override
+  public long getReplyFailures() {
+    return statistics.getReplyFailed();
+  }
+
+  @Override
+  public long getEncodedMessages() {
+    return codecStatistics().getEncoded();
+  }
+
+  @Override
+  public long getEncodedBytes() {
+    return codecStatistics().getEncodedBytes();
+  }
+
+  @Override
+  public double getAverageEncodeMicros() {
+    CodecStatistics codecStatistics = codecStatistics();
+    return averageMicros(codecStatistics.getEncodeNanos(), codecStatistics.getEncoded());
+  }
+
+  @Override
+  public long getDecodedMessages() {
+    return codecStatistics().getDecoded();
+  }
+
+  @Override
+  public long getDecodedBytes() {
+    return codecStatistics().getDecodedBytes();
+  }
+
+  @Override
+  public double getAverageDecodeMicros() {
+    CodecStatistics codecStatistics = codecStatistics();
+    return averageMicros(codecStatistics.getDecodeNanos(), codecStatistics.getDecoded());
+  }
+
+  @Override
+  public long getQueueWaitP50Micros() {
+    return statistics.queueWait().percentile(50);
+  }
+
+  @Override
+  public long getQueueWaitP95Micros() {
+    return statistics.queueWait().percentile(95);
+  }
+
+  @Override
+  public long getQueueWaitP99Micros() {
+    return statistics.queueWait().percentile(99);
+  }
+
+  @Override
+  public long getServiceTimeP50Micros() {
+    return statistics.serviceTime().percentile(50);
+  }
+
+  @Override
+  public long getServiceTimeP95Micros() {
+    return statistics.serviceTime().percentile(95);
+  }
+
+  @Override
+  public long getServiceTimeP99Micros() {
+    return statistics.serviceTime().percentile(99);
+  }
+
+  @Override
+  public long getRoundTripP50Micros() {
+    return statistics.roundTrip().percentile(50);
+  }
+
+  @Override
+  public long getRoundTripP95Micros() {
+    return statistics.roundTrip().percentile(95);
+  }
+
+  @Override
+  public long getRoundTripP99Micros() {
+    return statistics.roundTrip().percentile(99);
+  }
+
+  @Override
+  public long latencyMicros(String latency, double percentile) {
+    switch (String.valueOf(latency)) {
+    case QUEUE_WAIT:
+      return statistics.queueWait().percentile(percentile);
+    case SERVICE_TIME:
+      return statistics.serviceTime().percentile(percentile);
+    case ROUND_TRIP:
+      return statistics.roundTrip().percentile(percentile);
+    case REMOTE_TIME:
+      return statistics.remoteTime().percentile(percentile);
+    case NETWORK:
+      return statistics.network().percentile(percentile);
+    default:
+      throw new IllegalArgumentException("Unknown latency [" + latency + "], expected one of " + QUEUE_WAIT + ", "
+          + SERVICE_TIME + ", " + ROUND_TRIP + ", " + REMOTE_TIME + " or " + NETWORK);
+    }
+  }
+
+  @Override
+  public void resetLatencies() {
+    statistics.resetLatencies();
+  }
+}
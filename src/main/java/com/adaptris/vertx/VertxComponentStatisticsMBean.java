@@ -0,0 +1,96 @@
+package com.adaptris.vertx;
+
+/**
+ * The runtime statistics of a clustered workflow or service, as a JMX MBean.
+ * <p>
+ * Latencies are in microseconds, and are -1 until something has been recorded. Queue wait and round trip are recorded when
+ * sending to the cluster; service time when processing messages received from it.
+ * </p>
+ */
+public interface VertxComponentStatisticsMBean {
+
+  /**
+   * The number of messages waiting to be sent; -1 if the component doesn't queue them.
+   */
+  int getQueueDepth();
+
+  /**
+   * The room left for messages waiting to be sent; -1 if the component doesn't queue them.
+   */
+  int getQueueRemainingCapacity();
+
+  /**
+   * The number of messages sent and waiting for a reply.
+   */
+  int getInFlight();
+
+  int getActiveThreads();
+
+  /**
+   * The number of received messages waiting for a worker thread.
+   */
+  int getExecutorQueueLength();
+
+  /**
+   * The number of received messages dropped because their deadline passed before they were processed.
+   */
+  long getExpiredBeforeProcessing();
+
+  /**
+   * The number of sent messages whose reply was given up on.
+   */
+  long getRepliesExpired();
+
+  /**
+   * The number of received messages rejected because this component was overloaded.
+   */
+  long getRejected();
+
+  long getReplies();
+
+  long getReplyFailures();
+
+  long getEncodedMessages();
+
+  long getEncodedBytes();
+
+  double getAverageEncodeMicros();
+
+  long getDecodedMessages();
+
+  long getDecodedBytes();
+
+  double getAverageDecodeMicros();
+
+  long getQueueWaitP50Micros();
+
+  long getQueueWaitP95Micros();
+
+  long getQueueWaitP99Micros();
+
+  long getServiceTimeP50Micros();
+
+  long getServiceTimeP95Micros();
+
+  long getServiceTimeP99Micros();
+
+  long getRoundTripP50Micros();
+
+  long getRoundTripP95Micros();
+
+  long getRoundTripP99Micros();
+
+  /**
+   * The latency at any percentile.
+   *
+   * @param latency one of "queue-wait", "service-time", "round-trip", "remote-time" or "network".
+   * @param percentile the percentile e.g. 99.9
+   * @return the latency in microseconds, or -1 if nothing has been recorded.
+   */
+  long latencyMicros(String latency, double percentile);
+
+  /**
+   * Start the latencies again from nothing.
+   */
+  void resetLatencies();
+}
@@ -0,0 +1,110 @@
+package com.adaptris.vertx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+
+/**
+ * The event-bus headers that travel alongside every clustered message.
+ * <p>
+ * Routing is resolved once by the sender, and carried in the headers; so that anyone handling the message can make routing or
+ * drop decisions without having to decode (or even touch) the message body.
+ * </p>
+ */
+final class VertxHeaders {
+
+  static final String MESSAGE_ID = "interlok.message-id";
+  static final String TARGET = "interlok.target";
+  static final String SEND_MODE = "interlok.send-mode";
+  static final String PRIORITY = "interlok.priority";
+  static final String DEADLINE = "interlok.deadline";
+  static final String STRIPE_KEY = "interlok.stripe-key";
+  static final String REPLY_TO = "interlok.reply-to";
+  static final String PULL_FROM = "interlok.pull-from";
+
+  private VertxHeaders() {
+  }
+
+  /**
+   * Add the routing headers for the message to the delivery options.
+   */
+  static DeliveryOptions addHeaders(DeliveryOptions options, String target, Object message, SendMode.Mode mode) {
+    options.addHeader(TARGET, target);
+    options.addHeader(SEND_MODE, mode.name());
+    if (message instanceof VertXMessage) {
+      VertXMessage msg = (VertXMessage) message;
+      options.addHeader(MESSAGE_ID, msg.getAdaptrisMessage().getUniqueId());
+      options.addHeader(PRIORITY, String.valueOf(msg.getPriority()));
+      if (msg.getDeadline() > 0) {
+        options.addHeader(DEADLINE, String.valueOf(msg.getDeadline()));
+      }
+      if (msg.getStripeKey() != null) {
+        options.addHeader(STRIPE_KEY, msg.getStripeKey());
+      }
+      msg.getHeaders().forEach(options::addHeader);
+    }
+    return options;
+  }
+
+  static String messageId(Message<?> message) {
+    return header(message, MESSAGE_ID);
+  }
+
+  static String stripeKey(Message<?> message) {
+    return header(message, STRIPE_KEY);
+  }
+
+  /**
+   * Where to send the reply, when it can't be replied to directly (i.e. it was published).
+   */
+  static String replyTo(Message<?> message) {
+    return header(message, REPLY_TO);
+  }
+
+  /**
+   * Where to ask for more work, if the message was pulled.
+   */
+  static String pullFrom(Message<?> message) {
+    return header(message, PULL_FROM);
+  }
+
+  static void setPullFrom(VertXMessage message, String address) {
+    Map<String, String> headers = new HashMap<>(message.getHeaders());
+    headers.put(PULL_FROM, address);
+    message.setHeaders(headers);
+  }
+
+  static String target(Message<?> message) {
+    return header(message, TARGET);
+  }
+
+  static int priority(Message<?> message) {
+    return (int) toLong(header(message, PRIORITY));
+  }
+
+  /**
+   * The absolute deadline (in milliseconds since the epoch) for the message, or 0 if there isn't one.
+   */
+  static long deadline(Message<?> message) {
+    return toLong(header(message, DEADLINE));
+  }
+
+  private static String header(Message<?> message, String key) {
+    MultiMap headers = message.headers();
+    return headers != null ? headers.get(key) : null;
+  }
+
+  private static long toLong(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -2,9 +2,10 @@ package com.adaptris.vertx;
 
 import static com.adaptris.core.util.ServiceUtil.discardNulls;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.validation.Valid;
@@ -17,6 +18,7 @@ import com.adaptris.annotation.AdvancedConfig;
 import com.adaptris.annotation.AutoPopulated;
 import com.adaptris.annotation.ComponentProfile;
 import com.adaptris.annotation.DisplayOrder;
+import com.adaptris.annotation.InputFieldDefault;
 import com.adaptris.core.AdaptrisComponent;
 import com.adaptris.core.AdaptrisMessage;
 import com.adaptris.core.CoreException;
@@ -96,6 +98,9 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   
   @Valid
   private Service replyService;
+
+  @Valid
+  private GatherPolicy gatherPolicy;
   
   @Valid
   private DataInputParameter<String> targetComponentId;
@@ -115,6 +120,42 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   @AdvancedConfig
   @Valid
   private VertxProperties vertxProperties;
+
+  @AdvancedConfig
+  @Valid
+  private LoadShedding loadShedding;
+
+  @AdvancedConfig
+  @Valid
+  private StripedExecution stripedExecution;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "false")
+  private Boolean pooledServices;
+
+  @AdvancedConfig
+  @Valid
+  private RetryPolicy retryPolicy;
+
+  @AdvancedConfig
+  @Valid
+  private HedgingPolicy hedgingPolicy;
+
+  @AdvancedConfig
+  @Valid
+  private DeliveryProperties deliveryProperties;
+
+  @AdvancedConfig
+  @Valid
+  private RateLimit rateLimit;
+
+  @AdvancedConfig
+  @Valid
+  private CircuitBreaker circuitBreaker;
+
+  @AdvancedConfig
+  @Valid
+  private MetricsEndpoint metricsEndpoint;
   
   private transient MessageCodec<VertXMessage, VertXMessage> messageCodec;
   
@@ -122,11 +163,23 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   private transient ConsumerLatch latch;
   
   private transient ExecutorService executorService;
+
+  private transient ClusterStatistics statistics;
+
+  private transient StripedExecutor stripedExecutor;
+
+  private transient ServicePool<Service> servicePool;
+
+  private transient VertxComponentStatistics componentStatistics;
+
+  private transient MetricsServer metricsServer;
   
   private Integer maxThreads;
   
   public VertxService() {
     super();
+    statistics = new ClusterStatistics();
+    componentStatistics = new VertxComponentStatistics(statistics, () -> null, this::getExecutorService, this::getMessageCodec);
     this.setMessageCodec(new AdaptrisMessageCodec());
     this.setTargetSendMode(SendMode.Mode.SINGLE);
     this.setTargetComponentId(new ConstantDataInputParameter());
@@ -138,14 +191,23 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   public void doService(AdaptrisMessage msg) throws ServiceException {
     try {
       VertXMessage translatedMessage = this.getVertXMessageTranslator().translate(msg);
-      translatedMessage.setServiceRecord(new ServiceRecord());
       translatedMessage.setStartProcessingTime(System.currentTimeMillis());
       
-      if((this.getTargetComponentId() != null) && (!StringUtils.isEmpty(this.getTargetComponentId().extract(msg)))) {
+      String target = this.getTargetComponentId() != null ? this.getTargetComponentId().extract(msg) : null;
+      translatedMessage.setTargetComponentId(target);
+      if (getDeliveryProperties() != null) {
+        translatedMessage.setHeaders(getDeliveryProperties().resolveHeaders(msg));
+      }
+      if (getStripedExecution() != null) {
+        translatedMessage.setStripeKey(getStripedExecution().stripeKey(msg));
+      }
+      if (!StringUtils.isEmpty(target)) {
         if (SendMode.single(this.getTargetSendMode())) {
-          getClusteredEventBus().send(getTargetComponentId().extract(msg), translatedMessage, getReplyService() != null);
+          getClusteredEventBus().send(target, translatedMessage, getReplyService() != null);
+        } else if (SendMode.gather(this.getTargetSendMode())) {
+          getClusteredEventBus().gather(target, translatedMessage, getGatherPolicy());
         } else {
-          getClusteredEventBus().publish(getTargetComponentId().extract(msg), translatedMessage);
+          getClusteredEventBus().publish(target, translatedMessage);
         }
       } else {
         this.onVertxMessage(translatedMessage);
@@ -156,8 +218,26 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   }
 
   public void handleMessageReply(Message<Object> result) {
-    VertXMessage resultMessage = (VertXMessage) result.body();
-    
+    processReply((VertXMessage) result.body());
+  }
+
+  @Override
+  public void handleGatheredReplies(VertXMessage message, List<VertXMessage> replies) {
+    try {
+      AdaptrisMessage original = this.getVertXMessageTranslator().translate(message);
+      List<AdaptrisMessage> gathered = new ArrayList<>();
+      for (VertXMessage reply : replies) {
+        gathered.add(this.getVertXMessageTranslator().translate(reply));
+      }
+      getGatherPolicy().getMessageAggregator().aggregate(original, gathered);
+      processReply(this.getVertXMessageTranslator().translate(original));
+    } catch (CoreException e) {
+      log.error("Cannot aggregate the replies for [{}]", message.getAdaptrisMessage().getUniqueId(), e);
+      handleMessageFailure(message, e);
+    }
+  }
+
+  private void processReply(VertXMessage resultMessage) {
     AdaptrisMessage adaptrisMessage;
     try {
       adaptrisMessage = this.getVertXMessageTranslator().translate(resultMessage);
@@ -178,6 +258,17 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
     }
   }
 
+  @Override
+  public void handleMessageFailure(VertXMessage message, Throwable cause) {
+    try {
+      AdaptrisMessage adaptrisMessage = this.getVertXMessageTranslator().translate(message);
+      log.error("No reply for message [{}]", adaptrisMessage.getUniqueId(), cause);
+      replyExceptionHandler().handleProcessingException(adaptrisMessage);
+    } catch (CoreException e) {
+      log.error("Cannot translate the failed message back to an AdaptrisMessage: {}", message, e);
+    }
+  }
+
   @Override
   public void prepare() throws CoreException {
     prepare(getService());
@@ -194,27 +285,64 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   @Override
   protected void initService() throws CoreException {
     if (this.getVertXMessageTranslator() == null) this.setVertXMessageTranslator(new VertXMessageTranslator());
+    if (SendMode.gather(getTargetSendMode())
+        && (getGatherPolicy() == null || getGatherPolicy().getMessageAggregator() == null)) {
+      throw new CoreException("A gather-policy with a message-aggregator is required to gather replies.");
+    }
     
-    this.setExecutorService(new ThreadPoolExecutor(1, maxThreads(), 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>()));
+    this.setExecutorService(new WorkerPool(maxThreads()));
+    stripedExecutor = getStripedExecution() != null
+        ? new StripedExecutor(getExecutorService(), getStripedExecution().stripes(maxThreads()))
+        : null;
     clusteredEventBus.setMessageCodec(getMessageCodec());
+    if (getLoadShedding() != null) {
+      clusteredEventBus.setMaxOverloadResends(getLoadShedding().maxResends());
+    }
+    clusteredEventBus.setRetryPolicy(getRetryPolicy());
+    clusteredEventBus.setHedgingPolicy(getHedgingPolicy());
+    clusteredEventBus.setDeliveryProperties(getDeliveryProperties());
+    clusteredEventBus.setRateLimit(getRateLimit());
+    clusteredEventBus.setCircuitBreaker(getCircuitBreaker());
+    clusteredEventBus.setStatistics(statistics);
     LifecycleHelper.init(this.getService());
+    if (pooledServices() && getService() != null) {
+      servicePool = new ServicePool<>(getService(), maxThreads());
+      servicePool.init();
+    } else {
+      servicePool = null;
+    }
     LifecycleHelper.init(this.getReplyService());
     LifecycleHelper.init(this.getReplyServiceExceptionHandler());
+    componentStatistics.register(this, getUniqueId());
   }
   
   @Override
   public void start() throws CoreException {
     LifecycleHelper.start(this.getService());
+    if (servicePool != null) {
+      servicePool.start();
+    }
     LifecycleHelper.start(this.getReplyService());
     LifecycleHelper.start(this.getReplyServiceExceptionHandler());
     latch = ConsumerLatch.build();
     clusteredEventBus.startClusteredConsumer(this, this.getVertxProperties());
     latch.waitForComplete();
+    if (getMetricsEndpoint() != null) {
+      metricsServer = MetricsServer.start(clusteredEventBus.getVertx(), getMetricsEndpoint());
+    }
   }
   
   @Override
   public void stop() {
+    if (metricsServer != null) {
+      metricsServer.stop();
+      metricsServer = null;
+    }
+    clusteredEventBus.stopClusteredConsumer();
     LifecycleHelper.stop(this.getService());
+    if (servicePool != null) {
+      servicePool.stop();
+    }
     LifecycleHelper.stop(this.getReplyService());
     LifecycleHelper.stop(this.getReplyServiceExceptionHandler());
   }
@@ -226,7 +354,11 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
 
   @Override
   protected void closeService() {
+    componentStatistics.unregister();
     LifecycleHelper.close(this.getService());
+    if (servicePool != null) {
+      servicePool.close();
+    }
     LifecycleHelper.close(this.getReplyService());
     LifecycleHelper.close(this.getReplyServiceExceptionHandler());
     
@@ -242,6 +374,15 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   }
 
   private VertXMessage onVertxMessage(VertXMessage vxMessage) {
+    if (vxMessage != null && expired(vxMessage.getDeadline())) {
+      log.warn("Message [{}] expired before processing; {} messages dropped so far", vxMessage.getAdaptrisMessage().getUniqueId(),
+          statistics.messageExpired());
+      InterlokService expired = new InterlokService(getService() != null ? getService().getUniqueId() : getUniqueId(),
+          ServiceState.EXPIRED);
+      expired.setException(new ServiceRecordException("Deadline passed before the service could be run"));
+      vxMessage.getServiceRecord().addService(expired);
+      return vxMessage;
+    }
     AdaptrisMessage adaptrisMessage = null;
     try {
       adaptrisMessage = this.getVertXMessageTranslator().translate(vxMessage);
@@ -256,7 +397,17 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
       InterlokService interlokService = new InterlokService(service.getUniqueId());
 
       try {
-        service.doService(adaptrisMessage);
+        if (servicePool != null) {
+          service = servicePool.borrow();
+        }
+        long started = System.nanoTime();
+        interlokService.setStartNanos(vxMessage.getServiceRecord().sinceReceived());
+        try {
+          service.doService(adaptrisMessage);
+        } finally {
+          statistics.serviceTime().recordNanos(System.nanoTime() - started);
+          interlokService.setEndNanos(vxMessage.getServiceRecord().sinceReceived());
+        }
         interlokService.setState(ServiceState.COMPLETE);
         VertXMessage vertXMessage = this.getVertXMessageTranslator().translate(adaptrisMessage);
         vxMessage.setAdaptrisMessage(vertXMessage.getAdaptrisMessage());
@@ -264,7 +415,15 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
         log.error("Error running service.", ex);
         interlokService.setState(ServiceState.ERROR);
         interlokService.setException(ex);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        interlokService.setState(ServiceState.ERROR);
+        interlokService.setException(new ServiceRecordException("Interrupted waiting for a service instance"));
+        service = null;
       } finally {
+        if (servicePool != null && service != null) {
+          servicePool.release(service);
+        }
         vxMessage.getServiceRecord().addService(interlokService);
       }
     } else {
@@ -275,16 +434,76 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
   
   @Override
   public void handle(Message<VertXMessage> event) {
-    this.getExecutorService().submit(new Runnable() {
+    if (getLoadShedding() != null && getLoadShedding().overloaded(getExecutorService(), stripeBacklog())) {
+      log.debug("Rejecting message [{}], too busy; {} messages rejected so far", VertxHeaders.messageId(event),
+          statistics.messageRejected());
+      FailureCode.OVERLOADED.fail(getClusteredEventBus().getEventBus(), event, "Too many messages waiting to be processed");
+      return;
+    }
+    long arrived = System.nanoTime();
+    dispatch(event, new Runnable() {
       
       @Override
       public void run() {
-        VertXMessage vertXMessage = onVertxMessage(event.body());
-        event.reply(vertXMessage);
+        // Check the header first, so we don't decode the body of a message that nobody wants anymore.
+        long deadline = VertxHeaders.deadline(event);
+        if (expired(deadline)) {
+          log.warn("Message [{}] expired before processing; {} messages dropped so far", VertxHeaders.messageId(event),
+              statistics.messageExpired());
+          FailureCode.EXPIRED.fail(getClusteredEventBus().getEventBus(), event, "Deadline passed before processing started");
+          return;
+        }
+        VertXMessage received = event.body();
+        if (deadline > 0 && received != null) {
+          received.setDeadline(deadline);
+        }
+        if (received != null) {
+          received.getServiceRecord().received(getClusteredEventBus().nodeId(), arrived);
+        }
+        VertXMessage vertXMessage = onVertxMessage(received);
+        reply(event, vertXMessage);
       }
     });
   }
 
+  private void reply(Message<VertXMessage> event, VertXMessage reply) {
+    if (reply != null) {
+      reply.getServiceRecord().replying();
+    }
+    String replyTo = VertxHeaders.replyTo(event);
+    if (replyTo != null) {
+      // it was published, to gather the replies.
+      getClusteredEventBus().getEventBus().send(replyTo, reply);
+    } else {
+      event.reply(reply);
+    }
+  }
+
+  private void dispatch(Message<VertXMessage> event, Runnable task) {
+    if (stripedExecutor != null) {
+      String key = VertxHeaders.stripeKey(event);
+      // Only if the sender didn't resolve it for us.
+      stripedExecutor.execute(key != null ? key : getStripedExecution().stripeKey(event.body()), task);
+    } else {
+      this.getExecutorService().submit(task);
+    }
+  }
+
+  private int stripeBacklog() {
+    return stripedExecutor != null ? stripedExecutor.pending() : 0;
+  }
+
+  /**
+   * The number of messages waiting in each stripe, if striped execution is configured.
+   */
+  List<Integer> stripeDepths() {
+    return stripedExecutor != null ? stripedExecutor.depths() : Collections.emptyList();
+  }
+
+  private static boolean expired(long deadline) {
+    return deadline > 0 && System.currentTimeMillis() > deadline;
+  }
+
   public VertXMessageTranslator getVertXMessageTranslator() {
     return vertXMessageTranslator;
   }
@@ -325,6 +544,19 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
     this.replyService = replyService;
   }
 
+  public GatherPolicy getGatherPolicy() {
+    return gatherPolicy;
+  }
+
+  /**
+   * How to collect and combine the replies with the "GATHER" target send mode; the combined reply is passed to the reply-service.
+   * 
+   * @param gatherPolicy the policy; required with the "GATHER" target send mode, ignored otherwise.
+   */
+  public void setGatherPolicy(GatherPolicy gatherPolicy) {
+    this.gatherPolicy = gatherPolicy;
+  }
+
   ClusteredEventBus getClusteredEventBus() {
     return clusteredEventBus;
   }
@@ -390,6 +622,145 @@ public class VertxService extends ServiceImp implements Handler<Message<VertXMes
     this.maxThreads = maxThreads;
   }
 
+  public LoadShedding getLoadShedding() {
+    return loadShedding;
+  }
+
+  /**
+   * Set the policy for rejecting messages from the cluster when this instance is saturated.
+   * 
+   * @param loadShedding the policy; if not configured, messages are always queued until a worker thread is free.
+   */
+  public void setLoadShedding(LoadShedding loadShedding) {
+    this.loadShedding = loadShedding;
+  }
+
+  public Boolean getPooledServices() {
+    return pooledServices;
+  }
+
+  /**
+   * Run each worker thread on its own copy of the wrapped service.
+   * <p>
+   * Many services are not thread-safe, and by default every worker thread shares the same service. If this is true, then there
+   * is an independent instance of the service for each of the max-threads worker threads, and each message is processed by an
+   * instance that no other thread is using. The configured service is one of them; the rest are copies made through the default
+   * marshaller, each with its own lifecycle.
+   * </p>
+   * 
+   * @param b true to pool copies of the service; default false.
+   */
+  public void setPooledServices(Boolean b) {
+    this.pooledServices = b;
+  }
+
+  boolean pooledServices() {
+    return getPooledServices() != null ? getPooledServices() : false;
+  }
+
+  public StripedExecution getStripedExecution() {
+    return stripedExecution;
+  }
+
+  /**
+   * Process messages received from the cluster with the same key in the order they arrived.
+   * 
+   * @param stripedExecution the striping; if not configured, received messages are processed in parallel in no particular order.
+   */
+  public void setStripedExecution(StripedExecution stripedExecution) {
+    this.stripedExecution = stripedExecution;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Set how messages that get no reply from the cluster are retried.
+   * 
+   * @param retryPolicy the policy; if not configured, a message that gets no reply is handed straight to the
+   *          reply-service-exception-handler.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  public HedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  /**
+   * Set the policy for sending duplicates of slow messages to another member of the cluster.
+   * <p>
+   * Only configure this if the services run by the target are idempotent.
+   * </p>
+   * 
+   * @param hedgingPolicy the policy; if not configured, messages are never duplicated.
+   */
+  public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+    this.hedgingPolicy = hedgingPolicy;
+  }
+
+  public DeliveryProperties getDeliveryProperties() {
+    return deliveryProperties;
+  }
+
+  /**
+   * Set the Vertx delivery options used when sending messages to the cluster.
+   * 
+   * @param deliveryProperties the options; if not configured, the Vertx defaults are used.
+   */
+  public void setDeliveryProperties(DeliveryProperties deliveryProperties) {
+    this.deliveryProperties = deliveryProperties;
+  }
+
+  public RateLimit getRateLimit() {
+    return rateLimit;
+  }
+
+  /**
+   * Limit the rate that messages are sent to each target.
+   * 
+   * @param rateLimit the rate limit; if not configured, messages are sent as fast as they arrive.
+   */
+  public void setRateLimit(RateLimit rateLimit) {
+    this.rateLimit = rateLimit;
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Fail messages straight away, rather than sending them, while their target is failing.
+   * 
+   * @param circuitBreaker the circuit breaker; if not configured, every message is sent and waits for its reply.
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  public MetricsEndpoint getMetricsEndpoint() {
+    return metricsEndpoint;
+  }
+
+  /**
+   * Serve the statistics of every clustered workflow and service in the JVM over HTTP, for Prometheus to scrape.
+   * 
+   * @param metricsEndpoint the endpoint; if not configured, the statistics are only published over JMX.
+   */
+  public void setMetricsEndpoint(MetricsEndpoint metricsEndpoint) {
+    this.metricsEndpoint = metricsEndpoint;
+  }
+
+  ClusterStatistics statistics() {
+    return statistics;
+  }
+
+  VertxComponentStatistics componentStatistics() {
+    return componentStatistics;
+  }
+
   public VertxProperties getVertxProperties() {
     return vertxProperties;
   }
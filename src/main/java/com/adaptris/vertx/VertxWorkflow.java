@@ -1,13 +1,24 @@
 package com.adaptris.vertx;
 
-import java.util.HashMap;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import javax.validation.Valid;
@@ -22,8 +33,11 @@ import com.adaptris.core.AdaptrisMessage;
 import com.adaptris.core.AdaptrisMessageListener;
 import com.adaptris.core.CoreException;
 import com.adaptris.core.Service;
+import com.adaptris.core.ServiceCollection;
 import com.adaptris.core.ServiceException;
 import com.adaptris.core.StandardWorkflowImpl;
+import com.adaptris.core.services.aggregator.MessageAggregator;
+import com.adaptris.core.util.ListenerCallbackHelper;
 import com.adaptris.core.util.ManagedThreadFactory;
 import com.adaptris.interlok.InterlokException;
 import com.adaptris.interlok.config.DataInputParameter;
@@ -41,9 +55,10 @@ import io.vertx.core.eventbus.MessageCodec;
  * cluster.
  * 
  * <p>
- * Since there are no guarantees about which instance will process the message, this workflow will not support the new
- * {@link AdaptrisMessageListener#onAdaptrisMessage(AdaptrisMessage, Consumer)} method; <strong>any callbacks requested by the
- * consumer will be ignored</strong>
+ * Callbacks requested by the consumer through {@link AdaptrisMessageListener#onAdaptrisMessage(AdaptrisMessage, Consumer)} are kept
+ * with the message while it is in flight. With the "single" target send mode, the callback is only invoked once the reply from the
+ * cluster has been produced successfully; so a message is never acknowledged upstream while it could still be lost with a failed
+ * cluster member. With the "all" target send mode there is no reply, so the callback is invoked once the message has been queued.
  * </p>
  * 
  * <p>
@@ -53,14 +68,16 @@ import io.vertx.core.eventbus.MessageCodec;
  * {@link #getUniqueId()}.
  * </p>
  * <p>
- * There are two modes of clustering; "all" and "single" (default), configured with the target-send-mode option.<br/>
+ * There are three modes of clustering; "all", "single" (default) and "gather", configured with the target-send-mode option.<br/>
  * If you select "all", then each message consumed by this workflow will be sent to ALL instances in the cluster. Likewise if you
  * select "single" then a single random workflow instance will process the message.<br/>
  * Additionally if you choose "single" once the worklfow instance has finished running their service-list the original worklfow will
  * receive the processed message as a reply. If you have a configured producer on the original workflow then the reply message will
  * be produced.<br/>
  * No reply is received if you choose "all" as the target send mode. Any producers you need must therefore be configured in the
- * service-list of each instance in the cluster.
+ * service-list of each instance in the cluster.<br/>
+ * If you choose "gather", then each message is sent to ALL instances in the cluster, and their replies are combined into a single
+ * reply as configured by the {@link GatherPolicy}.
  * </p>
  * <p>
  * You can choose the cluster to send any consumed messages to by configuring the target-component-id. The value of which will match
@@ -69,10 +86,11 @@ import io.vertx.core.eventbus.MessageCodec;
  * workflow also shares the same unique-id as the other clustered workflow instances.
  * </p>
  * <p>
- * Every message consumed as mentioned earlier is sent to the cluster for processing and then for a potential reply, which means
- * that any consumed message is immediately acknowledged before the processing is complete. To stop the workflows consumer from
- * consuming too many messages waiting for processing we can set the maximum number of messages to be queued up for processing. The
- * default value is 10, but can be changed with the configuration option queue-capacity.<br/>
+ * Every message consumed as mentioned earlier is sent to the cluster for processing and then for a potential reply. To stop the
+ * workflows consumer from consuming too many messages waiting for processing we can set the maximum number of messages to be queued
+ * up for processing. The default value is 10, but can be changed with the configuration option queue-capacity.<br/>
+ * In the "single" target send mode this is also the window of unacknowledged messages; the consumer is blocked until a reply
+ * arrives (or the message expires) for one of them, so the prefetch of the consumer can safely be raised to match.
  * </p>
  * <p>
  * Finally, should a service in the clustered instance fail, further services will not be run, unless you configure
@@ -121,14 +139,88 @@ public class VertxWorkflow extends StandardWorkflowImpl
   @AdvancedConfig
   @Valid
   private TimeInterval itemExpiryTimeout;
+
+  @AdvancedConfig
+  private String itemExpiryMetadataKey;
   
   @AdvancedConfig
   @Valid
   private VertxProperties vertxProperties;
+
+  @AdvancedConfig
+  @Valid
+  private LoadShedding loadShedding;
+
+  @AdvancedConfig
+  @Valid
+  private StripedExecution stripedExecution;
+
+  @AdvancedConfig
+  @InputFieldDefault(value = "false")
+  private Boolean pooledServices;
+
+  @AdvancedConfig
+  @Valid
+  private RetryPolicy retryPolicy;
+
+  @AdvancedConfig
+  @Valid
+  private HedgingPolicy hedgingPolicy;
+
+  @AdvancedConfig
+  @Valid
+  private DeliveryProperties deliveryProperties;
+
+  @AdvancedConfig
+  @Valid
+  private RateLimit rateLimit;
+
+  @AdvancedConfig
+  @Valid
+  private CircuitBreaker circuitBreaker;
+
+  @AdvancedConfig
+  @Valid
+  private ReplyOrdering replyOrdering;
+
+  @AdvancedConfig
+  @Valid
+  private ParallelExecution parallelExecution;
+
+  @Valid
+  private GatherPolicy gatherPolicy;
+
+  @AdvancedConfig
+  @Valid
+  private SplitPolicy splitPolicy;
+
+  @AdvancedConfig
+  @Valid
+  private PullDispatch pullDispatch;
+
+  @AdvancedConfig
+  @Valid
+  private PriorityLanes priorityLanes;
+
+  @AdvancedConfig
+  @Valid
+  private TenantFairness tenantFairness;
+
+  @AdvancedConfig
+  @Valid
+  private AdaptiveConcurrency adaptiveConcurrency;
+
+  @AdvancedConfig
+  @Valid
+  private TimeInterval slowMessageThreshold;
+
+  @AdvancedConfig
+  @Valid
+  private MetricsEndpoint metricsEndpoint;
   
   private transient MessageCodec<VertXMessage, VertXMessage> messageCodec;
   
-  private transient ArrayBlockingQueue<VertXMessage> processingQueue;
+  private transient BlockingQueue<VertXMessage> processingQueue;
   
   private transient BlockingExpiryQueue<VertXMessage> consumerQueue;
   
@@ -139,10 +231,32 @@ public class VertxWorkflow extends StandardWorkflowImpl
   private transient ClusteredEventBus clusteredEventBus;
   
   private transient Map<String, Map<Object, Object>> objectMetadataCache;
+
+  private transient Map<String, SplitTracker> splitParts;
   
   private transient ConsumerLatch latch;
   
   private transient ExecutorService executorService;
+
+  private transient ClusterStatistics statistics;
+
+  private transient StripedExecutor stripedExecutor;
+
+  private transient ServicePool<ServiceCollection> servicePool;
+
+  private transient ReorderBuffer<VertXMessage> reorderBuffer;
+
+  private transient ExecutorService parallelExecutor;
+
+  private transient PullDispatcher pullDispatcher;
+
+  private transient WorkerPool[] lanePools;
+
+  private transient AdaptiveLimiter limiter;
+
+  private transient VertxComponentStatistics componentStatistics;
+
+  private transient MetricsServer metricsServer;
   
   private Integer maxThreads;
 
@@ -152,43 +266,161 @@ public class VertxWorkflow extends StandardWorkflowImpl
     messageExecutor = Executors.newSingleThreadExecutor(new ManagedThreadFactory());
     setTargetSendMode(SendMode.Mode.SINGLE);
     clusteredEventBus = new ClusteredEventBus();
-    objectMetadataCache = new HashMap<>();
+    objectMetadataCache = new ConcurrentHashMap<>();
+    splitParts = new ConcurrentHashMap<>();
+    statistics = new ClusterStatistics();
+    componentStatistics = new VertxComponentStatistics(statistics, this::getProcessingQueue, this::getExecutorService,
+        this::getMessageCodec);
   }
   
   private void queueMessage(AdaptrisMessage msg) {
     try {
       workflowStart(msg);
       log.debug("start processing msg [{}]", msg);      
-      objectMetadataCache.put(msg.getUniqueId(), msg.getObjectHeaders()); 
-      
-      VertXMessage translatedMessage = getVertXMessageTranslator().translate(msg);
-      translatedMessage.setServiceRecord(new ServiceRecord());
-      translatedMessage.setStartProcessingTime(System.currentTimeMillis());
-      
-      log.trace("New message [{}]::: Queue slots available: {}", msg.getUniqueId(), getProcessingQueue().remainingCapacity());
-      getProcessingQueue().put(translatedMessage);
+      if (SendMode.replies(getTargetSendMode())) {
+        // kept until the reply arrives.
+        objectMetadataCache.put(msg.getUniqueId(), msg.getObjectHeaders());
+      }
       
-      // If we are expecting replies, lets block the consumer until we get some replies back.
-      if (SendMode.single(getTargetSendMode())) {
-        consumerQueue.put(translatedMessage);
+      if (splitting()) {
+        queueParts(msg);
+      } else {
+        queue(msg, true);
+      }
+      if (!SendMode.replies(getTargetSendMode())) {
+        ListenerCallbackHelper.handleSuccessCallback(msg);
       }
       log.trace("New queue size : {}", getProcessingQueue().remainingCapacity());
       reportQueue("new message put [" + msg.getUniqueId() + "]");
-    } catch (CoreException e) {
+    } catch (InterlokException e) {
       log.error("Error processing message: ", e);
+      objectMetadataCache.remove(msg.getUniqueId());
+      skipReply(msg.getUniqueId());
       handleBadMessage(msg);
     } catch (InterruptedException e) {
       log.error("Error processing message: ", e);
+      objectMetadataCache.remove(msg.getUniqueId());
+      skipReply(msg.getUniqueId());
       handleBadMessage(msg);
     }
   }
-  
+
+  private void queue(AdaptrisMessage msg, boolean ordered) throws InterlokException, InterruptedException {
+    VertXMessage translatedMessage = getVertXMessageTranslator().translate(msg);
+    translatedMessage.setStartProcessingTime(System.currentTimeMillis());
+    translatedMessage.setQueuedNanos(System.nanoTime());
+    translatedMessage.setDeadline(translatedMessage.getStartProcessingTime() + itemExpiryTimeout(msg));
+    if (getTargetComponentId() != null) {
+      // resolve the routing once, while we still have the AdaptrisMessage.
+      translatedMessage.setTargetComponentId(getTargetComponentId().extract(msg));
+    }
+    if (getDeliveryProperties() != null) {
+      translatedMessage.setHeaders(getDeliveryProperties().resolveHeaders(msg));
+    }
+    if (getStripedExecution() != null) {
+      translatedMessage.setStripeKey(getStripedExecution().stripeKey(msg));
+    }
+    if (getPriorityLanes() != null) {
+      translatedMessage.setPriority(getPriorityLanes().level(msg));
+    }
+    if (tenantQueue() != null) {
+      translatedMessage.setTenant(getTenantFairness().tenant(msg));
+      if (!tenantQueue().admits(translatedMessage.getTenant())) {
+        // don't block the consumer (and everyone else) behind one tenant.
+        throw new CoreException("Too many messages queued for tenant [" + translatedMessage.getTenant() + "]");
+      }
+    }
+
+    // If we are expecting replies, lets block the consumer until we get some replies back.
+    // This happens before the message is sent, so the reply can never arrive before its slot is taken.
+    if (SendMode.replies(getTargetSendMode()) && limiter != null) {
+      limiter.acquire(msg.getUniqueId());
+    }
+    boolean idle;
+    try {
+      if (SendMode.replies(getTargetSendMode())) {
+        consumerQueue.put(translatedMessage);
+        if (ordered && reorderBuffer != null) {
+          reorderBuffer.register(getReplyOrdering().sequenceKey(msg), msg.getUniqueId(), translatedMessage.getDeadline());
+        }
+      }
+
+      log.trace("New message [{}]::: Queue slots available: {}", msg.getUniqueId(), getProcessingQueue().remainingCapacity());
+      idle = getProcessingQueue().isEmpty();
+      getProcessingQueue().put(translatedMessage);
+    } catch (InterruptedException e) {
+      // never sent, so there will be no reply to free its slots.
+      consumerQueue.remove(translatedMessage);
+      if (limiter != null) {
+        limiter.released(msg.getUniqueId(), false);
+      }
+      throw e;
+    }
+    if (idle && pulling() && pullDispatcher != null) {
+      // don't make anyone wait for the next announcement.
+      pullDispatcher.announce(target(translatedMessage));
+    }
+  }
+
+  private boolean splitting() {
+    return getSplitPolicy() != null && SendMode.single(getTargetSendMode());
+  }
+
+  /**
+   * Each part is queued as it is split; so it is the queue-capacity, rather than the size of the message, that decides how many
+   * parts are in the cluster at once.
+   */
+  private void queueParts(AdaptrisMessage msg) throws InterlokException, InterruptedException {
+    if (reorderBuffer != null) {
+      reorderBuffer.register(getReplyOrdering().sequenceKey(msg), msg.getUniqueId(),
+          System.currentTimeMillis() + itemExpiryTimeout(msg));
+    }
+    SplitTracker split = new SplitTracker(msg);
+    Iterable<AdaptrisMessage> parts = getSplitPolicy().getMessageSplitter().splitMessage(msg);
+    try {
+      for (AdaptrisMessage part : parts) {
+        if (split.hasFailed()) {
+          // an earlier part has failed, and the message with it; no point sending the rest.
+          return;
+        }
+        split.add(part.getUniqueId());
+        splitParts.put(part.getUniqueId(), split);
+        try {
+          queue(part, false);
+        } catch (InterlokException | InterruptedException e) {
+          // replies for the parts already sent are ignored.
+          splitParts.remove(part.getUniqueId());
+          if (split.failed()) {
+            throw e;
+          }
+          return;
+        }
+      }
+    } finally {
+      closeQuietly(parts);
+    }
+    log.debug("Message [{}] split into {} parts", msg.getUniqueId(), split.replies().size());
+    if (split.sealed()) {
+      reassemble(split);
+    }
+  }
+
+  private static void closeQuietly(Iterable<?> parts) {
+    if (parts instanceof Closeable) {
+      try {
+        ((Closeable) parts).close();
+      } catch (IOException e) {
+        // nothing we can do.
+      }
+    }
+  }
 
   @Override
   public void onAdaptrisMessage(AdaptrisMessage msg, Consumer<AdaptrisMessage> success) {
-    // Since we ultimately change the message into one that's "serializable"
-    // we won't add the callback.
-    // ListenerCallbackHelper.prepare(msg, success);
+    // The callback travels in the object metadata, which stays here while the message is in the cluster.
+    if (success != null) {
+      ListenerCallbackHelper.prepare(msg, success);
+    }
     queueMessage(msg);
   }
 
@@ -198,6 +430,19 @@ public class VertxWorkflow extends StandardWorkflowImpl
   }
 
   public void onVertxMessage(Message<VertXMessage> xMessage) {
+    onVertxMessage(xMessage, System.nanoTime());
+  }
+
+  /**
+   * @param received when the message arrived, see {@link System#nanoTime()}.
+   */
+  private void onVertxMessage(Message<VertXMessage> xMessage, long received) {
+    // Check the header first, so we don't decode the body of a message that nobody wants anymore.
+    long deadline = VertxHeaders.deadline(xMessage);
+    if (expired(deadline)) {
+      dropExpired(xMessage);
+      return;
+    }
     AdaptrisMessage adaptrisMessage = null;
     VertXMessage vxMessage = null;
     try {
@@ -208,55 +453,349 @@ public class VertxWorkflow extends StandardWorkflowImpl
       log.error("Error translating incoming message.", e);
       return;
     }
+    if (deadline > 0) {
+      vxMessage.setDeadline(deadline);
+    }
+    vxMessage.getServiceRecord().received(getClusteredEventBus().nodeId(), received);
 
-    for(Service service : getServiceCollection()) {
-      InterlokService interlokService = new InterlokService(service.getUniqueId());
-      
-      try {
-        service.doService(adaptrisMessage);
-        interlokService.setState(ServiceState.COMPLETE);
-      } catch (ServiceException ex) {
-        log.error("Error running service.", ex);
-        interlokService.setState(ServiceState.ERROR);
-        interlokService.setException(ex);
-        if(!continueOnError()) {
-          break;
-        }
-      } finally {
-        vxMessage.getServiceRecord().addService(interlokService);
+    ServiceCollection services;
+    try {
+      services = servicePool != null ? servicePool.borrow() : getServiceCollection();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      FailureCode.OVERLOADED.fail(getClusteredEventBus().getEventBus(), xMessage, "Interrupted waiting for a service instance");
+      return;
+    }
+    boolean expired;
+    long started = System.nanoTime();
+    try {
+      expired = runServices(services, adaptrisMessage, vxMessage);
+    } finally {
+      statistics.serviceTime().recordNanos(System.nanoTime() - started);
+      if (servicePool != null) {
+        servicePool.release(services);
       }
     }
     
+    if (expired) {
+      log.warn("Message [{}] expired during processing; {} messages dropped so far", adaptrisMessage.getUniqueId(),
+          statistics.messageExpired());
+    }
     try {
       VertXMessage vertXMessage = getVertXMessageTranslator().translate(adaptrisMessage);
       vxMessage.setAdaptrisMessage(vertXMessage.getAdaptrisMessage());
-      xMessage.reply(vxMessage);
+      reply(xMessage, vxMessage);
     } catch (CoreException e) {
       log.error("Could not translate the Vertx Message to an AdaptrisMessage", e);
     }    
   }
 
+  private void reply(Message<VertXMessage> xMessage, VertXMessage reply) {
+    reply.getServiceRecord().replying();
+    String replyTo = VertxHeaders.replyTo(xMessage);
+    if (replyTo != null) {
+      // it was published, to gather the replies.
+      getClusteredEventBus().getEventBus().send(replyTo, reply);
+    } else {
+      xMessage.reply(reply);
+    }
+  }
+
+  private boolean runServices(ServiceCollection services, AdaptrisMessage adaptrisMessage, VertXMessage vxMessage) {
+    boolean expired = false;
+    Set<ParallelStage> stagesRun = new HashSet<>();
+    for(Service service : services) {
+      ParallelStage stage = getParallelExecution() != null ? getParallelExecution().stageOf(service.getUniqueId()) : null;
+      if (stage != null && !stagesRun.add(stage)) {
+        // already run with the rest of its stage.
+        continue;
+      }
+      List<Service> stageServices = stage != null ? stageServices(services, stage) : Collections.singletonList(service);
+      if (expired || expired(vxMessage.getDeadline())) {
+        expired = true;
+        for (Service s : stageServices) {
+          InterlokService interlokService = new InterlokService(s.getUniqueId(), ServiceState.EXPIRED);
+          interlokService.setException(new ServiceRecordException("Deadline passed before the service could be run"));
+          vxMessage.getServiceRecord().addService(interlokService);
+        }
+        continue;
+      }
+      boolean success = stage != null ? runStage(stageServices, adaptrisMessage, vxMessage)
+          : runService(service, adaptrisMessage, vxMessage);
+      if (!success && !continueOnError()) {
+        break;
+      }
+    }
+    return expired;
+  }
+
+  private boolean runService(Service service, AdaptrisMessage adaptrisMessage, VertXMessage vxMessage) {
+    InterlokService interlokService = new InterlokService(service.getUniqueId());
+    interlokService.setStartNanos(vxMessage.getServiceRecord().sinceReceived());
+    try {
+      service.doService(adaptrisMessage);
+      interlokService.setState(ServiceState.COMPLETE);
+    } catch (ServiceException ex) {
+      log.error("Error running service.", ex);
+      interlokService.setState(ServiceState.ERROR);
+      interlokService.setException(ex);
+    } finally {
+      interlokService.setEndNanos(vxMessage.getServiceRecord().sinceReceived());
+      vxMessage.getServiceRecord().addService(interlokService);
+    }
+    return interlokService.getState() == ServiceState.COMPLETE;
+  }
+
+  private static List<Service> stageServices(ServiceCollection services, ParallelStage stage) {
+    List<Service> result = new ArrayList<>();
+    for (Service service : services) {
+      if (stage.contains(service.getUniqueId())) {
+        result.add(service);
+      }
+    }
+    return result;
+  }
+
+  private boolean runStage(List<Service> stage, AdaptrisMessage adaptrisMessage, VertXMessage vxMessage) {
+    long started = vxMessage.getServiceRecord().sinceReceived();
+    MessageBranches branches = new MessageBranches(adaptrisMessage, getParallelExecution().conflictRule());
+    List<AdaptrisMessage> views = new ArrayList<>();
+    List<Future<ServiceException>> results = new ArrayList<>();
+    try {
+      try {
+        for (Service service : stage) {
+          AdaptrisMessage view = branches.branch();
+          views.add(view);
+          // The first one runs on this thread, which would only be waiting otherwise.
+          results.add(views.size() == 1 ? null : parallelExecutor.submit(() -> runBranch(service, view)));
+        }
+      } catch (CloneNotSupportedException e) {
+        log.error("Cannot copy the message for parallel execution.", e);
+        for (Service service : stage) {
+          InterlokService interlokService = new InterlokService(service.getUniqueId(), ServiceState.ERROR);
+          interlokService.setException(new ServiceRecordException(e));
+          vxMessage.getServiceRecord().addService(interlokService);
+        }
+        return false;
+      }
+      ServiceException first = runBranch(stage.get(0), views.get(0));
+      boolean success = true;
+      for (int i = 0; i < stage.size(); i++) {
+        InterlokService interlokService = new InterlokService(stage.get(i).getUniqueId());
+        Exception failure = i == 0 ? first : branchResult(results.get(i));
+        // they ran side by side; each one ended by the time its result was collected.
+        interlokService.setStartNanos(started);
+        interlokService.setEndNanos(vxMessage.getServiceRecord().sinceReceived());
+        if (failure == null) {
+          try {
+            branches.merge(views.get(i));
+          } catch (ServiceRecordException conflict) {
+            failure = conflict;
+          }
+        }
+        if (failure != null) {
+          log.error("Error running service.", failure);
+          interlokService.setState(ServiceState.ERROR);
+          interlokService.setException(failure);
+          success = false;
+        } else {
+          interlokService.setState(ServiceState.COMPLETE);
+        }
+        vxMessage.getServiceRecord().addService(interlokService);
+      }
+      return success;
+    } finally {
+      // nothing left running if we gave up early; a no-op for those already collected.
+      for (Future<ServiceException> result : results) {
+        if (result != null) {
+          result.cancel(true);
+        }
+      }
+    }
+  }
+
+  private static ServiceException runBranch(Service service, AdaptrisMessage view) {
+    try {
+      service.doService(view);
+      return null;
+    } catch (ServiceException e) {
+      return e;
+    }
+  }
+
+  private static Exception branchResult(Future<ServiceException> result) {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.cancel(true);
+      return new ServiceRecordException("Interrupted waiting for the service to complete");
+    } catch (ExecutionException e) {
+      return new ServiceException(e.getCause());
+    }
+  }
+
+  private void dispatch(Message<VertXMessage> event, ExecutorService executor, Runnable task) {
+    if (stripedExecutor != null) {
+      String key = VertxHeaders.stripeKey(event);
+      // Only if the sender didn't resolve it for us.
+      stripedExecutor.execute(key != null ? key : getStripedExecution().stripeKey(event.body()), task);
+    } else {
+      executor.submit(task);
+    }
+  }
+
+  private int stripeBacklog() {
+    return stripedExecutor != null ? stripedExecutor.pending() : 0;
+  }
+
+  /**
+   * The number of messages waiting in each stripe, if striped execution is configured.
+   */
+  List<Integer> stripeDepths() {
+    return stripedExecutor != null ? stripedExecutor.depths() : Collections.emptyList();
+  }
+
+  /**
+   * The number of messages waiting to be sent at each priority level, if priority lanes are configured.
+   */
+  List<Integer> priorityDepths() {
+    return getProcessingQueue() instanceof PriorityLaneQueue ? ((PriorityLaneQueue) getProcessingQueue()).depths()
+        : Collections.emptyList();
+  }
+
+  /**
+   * The number of messages waiting to be sent for each tenant, if tenant fairness is configured.
+   */
+  Map<String, Integer> tenantDepths() {
+    return tenantQueue() != null ? tenantQueue().depths() : Collections.emptyMap();
+  }
+
+  /**
+   * The time messages for each tenant have waited to be sent at the given percentile, if tenant fairness is configured.
+   */
+  Map<String, Long> tenantLatencies(double percentile) {
+    return tenantQueue() != null ? tenantQueue().latencies(percentile) : Collections.emptyMap();
+  }
+
+  /**
+   * The most messages that may currently be waiting for a reply.
+   */
+  int concurrencyLimit() {
+    return limiter != null ? limiter.limit() : queueCapacity();
+  }
+
+  /**
+   * The state of the circuit to each target, if a circuit breaker is configured.
+   */
+  Map<String, CircuitBreakers.State> circuitStates() {
+    CircuitBreakers breakers = getClusteredEventBus().getCircuitBreakers();
+    return breakers != null ? breakers.states() : Collections.emptyMap();
+  }
+
+  /**
+   * The object metadata of the messages waiting for a reply, by message id.
+   */
+  Map<String, Map<Object, Object>> objectMetadataCache() {
+    return objectMetadataCache;
+  }
+
+  private TenantQueue tenantQueue() {
+    return getProcessingQueue() instanceof TenantQueue ? (TenantQueue) getProcessingQueue() : null;
+  }
+
+  private static boolean expired(long deadline) {
+    return deadline > 0 && System.currentTimeMillis() > deadline;
+  }
+
+  private void dropExpired(Message<VertXMessage> xMessage) {
+    log.warn("Message [{}] expired before processing; {} messages dropped so far", VertxHeaders.messageId(xMessage),
+        statistics.messageExpired());
+    FailureCode.EXPIRED.fail(getClusteredEventBus().getEventBus(), xMessage, "Deadline passed before processing started");
+  }
+
   @Override
   protected void initialiseWorkflow() throws CoreException {
     super.initialiseWorkflow();
     clusteredEventBus.setMessageCodec(getMessageCodec());
+    if (getLoadShedding() != null) {
+      clusteredEventBus.setMaxOverloadResends(getLoadShedding().maxResends());
+    }
+    clusteredEventBus.setRetryPolicy(getRetryPolicy());
+    clusteredEventBus.setHedgingPolicy(getHedgingPolicy());
+    clusteredEventBus.setDeliveryProperties(getDeliveryProperties());
+    clusteredEventBus.setRateLimit(getRateLimit());
+    clusteredEventBus.setCircuitBreaker(getCircuitBreaker());
+    clusteredEventBus.setStatistics(statistics);
     
-    this.setExecutorService(new ThreadPoolExecutor(1, maxThreads(), 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>()));
+    this.setExecutorService(new WorkerPool(maxThreads()));
+    lanePools = null;
+    if (getPriorityLanes() != null) {
+      int[] threads = getPriorityLanes().threads(maxThreads());
+      lanePools = new WorkerPool[threads.length];
+      for (int i = 0; i < threads.length; i++) {
+        lanePools[i] = new WorkerPool(threads[i]);
+      }
+    }
+    stripedExecutor = getStripedExecution() != null
+        ? new StripedExecutor(getExecutorService(), getStripedExecution().stripes(maxThreads()))
+        : null;
     
     if (queueCapacity() <= 0) {
       throw new CoreException("Queue capacity must be greater than 0.");
     }
+    if (getPriorityLanes() != null && getTenantFairness() != null) {
+      throw new CoreException("Priority lanes and tenant fairness cannot be used together.");
+    }
+    if (pulling() && getTenantFairness() != null) {
+      // pulled messages are picked by target, which would bypass the tenant scheduling.
+      throw new CoreException("Pull dispatch and tenant fairness cannot be used together.");
+    }
+    if (pulling() && getPriorityLanes() != null) {
+      // likewise the weighting and max-wait of the lanes.
+      throw new CoreException("Pull dispatch and priority lanes cannot be used together.");
+    }
+    if (getStripedExecution() != null && getPriorityLanes() != null) {
+      // striped messages all run on the shared pool, so the lanes would neither be used nor report their free threads.
+      throw new CoreException("Striped execution and priority lanes cannot be used together.");
+    }
+    if (SendMode.gather(getTargetSendMode())
+        && (getGatherPolicy() == null || getGatherPolicy().getMessageAggregator() == null)) {
+      throw new CoreException("A gather-policy with a message-aggregator is required to gather replies.");
+    }
 
     if(getVertXMessageTranslator() == null) {
       setVertXMessageTranslator(new VertXMessageTranslator());
     }
     
-    setProcessingQueue(new ArrayBlockingQueue<>(queueCapacity(), true));
+    if (getTenantFairness() != null) {
+      setProcessingQueue(new TenantQueue(getTenantFairness(), getTenantFairness().maxQueuedPerTenant(queueCapacity()),
+          SendMode.replies(getTargetSendMode())));
+    } else {
+      setProcessingQueue(getPriorityLanes() != null ? new PriorityLaneQueue(getPriorityLanes(), queueCapacity())
+          : new ArrayBlockingQueue<>(queueCapacity(), true));
+    }
     consumerQueue = new BlockingExpiryQueue<>(queueCapacity(), true);
+    limiter = getAdaptiveConcurrency() != null && SendMode.single(getTargetSendMode())
+        ? new AdaptiveLimiter(getAdaptiveConcurrency(), queueCapacity())
+        : null;
     consumerQueue.setExpiryTimeout(itemExpiryTimeout());
     consumerQueue.registerExpiryListener(this);
     
     objectMetadataCache.clear();
+    splitParts.clear();
+    reorderBuffer = getReplyOrdering() != null ? new ReorderBuffer<>(getReplyOrdering().maxBufferedReplies()) : null;
+    if (pooledServices()) {
+      servicePool = new ServicePool<>(getServiceCollection(), workerThreads());
+      servicePool.init();
+    } else {
+      servicePool = null;
+    }
+    if (getParallelExecution() != null && parallelExecutor == null) {
+      parallelExecutor = Executors.newFixedThreadPool(getParallelExecution().threads(workerThreads()),
+          new ManagedThreadFactory(getClass().getSimpleName()));
+    }
+    componentStatistics.register(this, getUniqueId());
   }
 
   @Override
@@ -267,9 +806,19 @@ public class VertxWorkflow extends StandardWorkflowImpl
   @Override
   protected void startWorkflow() throws CoreException {
     super.startWorkflow();
+    if (servicePool != null) {
+      servicePool.start();
+    }
     latch = ConsumerLatch.build();
     clusteredEventBus.startClusteredConsumer(this, this.getVertxProperties());
     latch.waitForComplete();
+    if (getMetricsEndpoint() != null) {
+      metricsServer = MetricsServer.start(clusteredEventBus.getVertx(), getMetricsEndpoint());
+    }
+    if (getPullDispatch() != null) {
+      pullDispatcher = new PullDispatcher(clusteredEventBus, getPullDispatch(), clusteredEventBus.vertxId(this));
+      pullDispatcher.start(this::take, this, this::freeSlots);
+    }
   }
   
   @Override
@@ -292,16 +841,32 @@ public class VertxWorkflow extends StandardWorkflowImpl
   }
 
   void processQueuedMessage() throws InterruptedException {
+    if (pulling()) {
+      announceQueued();
+      TimeUnit.MILLISECONDS.sleep(getPullDispatch().announceIntervalMs());
+      skipExpiredReplies();
+      return;
+    }
     VertXMessage xMessage = getProcessingQueue().poll(1L, TimeUnit.SECONDS);
+    skipExpiredReplies();
     
     if(xMessage != null) {
       reportQueue("after a get [" + xMessage.getAdaptrisMessage().getUniqueId() + "]");
+      long queueWait = System.nanoTime() - xMessage.getQueuedNanos();
+      statistics.queueWait().recordNanos(queueWait);
+      xMessage.getServiceRecord().setQueueWaitNanos(queueWait);
       // send it to vertx   
       try {
+        String target = target(xMessage);
         if (SendMode.single(getTargetSendMode())) {
-          getClusteredEventBus().send(targetComponentId(xMessage), xMessage, true);
+          if (limiter != null) {
+            limiter.sent(xMessage.getAdaptrisMessage().getUniqueId());
+          }
+          getClusteredEventBus().send(target, xMessage, true);
+        } else if (SendMode.gather(getTargetSendMode())) {
+          getClusteredEventBus().gather(target, xMessage, getGatherPolicy());
         } else {
-          getClusteredEventBus().publish(targetComponentId(xMessage), xMessage);
+          getClusteredEventBus().publish(target, xMessage);
         }
       } catch (InterlokException exception) {
         log.error("Cannot derive the target from the incoming message.", exception);
@@ -314,10 +879,204 @@ public class VertxWorkflow extends StandardWorkflowImpl
     }
   }
   
+  private void skipExpiredReplies() {
+    if (reorderBuffer != null) {
+      reorderBuffer.skipExpired(System.currentTimeMillis(), this::processReply);
+    }
+  }
+
+  private String target(VertXMessage xMessage) throws InterlokException {
+    return xMessage.getTargetComponentId() != null ? xMessage.getTargetComponentId() : targetComponentId(xMessage);
+  }
+
+  private boolean pulling() {
+    return getPullDispatch() != null && SendMode.single(getTargetSendMode());
+  }
+
+  private void announceQueued() {
+    if (pullDispatcher == null) {
+      return;
+    }
+    Set<String> targets = new HashSet<>();
+    for (VertXMessage xMessage : getProcessingQueue()) {
+      try {
+        targets.add(target(xMessage));
+      } catch (InterlokException e) {
+        log.error("Cannot derive the target from the queued message.", e);
+      }
+    }
+    targets.forEach(pullDispatcher::announce);
+  }
+
+  /**
+   * Hand out queued messages to a member of the target cluster that has asked for them.
+   */
+  List<VertXMessage> take(String target, int max) {
+    List<VertXMessage> taken = new ArrayList<>();
+    List<VertXMessage> expired = new ArrayList<>();
+    for (Iterator<VertXMessage> queued = getProcessingQueue().iterator(); queued.hasNext() && taken.size() < max;) {
+      VertXMessage xMessage = queued.next();
+      try {
+        if (target.equals(target(xMessage))) {
+          queued.remove();
+          if (expired(xMessage.getDeadline())) {
+            expired.add(xMessage);
+            continue;
+          }
+          if (limiter != null) {
+            // sent as soon as it is handed out.
+            limiter.sent(xMessage.getAdaptrisMessage().getUniqueId());
+          }
+          taken.add(xMessage);
+        }
+      } catch (InterlokException e) {
+        log.error("Cannot derive the target from the queued message.", e);
+      }
+    }
+    reportQueue("after a pull for [" + target + "]");
+    // as if it had been pushed, and the receiver refused it.
+    for (VertXMessage xMessage : expired) {
+      handleMessageFailure(xMessage, FailureCode.EXPIRED.exception("Deadline passed before the message was pulled"));
+    }
+    return taken;
+  }
+
+  /**
+   * The number of threads that process messages; with priority lanes, each lane has its own.
+   */
+  private int workerThreads() {
+    if (lanePools == null) {
+      return maxThreads();
+    }
+    return Arrays.stream(lanePools).mapToInt(WorkerPool::getMaximumPoolSize).sum();
+  }
+
+  private int freeSlots() {
+    return getExecutorService() instanceof WorkerPool ? ((WorkerPool) getExecutorService()).freeSlots() : maxThreads();
+  }
+
   @Override
   public void handleMessageReply(Message<Object> result) {
     VertXMessage resultMessage = (VertXMessage) result.body();
-    
+    released(resultMessage, false);
+    recordTimings(resultMessage);
+    SplitTracker split = splitParts.remove(resultMessage.getAdaptrisMessage().getUniqueId());
+    if (split != null) {
+      consumerQueue.remove(resultMessage);
+      if (split.replied(resultMessage.getAdaptrisMessage().getUniqueId(), resultMessage)) {
+        reassemble(split);
+      }
+      return;
+    }
+    completeReply(resultMessage);
+  }
+
+  /**
+   * @param dropped whether the message failed or expired, rather than being answered.
+   */
+  private void released(VertXMessage message, boolean dropped) {
+    if (tenantQueue() != null) {
+      tenantQueue().released(message.getAdaptrisMessage().getUniqueId());
+    }
+    if (limiter != null) {
+      limiter.released(message.getAdaptrisMessage().getUniqueId(), dropped);
+    }
+  }
+
+  private void recordTimings(VertXMessage reply) {
+    HopTimings timings = HopTimings.of(reply);
+    if (timings == null) {
+      return;
+    }
+    timings.record(statistics);
+    if (getSlowMessageThreshold() != null
+        && timings.totalNanos() > TimeUnit.MILLISECONDS.toNanos(getSlowMessageThreshold().toMilliseconds())) {
+      log.warn("Message [{}] was slow: {}", reply.getAdaptrisMessage().getUniqueId(), timings);
+    }
+  }
+
+  private void reassemble(SplitTracker split) {
+    VertXMessage resultMessage;
+    try {
+      resultMessage = aggregate(split.original(), split.replies(), getSplitPolicy().getMessageAggregator());
+    } catch (CoreException e) {
+      log.error("Cannot join the parts of [{}]", split.original().getUniqueId(), e);
+      failSplit(split.original(), e);
+      return;
+    }
+    completeReply(resultMessage);
+  }
+
+  private void failSplit(AdaptrisMessage original, Exception cause) {
+    skipReply(original.getUniqueId());
+    moveObjectMetadata(original);
+    handleBadMessage("Part of the message failed in the cluster", cause, original);
+  }
+
+  @Override
+  public void handleGatheredReplies(VertXMessage message, List<VertXMessage> replies) {
+    released(message, false);
+    VertXMessage resultMessage;
+    try {
+      resultMessage = aggregate(getVertXMessageTranslator().translate(message), replies,
+          getGatherPolicy().getMessageAggregator());
+    } catch (CoreException e) {
+      log.error("Cannot aggregate the replies for [{}]", message.getAdaptrisMessage().getUniqueId(), e);
+      handleMessageFailure(message, e);
+      return;
+    }
+    completeReply(resultMessage);
+  }
+
+  /**
+   * Combine the replies into the original message; the service records of every reply are kept, so if any of them failed the
+   * message-error-handler runs.
+   */
+  private VertXMessage aggregate(AdaptrisMessage original, List<VertXMessage> replies, MessageAggregator aggregator)
+      throws CoreException {
+    List<AdaptrisMessage> gathered = new ArrayList<>();
+    ServiceRecord serviceRecord = new ServiceRecord();
+    for (VertXMessage reply : replies) {
+      gathered.add(getVertXMessageTranslator().translate(reply));
+      reply.getServiceRecord().getServices().forEach(serviceRecord::addService);
+    }
+    aggregator.aggregate(original, gathered);
+    VertXMessage result = getVertXMessageTranslator().translate(original);
+    result.setServiceRecord(serviceRecord);
+    return result;
+  }
+
+  private void completeReply(VertXMessage resultMessage) {
+    if (reorderBuffer != null) {
+      reorderBuffer.complete(resultMessage.getAdaptrisMessage().getUniqueId(), resultMessage, this::processReply,
+          this::lateReply);
+    } else {
+      processReply(resultMessage);
+    }
+  }
+
+  private void skipReply(String messageId) {
+    if (reorderBuffer != null) {
+      reorderBuffer.skip(messageId, this::processReply);
+    }
+  }
+
+  /**
+   * A reply that arrived after later messages in its sequence were released; producing it now would break the ordering.
+   */
+  private void lateReply(VertXMessage resultMessage) {
+    consumerQueue.remove(resultMessage);
+    try {
+      AdaptrisMessage adaptrisMessage = getVertXMessageTranslator().translate(resultMessage);
+      moveObjectMetadata(adaptrisMessage);
+      handleBadMessage("Reply arrived after later messages in its sequence were released",
+          new CoreException("Reply arrived after its place in the sequence was given up"), adaptrisMessage);
+    } catch (CoreException e) {
+      log.error("Cannot translate the reply message back to an AdaptrisMessage", e);
+    }
+  }
+
+  private void processReply(VertXMessage resultMessage) {
     AdaptrisMessage adaptrisMessage;
     try {
       adaptrisMessage = getVertXMessageTranslator().translate(resultMessage);
@@ -331,9 +1090,12 @@ public class VertxWorkflow extends StandardWorkflowImpl
     
     boolean handleError = false;
     for(InterlokService service : resultMessage.getServiceRecord().getServices()) {
-      if(service.getState().equals(ServiceState.ERROR)) {
+      if(service.getState().equals(ServiceState.ERROR) || service.getState().equals(ServiceState.EXPIRED)) {
         handleError = true;
         handleBadMessage("Exception from ServiceCollection", service.getException(), adaptrisMessage);
+        if (service.getState().equals(ServiceState.EXPIRED)) {
+          break;
+        }
       }
     }
     
@@ -341,20 +1103,52 @@ public class VertxWorkflow extends StandardWorkflowImpl
       try {
         doProduce(adaptrisMessage);
         logSuccess(adaptrisMessage, resultMessage.getStartProcessingTime());
+        ListenerCallbackHelper.handleSuccessCallback(adaptrisMessage);
       } catch (Exception e) {
         adaptrisMessage.addEvent(getProducer(), false); // generate event
         handleBadMessage("Exception producing msg", e, adaptrisMessage);
         handleProduceException();
       } finally {
         sendMessageLifecycleEvent(adaptrisMessage);
-        consumerQueue.remove(resultMessage); // unblock the consumer, now that we have completed a message. 
       }
       workflowEnd(adaptrisMessage, adaptrisMessage);
     }
+    consumerQueue.remove(resultMessage); // unblock the consumer, now that we have completed a message.
+  }
+
+  @Override
+  public void handleMessageFailure(VertXMessage message, Throwable cause) {
+    consumerQueue.remove(message); // don't wait for it to expire, nobody is going to reply.
+    released(message, true);
+    if (partFailed(message, cause)) {
+      return;
+    }
+    skipReply(message.getAdaptrisMessage().getUniqueId());
+    try {
+      AdaptrisMessage adaptrisMessage = getVertXMessageTranslator().translate(message);
+      moveObjectMetadata(adaptrisMessage);
+      handleBadMessage("No reply from the cluster", cause instanceof Exception ? (Exception) cause : new CoreException(cause),
+          adaptrisMessage);
+    } catch (CoreException e) {
+      log.error("Cannot translate the failed message back to an AdaptrisMessage", e);
+    } finally {
+      objectMetadataCache.remove(message.getAdaptrisMessage().getUniqueId());
+    }
+  }
+
+  private boolean partFailed(VertXMessage part, Throwable cause) {
+    SplitTracker split = splitParts.remove(part.getAdaptrisMessage().getUniqueId());
+    if (split == null) {
+      return false;
+    }
+    if (split.failed()) {
+      failSplit(split.original(), cause instanceof Exception ? (Exception) cause : new CoreException(cause));
+    }
+    return true;
   }
 
   private void moveObjectMetadata(AdaptrisMessage adaptrisMessage) {
-    Map<Object, Object> cachedObjectMetadata = objectMetadataCache.get(adaptrisMessage.getUniqueId());
+    Map<Object, Object> cachedObjectMetadata = objectMetadataCache.remove(adaptrisMessage.getUniqueId());
     if(cachedObjectMetadata != null) {
       for (Map.Entry<Object, Object> entry : cachedObjectMetadata.entrySet()) {
         adaptrisMessage.addObjectHeader(entry.getKey(), entry.getValue());
@@ -364,36 +1158,80 @@ public class VertxWorkflow extends StandardWorkflowImpl
 
   @Override
   public void handle(Message<VertXMessage> event) {
-    this.getExecutorService().submit(new Runnable() {
+    ExecutorService executor = lanePools != null
+        ? lanePools[getPriorityLanes().level(VertxHeaders.priority(event))]
+        : getExecutorService();
+    if (getLoadShedding() != null && getLoadShedding().overloaded(executor, stripeBacklog())) {
+      log.debug("Rejecting message [{}], too busy; {} messages rejected so far", VertxHeaders.messageId(event),
+          statistics.messageRejected());
+      FailureCode.OVERLOADED.fail(getClusteredEventBus().getEventBus(), event, "Too many messages waiting to be processed");
+      return;
+    }
+    long received = System.nanoTime();
+    dispatch(event, executor, new Runnable() {
       
       @Override
       public void run() {
-        onVertxMessage(event);
+        onVertxMessage(event, received);
+        if (pullDispatcher != null) {
+          pullDispatcher.pullAgain(VertxHeaders.pullFrom(event));
+        }
       }
     });
   }
   
   @Override
   public void itemExpired(VertXMessage item) {
-    log.warn("Expecting message reply, but message has timed out: {}", item);
+    log.warn("Expecting message reply, but message has timed out; {} replies given up on so far: {}",
+        statistics.replyExpired(), item);
+    released(item, true);
+    if (partFailed(item, new CoreException("No reply before the item-expiry-timeout"))) {
+      return;
+    }
     objectMetadataCache.remove(item.getAdaptrisMessage().getUniqueId());
+    skipReply(item.getAdaptrisMessage().getUniqueId());
   }
   
   @Override
   protected void stopWorkflow() {
     super.stopWorkflow();
+    if (metricsServer != null) {
+      metricsServer.stop();
+      metricsServer = null;
+    }
+    if (pullDispatcher != null) {
+      pullDispatcher.stop();
+      pullDispatcher = null;
+    }
     if(messageExecutorHandle != null) {
       messageExecutorHandle.cancel(false);
     }
+    getClusteredEventBus().stopClusteredConsumer();
     if(getClusteredEventBus().getEventBus() != null) {
       getClusteredEventBus().getEventBus().consumer(getUniqueId()).unregister();
     }
+    if (servicePool != null) {
+      servicePool.stop();
+    }
   }
   
   @Override
   protected void closeWorkflow() {
     super.closeWorkflow();
+    componentStatistics.unregister();
     ManagedThreadFactory.shutdownQuietly(this.getExecutorService(), 30000l);
+    if (lanePools != null) {
+      for (WorkerPool pool : lanePools) {
+        ManagedThreadFactory.shutdownQuietly(pool, 30000l);
+      }
+    }
+    if (parallelExecutor != null) {
+      ManagedThreadFactory.shutdownQuietly(parallelExecutor, 30000l);
+      parallelExecutor = null;
+    }
+    if (servicePool != null) {
+      servicePool.close();
+    }
     
     if(messageExecutorHandle != null) {
       if(!messageExecutorHandle.isCancelled()) {
@@ -501,11 +1339,11 @@ public class VertxWorkflow extends StandardWorkflowImpl
     this.clusteredEventBus = clusteredEventBus;
   }
 
-  ArrayBlockingQueue<VertXMessage> getProcessingQueue() {
+  BlockingQueue<VertXMessage> getProcessingQueue() {
     return processingQueue;
   }
 
-  void setProcessingQueue(ArrayBlockingQueue<VertXMessage> processingQueue) {
+  void setProcessingQueue(BlockingQueue<VertXMessage> processingQueue) {
     this.processingQueue = processingQueue;
   }
 
@@ -521,6 +1359,320 @@ public class VertxWorkflow extends StandardWorkflowImpl
     return getItemExpiryTimeout() != null ? getItemExpiryTimeout() : DEFAULT_ITEM_EXPIRY;
   }
 
+  long itemExpiryTimeout(AdaptrisMessage msg) {
+    if (!isEmpty(getItemExpiryMetadataKey()) && msg.headersContainsKey(getItemExpiryMetadataKey())) {
+      String value = msg.getMetadataValue(getItemExpiryMetadataKey());
+      try {
+        return Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        log.warn("Ignoring invalid expiry [{}] in metadata key [{}]", value, getItemExpiryMetadataKey());
+      }
+    }
+    return itemExpiryTimeout().toMilliseconds();
+  }
+
+  public String getItemExpiryMetadataKey() {
+    return itemExpiryMetadataKey;
+  }
+
+  /**
+   * Set the metadata key that overrides the item expiry timeout for an individual message.
+   * <p>
+   * Every message is given an absolute deadline when it is consumed; the item expiry timeout (or the number of milliseconds in this
+   * metadata key, if present) after it was consumed. Cluster members check this deadline before and between services, and skip
+   * any work once the deadline has passed, since nobody is waiting for the result anymore. Since the deadline is an absolute
+   * time, this relies on the clocks of cluster members being reasonably in sync.
+   * </p>
+   * 
+   * @param key the metadata key, whose value is a timeout in milliseconds.
+   */
+  public void setItemExpiryMetadataKey(String key) {
+    this.itemExpiryMetadataKey = key;
+  }
+
+  public LoadShedding getLoadShedding() {
+    return loadShedding;
+  }
+
+  /**
+   * Set the policy for rejecting messages from the cluster when this instance is saturated.
+   * 
+   * @param loadShedding the policy; if not configured, messages are always queued until a worker thread is free.
+   */
+  public void setLoadShedding(LoadShedding loadShedding) {
+    this.loadShedding = loadShedding;
+  }
+
+  public Boolean getPooledServices() {
+    return pooledServices;
+  }
+
+  /**
+   * Run each worker thread on its own copy of the service-list.
+   * <p>
+   * Many services are not thread-safe, and by default every worker thread shares the same service-list. If this is true, then
+   * there is an independent instance of the service-list for each worker thread (max-threads, or the total across the priority
+   * lanes if configured), and each message is processed by an instance that no other thread is using. The configured service-list
+   * is one of them; the rest are copies made through the default marshaller, each with its own lifecycle.
+   * </p>
+   * 
+   * @param b true to pool copies of the service-list; default false.
+   */
+  public void setPooledServices(Boolean b) {
+    this.pooledServices = b;
+  }
+
+  boolean pooledServices() {
+    return getPooledServices() != null ? getPooledServices() : false;
+  }
+
+  public StripedExecution getStripedExecution() {
+    return stripedExecution;
+  }
+
+  /**
+   * Process messages received from the cluster with the same key in the order they arrived.
+   * 
+   * <p>
+   * Cannot be used together with priority lanes.
+   * </p>
+   * 
+   * @param stripedExecution the striping; if not configured, received messages are processed in parallel in no particular order.
+   */
+  public void setStripedExecution(StripedExecution stripedExecution) {
+    this.stripedExecution = stripedExecution;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Set how messages that get no reply from the cluster are retried.
+   * 
+   * @param retryPolicy the policy; if not configured, a message that gets no reply is handed straight to the message error
+   *          handler.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  public HedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  /**
+   * Set the policy for sending duplicates of slow messages to another member of the cluster.
+   * <p>
+   * Only configure this if the services run by the target are idempotent.
+   * </p>
+   * 
+   * @param hedgingPolicy the policy; if not configured, messages are never duplicated.
+   */
+  public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+    this.hedgingPolicy = hedgingPolicy;
+  }
+
+  public DeliveryProperties getDeliveryProperties() {
+    return deliveryProperties;
+  }
+
+  /**
+   * Set the Vertx delivery options used when sending messages to the cluster.
+   * 
+   * @param deliveryProperties the options; if not configured, the Vertx defaults are used.
+   */
+  public void setDeliveryProperties(DeliveryProperties deliveryProperties) {
+    this.deliveryProperties = deliveryProperties;
+  }
+
+  public RateLimit getRateLimit() {
+    return rateLimit;
+  }
+
+  /**
+   * Limit the rate that messages are sent to each target.
+   * 
+   * @param rateLimit the rate limit; if not configured, messages are sent as fast as they arrive.
+   */
+  public void setRateLimit(RateLimit rateLimit) {
+    this.rateLimit = rateLimit;
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Fail messages straight away, rather than sending them, while their target is failing.
+   * 
+   * @param circuitBreaker the circuit breaker; if not configured, every message is sent and waits for its reply.
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  public ReplyOrdering getReplyOrdering() {
+    return replyOrdering;
+  }
+
+  /**
+   * Produce replies in the order the messages were consumed.
+   * <p>
+   * Only applies to the "single" and "gather" target send modes.
+   * </p>
+   * 
+   * @param replyOrdering the ordering; if not configured, replies are produced as soon as they arrive.
+   */
+  public void setReplyOrdering(ReplyOrdering replyOrdering) {
+    this.replyOrdering = replyOrdering;
+  }
+
+  public ParallelExecution getParallelExecution() {
+    return parallelExecution;
+  }
+
+  /**
+   * Run groups of independent services at the same time.
+   * 
+   * @param parallelExecution the stages; if not configured, services are run one after another.
+   */
+  public void setParallelExecution(ParallelExecution parallelExecution) {
+    this.parallelExecution = parallelExecution;
+  }
+
+  public GatherPolicy getGatherPolicy() {
+    return gatherPolicy;
+  }
+
+  /**
+   * How to collect and combine the replies with the "GATHER" target send mode.
+   * 
+   * @param gatherPolicy the policy; required with the "GATHER" target send mode, ignored otherwise.
+   */
+  public void setGatherPolicy(GatherPolicy gatherPolicy) {
+    this.gatherPolicy = gatherPolicy;
+  }
+
+  public SplitPolicy getSplitPolicy() {
+    return splitPolicy;
+  }
+
+  /**
+   * Split each consumed message so the cluster processes the parts in parallel.
+   * <p>
+   * Only applies to the "single" target send mode.
+   * </p>
+   * 
+   * @param splitPolicy the policy; if not configured, each message is sent whole.
+   */
+  public void setSplitPolicy(SplitPolicy splitPolicy) {
+    this.splitPolicy = splitPolicy;
+  }
+
+  public PullDispatch getPullDispatch() {
+    return pullDispatch;
+  }
+
+  /**
+   * Let the members of the cluster pull messages when they have free worker threads, rather than pushing messages to them.
+   * <p>
+   * Only applies to the "single" target send mode, and needs to be configured on both the sending and the receiving workflows.
+   * Cannot be used together with priority lanes, or with tenant fairness.
+   * </p>
+   * 
+   * @param pullDispatch the pull configuration; if not configured, each message is pushed to a member chosen by vertx.
+   */
+  public void setPullDispatch(PullDispatch pullDispatch) {
+    this.pullDispatch = pullDispatch;
+  }
+
+  public PriorityLanes getPriorityLanes() {
+    return priorityLanes;
+  }
+
+  /**
+   * Queue and process messages by priority, so that urgent messages don't wait behind bulk loads.
+   * <p>
+   * Cannot be used together with tenant fairness, pull dispatch or striped execution.
+   * </p>
+   * 
+   * @param priorityLanes the priority levels; if not configured, messages are sent and processed in the order they arrive.
+   */
+  public void setPriorityLanes(PriorityLanes priorityLanes) {
+    this.priorityLanes = priorityLanes;
+  }
+
+  public TenantFairness getTenantFairness() {
+    return tenantFairness;
+  }
+
+  /**
+   * Share the workflow fairly between tenants, so that a burst from one of them doesn't hold up everyone else.
+   * <p>
+   * Cannot be used together with priority lanes, or with pull dispatch.
+   * </p>
+   * 
+   * @param tenantFairness the tenant configuration; if not configured, messages are sent in the order they arrive.
+   */
+  public void setTenantFairness(TenantFairness tenantFairness) {
+    this.tenantFairness = tenantFairness;
+  }
+
+  public AdaptiveConcurrency getAdaptiveConcurrency() {
+    return adaptiveConcurrency;
+  }
+
+  /**
+   * Adapt how many messages may be waiting for a reply to how long the replies take, rather than always allowing up to the
+   * queue-capacity.
+   * <p>
+   * Only applies to the "single" target send mode.
+   * </p>
+   * 
+   * @param adaptiveConcurrency the adaptive limit; if not configured, up to queue-capacity messages may be waiting for a reply.
+   */
+  public void setAdaptiveConcurrency(AdaptiveConcurrency adaptiveConcurrency) {
+    this.adaptiveConcurrency = adaptiveConcurrency;
+  }
+
+  public TimeInterval getSlowMessageThreshold() {
+    return slowMessageThreshold;
+  }
+
+  /**
+   * Set how long a message may take, from being queued to its reply arriving, before where the time went is logged.
+   * <p>
+   * The time spent on the receiving node, and in each of its services, is only known if the binary wire format is used.
+   * </p>
+   * 
+   * @param t the threshold; if not configured, nothing is logged.
+   */
+  public void setSlowMessageThreshold(TimeInterval t) {
+    this.slowMessageThreshold = t;
+  }
+
+  public MetricsEndpoint getMetricsEndpoint() {
+    return metricsEndpoint;
+  }
+
+  /**
+   * Serve the statistics of every clustered workflow and service in the JVM over HTTP, for Prometheus to scrape.
+   * 
+   * @param metricsEndpoint the endpoint; if not configured, the statistics are only published over JMX.
+   */
+  public void setMetricsEndpoint(MetricsEndpoint metricsEndpoint) {
+    this.metricsEndpoint = metricsEndpoint;
+  }
+
+  ClusterStatistics statistics() {
+    return statistics;
+  }
+
+  VertxComponentStatistics componentStatistics() {
+    return componentStatistics;
+  }
+
   ExecutorService getExecutorService() {
     return executorService;
   }
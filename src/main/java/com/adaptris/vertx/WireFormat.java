@@ -0,0 +1,37 @@
+package com.adaptris.vertx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A serialization format for a {@link VertXMessage} as it travels across the cluster.
+ * <p>
+ * Each format is identified by a single byte id, and carries a version so that a format can evolve while still being able to
+ * read frames written by older nodes.
+ * </p>
+ * 
+ * @see AdaptrisMessageCodec
+ */
+interface WireFormat {
+
+  /**
+   * The unique id of this format on the wire.
+   */
+  byte id();
+
+  /**
+   * The version of the format that will be written by {@link #write(VertXMessage, OutputStream)}.
+   */
+  byte version();
+
+  void write(VertXMessage message, OutputStream out) throws IOException;
+
+  /**
+   * Read a message.
+   * 
+   * @param in the input.
+   * @param version the version of the format that the message was written with.
+   */
+  VertXMessage read(InputStream in, byte version) throws IOException;
+}
@@ -0,0 +1,151 @@
+package com.adaptris.vertx;
+
+import static com.adaptris.vertx.AdaptrisMessageCodec.XSTREAM_JSON;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.shareddata.AsyncMap;
+import io.vertx.core.spi.cluster.ClusterManager;
+
+/**
+ * Works out which {@link WireFormat} to use when sending to a given cluster address.
+ * <p>
+ * Every node advertises the wire formats it supports, for each address it consumes, in a cluster wide map. The format used for
+ * an address is the most preferred format that every advertising consumer of that address supports. If any node in the cluster
+ * has not advertised anything at all (e.g. it is running an older version of this component) then we can't tell what it consumes,
+ * so everything falls back to XStream JSON until it is upgraded.
+ * </p>
+ */
+class WireFormatNegotiator {
+
+  static final String WIRE_FORMAT_MAP = "interlok-vertx-wire-formats";
+
+  private static final long REFRESH_INTERVAL_MS = 5000L;
+
+  private static final String KEY_SEPARATOR = "|";
+
+  private static final String FORMAT_SEPARATOR = ",";
+
+  private transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private final Vertx vertx;
+
+  private final ClusterManager clusterManager;
+
+  private final List<Byte> supportedFormats;
+
+  private volatile Map<String, Byte> negotiated = Collections.emptyMap();
+
+  private String advertisedKey;
+
+  private long refreshTimer = -1;
+
+  WireFormatNegotiator(Vertx vertx, List<Byte> supportedFormats) {
+    this.vertx = vertx;
+    this.clusterManager = vertx instanceof VertxInternal ? ((VertxInternal) vertx).getClusterManager() : null;
+    this.supportedFormats = supportedFormats;
+  }
+
+  /**
+   * Advertise our supported formats for the address, and start tracking what the rest of the cluster supports.
+   */
+  void advertise(String address) {
+    if (clusterManager == null) {
+      return;
+    }
+    advertisedKey = clusterManager.getNodeId() + KEY_SEPARATOR + address;
+    String formats = supportedFormats.stream().map(String::valueOf).collect(Collectors.joining(FORMAT_SEPARATOR));
+    vertx.sharedData().<String, String>getAsyncMap(WIRE_FORMAT_MAP)
+        .compose(map -> map.put(advertisedKey, formats))
+        .onComplete(result -> {
+          if (result.failed()) {
+            log.warn("Failed to advertise wire formats for [{}]; falling back to XStream JSON", address, result.cause());
+          }
+          refresh();
+        });
+    refreshTimer = vertx.setPeriodic(REFRESH_INTERVAL_MS, id -> refresh());
+  }
+
+  /**
+   * Remove our advertisement and stop tracking the cluster.
+   */
+  void withdraw() {
+    if (refreshTimer != -1) {
+      vertx.cancelTimer(refreshTimer);
+      refreshTimer = -1;
+    }
+    if (advertisedKey != null) {
+      String key = advertisedKey;
+      vertx.sharedData().<String, String>getAsyncMap(WIRE_FORMAT_MAP).compose(map -> map.remove(key));
+      advertisedKey = null;
+    }
+    negotiated = Collections.emptyMap();
+  }
+
+  /**
+   * The wire format to use when sending to the address.
+   */
+  byte formatFor(String address) {
+    return negotiated.getOrDefault(address, XSTREAM_JSON);
+  }
+
+  private void refresh() {
+    vertx.sharedData().<String, String>getAsyncMap(WIRE_FORMAT_MAP)
+        .compose(AsyncMap::entries)
+        .onSuccess(entries -> negotiated = resolve(entries, clusterManager.getNodes(), supportedFormats))
+        .onFailure(e -> log.trace("Failed to refresh wire formats", e));
+  }
+
+  static Map<String, Byte> resolve(Map<String, String> adverts, Collection<String> clusterNodes, List<Byte> preference) {
+    Set<String> advertisingNodes = new HashSet<>();
+    Map<String, Set<Byte>> supportedByAddress = new HashMap<>();
+    for (Map.Entry<String, String> advert : adverts.entrySet()) {
+      String node = StringUtils.substringBefore(advert.getKey(), KEY_SEPARATOR);
+      if (!clusterNodes.contains(node)) {
+        // node has left the cluster without withdrawing.
+        continue;
+      }
+      advertisingNodes.add(node);
+      String address = StringUtils.substringAfter(advert.getKey(), KEY_SEPARATOR);
+      Set<Byte> formats = parse(advert.getValue());
+      supportedByAddress.merge(address, formats, (a, b) -> {
+        a.retainAll(b);
+        return a;
+      });
+    }
+    if (!advertisingNodes.containsAll(clusterNodes)) {
+      return Collections.emptyMap();
+    }
+    Map<String, Byte> result = new HashMap<>();
+    for (Map.Entry<String, Set<Byte>> entry : supportedByAddress.entrySet()) {
+      byte chosen = preference.stream().filter(entry.getValue()::contains).findFirst().orElse(XSTREAM_JSON);
+      result.put(entry.getKey(), chosen);
+    }
+    return result;
+  }
+
+  private static Set<Byte> parse(String formats) {
+    Set<Byte> result = new HashSet<>();
+    for (String s : StringUtils.split(StringUtils.defaultString(formats), FORMAT_SEPARATOR)) {
+      try {
+        result.add(Byte.valueOf(s.trim()));
+      } catch (NumberFormatException e) {
+        // a format we don't understand.
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,61 @@
+package com.adaptris.vertx;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pool of worker threads that process messages received from the cluster.
+ * <p>
+ * Unlike a plain {@link ThreadPoolExecutor} with an unbounded queue (which never grows beyond its core size), this pool really
+ * does run up to {@code maxThreads} messages at once. It also keeps track of how long messages wait in its queue before a
+ * worker picks them up, so that receivers can tell when they are saturated.
+ * </p>
+ */
+class WorkerPool extends ThreadPoolExecutor {
+
+  // weight of each new sample in the moving average.
+  private static final int SMOOTHING = 5;
+
+  private volatile long averageQueueWaitNanos;
+
+  WorkerPool(int maxThreads) {
+    super(maxThreads, maxThreads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+    allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    final long enqueued = System.nanoTime();
+    super.execute(() -> {
+      recordQueueWait(System.nanoTime() - enqueued);
+      command.run();
+    });
+  }
+
+  private void recordQueueWait(long nanos) {
+    long average = averageQueueWaitNanos;
+    averageQueueWaitNanos = average + (nanos - average) / SMOOTHING;
+  }
+
+  /**
+   * The number of messages waiting for a worker thread.
+   */
+  int pending() {
+    return getQueue().size();
+  }
+
+  /**
+   * The number of messages that could be started straight away.
+   */
+  int freeSlots() {
+    return Math.max(0, getMaximumPoolSize() - getActiveCount() - pending());
+  }
+
+  /**
+   * The moving average of the time messages have recently spent waiting for a worker thread.
+   */
+  long queueWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(averageQueueWaitNanos);
+  }
+}
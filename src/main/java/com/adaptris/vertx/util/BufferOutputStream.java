@@ -0,0 +1,38 @@
+package com.adaptris.vertx.util;
+
+import java.io.OutputStream;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * <p>
+ * An {@link OutputStream} that appends everything written to it directly onto the end of a Vert.x {@link Buffer}.
+ * </p>
+ * <p>
+ * This allows marshallers to serialize straight into the event-bus wire buffer, rather than building an intermediate
+ * {@link String} and {@code byte[]} only to copy it again.
+ * </p>
+ *
+ */
+public class BufferOutputStream extends OutputStream {
+
+  private final Buffer buffer;
+
+  public BufferOutputStream(Buffer buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public void write(int b) {
+    buffer.appendByte((byte) b);
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    buffer.appendBytes(bytes, offset, length);
+  }
+
+  public Buffer getBuffer() {
+    return buffer;
+  }
+}
@@ -0,0 +1,93 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+  @Test
+  public void testBlocksAtLimit() throws Exception {
+    AdaptiveConcurrency config = new AdaptiveConcurrency();
+    config.setInitialLimit(2);
+    AdaptiveLimiter limiter = new AdaptiveLimiter(config, 10);
+    limiter.acquire("1");
+    limiter.acquire("2");
+
+    assertFalse(limiter.tryAcquire("3", 1, TimeUnit.MILLISECONDS));
+    limiter.released("1", false);
+    assertTrue(limiter.tryAcquire("3", 1, TimeUnit.MILLISECONDS));
+    assertEquals(2, limiter.inFlight());
+  }
+
+  @Test
+  public void testGradientGrowsWhileStable() throws Exception {
+    AdaptiveConcurrency config = new AdaptiveConcurrency();
+    config.setInitialLimit(4);
+    AdaptiveLimiter limiter = saturated(config, 100, 4);
+    for (int i = 0; i < 50; i++) {
+      limiter.sample(10);
+    }
+    assertTrue(limiter.limit() > 4);
+  }
+
+  @Test
+  public void testGradientCutsWhenLatencyClimbs() throws Exception {
+    AdaptiveConcurrency config = new AdaptiveConcurrency();
+    config.setInitialLimit(50);
+    AdaptiveLimiter limiter = saturated(config, 100, 50);
+    for (int i = 0; i < 20; i++) {
+      limiter.sample(10);
+    }
+    int stable = limiter.limit();
+    for (int i = 0; i < 20; i++) {
+      limiter.sample(100);
+    }
+    assertTrue(limiter.limit() < stable);
+  }
+
+  @Test
+  public void testAimd() throws Exception {
+    AdaptiveConcurrency config = new AdaptiveConcurrency(AdaptiveConcurrency.Algorithm.AIMD);
+    config.setInitialLimit(10);
+    config.setBackoffPercent(50);
+    AdaptiveLimiter limiter = saturated(config, 100, 10);
+    for (int i = 0; i < 100; i++) {
+      limiter.sample(10);
+    }
+    int grown = limiter.limit();
+    assertTrue(grown > 10);
+
+    limiter.sample(1000);
+    assertEquals(grown / 2, limiter.limit(), 1);
+    // not again straight away.
+    limiter.sample(1000);
+    assertEquals(grown / 2, limiter.limit(), 1);
+  }
+
+  @Test
+  public void testBounds() throws Exception {
+    AdaptiveConcurrency config = new AdaptiveConcurrency(AdaptiveConcurrency.Algorithm.AIMD);
+    config.setInitialLimit(100);
+    config.setMinLimit(2);
+    config.setBackoffPercent(10);
+    AdaptiveLimiter limiter = new AdaptiveLimiter(config, 5);
+    assertEquals(5, limiter.limit());
+
+    limiter.acquire("1");
+    limiter.released("1", true);
+    assertEquals(2, limiter.limit());
+  }
+
+  private static AdaptiveLimiter saturated(AdaptiveConcurrency config, int capacity, int inFlight) throws Exception {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(config, capacity);
+    for (int i = 0; i < inFlight; i++) {
+      limiter.acquire(String.valueOf(i));
+    }
+    return limiter;
+  }
+}
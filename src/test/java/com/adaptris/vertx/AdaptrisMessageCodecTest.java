@@ -0,0 +1,266 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.Test;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.SerializableAdaptrisMessage;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.reflection.SunUnsafeReflectionProvider;
+import com.thoughtworks.xstream.io.json.JettisonMappedXmlDriver;
+
+import io.vertx.core.buffer.Buffer;
+
+public class AdaptrisMessageCodecTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    VertXMessage decoded = codec.decodeFromWire(0, buffer);
+
+    assertNotNull(decoded);
+    assertEquals(message, decoded);
+    assertEquals("Hello World", decoded.getAdaptrisMessage().getContent());
+    assertEquals(message.getStartProcessingTime(), decoded.getStartProcessingTime());
+  }
+
+  @Test
+  public void testDecodeFromOffset() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+
+    // Simulate the event-bus headers that precede the body on the wire.
+    Buffer buffer = Buffer.buffer("some-leading-wire-header");
+    int pos = buffer.length();
+    codec.encodeToWire(buffer, message);
+    VertXMessage decoded = codec.decodeFromWire(pos, buffer);
+
+    assertEquals(message, decoded);
+    // The wire buffer must be left untouched.
+    assertEquals("some-leading-wire-header", buffer.getString(0, pos));
+  }
+
+  @Test
+  public void testBinaryRoundTrip() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+    message.getAdaptrisMessage().addMetadata("key", "value");
+    InterlokService failed = new InterlokService("service-2", ServiceState.ERROR);
+    failed.setException(new CoreException("failed"));
+    message.getServiceRecord().addService(failed);
+    message.setWireFormatId(BinaryWireFormat.ID);
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    assertEquals(AdaptrisMessageCodec.FRAME_MARKER, buffer.getByte(0));
+    assertEquals(BinaryWireFormat.ID, buffer.getByte(1));
+
+    VertXMessage decoded = codec.decodeFromWire(0, buffer);
+    assertEquals(message, decoded);
+    assertEquals(BinaryWireFormat.ID, decoded.getWireFormatId());
+    assertEquals("Hello World", decoded.getAdaptrisMessage().getContent());
+    assertEquals("value", decoded.getAdaptrisMessage().getMetadataValue("key"));
+    assertEquals(message.getStartProcessingTime(), decoded.getStartProcessingTime());
+    assertEquals(2, decoded.getServiceRecord().getServices().size());
+    assertEquals(ServiceState.ERROR, decoded.getServiceRecord().getServices().get(1).getState());
+    assertNotNull(decoded.getServiceRecord().getServices().get(1).getException());
+  }
+
+  @Test
+  public void testBinaryTimings() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+    ServiceRecord record = message.getServiceRecord();
+    record.setQueueWaitNanos(100);
+    record.setNodeId("node-1");
+    record.setReceivedAt(12345L);
+    record.setRemoteNanos(5000);
+    record.getServices().get(0).setStartNanos(1000);
+    record.getServices().get(0).setEndNanos(4000);
+    message.setWireFormatId(BinaryWireFormat.ID);
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    ServiceRecord decoded = codec.decodeFromWire(0, buffer).getServiceRecord();
+    assertEquals(100, decoded.getQueueWaitNanos());
+    assertEquals("node-1", decoded.getNodeId());
+    assertEquals(12345L, decoded.getReceivedAt());
+    assertEquals(5000, decoded.getRemoteNanos());
+    assertEquals(1000, decoded.getServices().get(0).getStartNanos());
+    assertEquals(4000, decoded.getServices().get(0).getEndNanos());
+  }
+
+  @Test
+  public void testBinaryWithoutTimings() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+    message.getServiceRecord().setRemoteNanos(5000);
+    message.setWireFormatId(BinaryWireFormat.ID);
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    // As written by a node that doesn't know about the timings; queue wait, node id, received at, remote, 1 service.
+    int timings = 8 + 4 + 8 + 8 + 16;
+    VertXMessage decoded = codec.decodeFromWire(0, buffer.getBuffer(0, buffer.length() - timings));
+    assertEquals(message, decoded);
+    assertEquals(1, decoded.getServiceRecord().getServices().size());
+    assertEquals(0, decoded.getServiceRecord().getRemoteNanos());
+  }
+
+  @Test
+  public void testXStreamDoesNotCarryTimings() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+    message.getServiceRecord().setNodeId("node-1");
+    message.getServiceRecord().setRemoteNanos(5000);
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    VertXMessage decoded = codec.decodeFromWire(0, buffer);
+    assertEquals(message, decoded);
+    assertNull(decoded.getServiceRecord().getNodeId());
+    assertEquals(0, decoded.getServiceRecord().getRemoteNanos());
+  }
+
+  @Test
+  public void testXStreamIsNotFramed() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    assertEquals('{', buffer.getByte(0));
+    assertEquals(AdaptrisMessageCodec.XSTREAM_JSON, codec.decodeFromWire(0, buffer).getWireFormatId());
+  }
+
+  @Test
+  public void testXStreamAlwaysHasServiceRecord() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = new VertXMessage(new SerializableAdaptrisMessage("id1", "Hello World"));
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    // As an earlier version would read it; without running any constructors.
+    XStream xstream = new XStream(new SunUnsafeReflectionProvider(), new JettisonMappedXmlDriver());
+    xstream.autodetectAnnotations(true);
+    xstream.processAnnotations(VertXMessage.class);
+    xstream.allowTypesByWildcard(new String[] {"com.adaptris.**"});
+    Object decoded = xstream.fromXML(buffer.toString());
+    assertNotNull(FieldUtils.readField(decoded, "serviceRecord", true));
+  }
+
+  @Test
+  public void testXStreamSendsExpiredAsError() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = new VertXMessage(new SerializableAdaptrisMessage("id1", "Hello World"));
+    InterlokService service = new InterlokService("service", ServiceState.EXPIRED);
+    message.getServiceRecord().addService(service);
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, message);
+    assertFalse(buffer.toString().contains(ServiceState.EXPIRED.name()));
+    InterlokService decoded = codec.decodeFromWire(0, buffer).getServiceRecord().getServices().get(0);
+    assertEquals(ServiceState.ERROR, decoded.getState());
+    assertNotNull(decoded.getException());
+    // left as it was.
+    assertEquals(ServiceState.EXPIRED, service.getState());
+    assertNull(service.getException());
+  }
+
+  @Test
+  public void testDecodeUnknownFormat() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    Buffer buffer = Buffer.buffer().appendByte(AdaptrisMessageCodec.FRAME_MARKER).appendByte((byte) 99).appendByte((byte) 1);
+    assertNull(codec.decodeFromWire(0, buffer));
+  }
+
+  @Test
+  public void testDecodeGarbage() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    assertNull(codec.decodeFromWire(0, Buffer.buffer("this-is-not-a-message")));
+  }
+
+  @Test
+  public void testTransform() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+    assertSame(message, codec.transform(message));
+    assertEquals(-1, codec.systemCodecID());
+    assertNotNull(codec.name());
+  }
+
+  @Test
+  public void testBinarySmallerThanXStream() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+    message.getAdaptrisMessage().addMetadata("key", "value");
+
+    Buffer xstream = Buffer.buffer();
+    codec.encodeToWire(xstream, message);
+    message.setWireFormatId(BinaryWireFormat.ID);
+    Buffer binary = Buffer.buffer();
+    codec.encodeToWire(binary, message);
+    assertTrue(binary.length() < xstream.length());
+    assertEquals(xstream.length() + binary.length(), codec.statistics().getEncodedBytes());
+  }
+
+  @Test
+  public void testBinaryDecodeAllocatesLessThanXStream() throws Exception {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = createMessage();
+    Buffer xstream = Buffer.buffer();
+    codec.encodeToWire(xstream, message);
+    message.setWireFormatId(BinaryWireFormat.ID);
+    Buffer binary = Buffer.buffer();
+    codec.encodeToWire(binary, message);
+    // warm up, so that class loading isn't counted.
+    codec.decodeFromWire(0, xstream);
+    codec.decodeFromWire(0, binary);
+
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    codec.decodeFromWire(0, xstream);
+    long xstreamBytes = threads.getThreadAllocatedBytes(thread) - before;
+    before = threads.getThreadAllocatedBytes(thread);
+    codec.decodeFromWire(0, binary);
+    long binaryBytes = threads.getThreadAllocatedBytes(thread) - before;
+    assertTrue(binaryBytes < xstreamBytes);
+  }
+
+  @Test
+  public void testPassThroughLeavesMessageAlone() throws Exception {
+    AdaptrisMessageCodec codec = new AdaptrisMessageCodec();
+    VertXMessage message = spy(createMessage());
+    assertSame(message, codec.transform(message));
+    verify(message, never()).getAdaptrisMessage();
+    verify(message, never()).getServiceRecord();
+  }
+
+  private VertXMessage createMessage() {
+    VertXMessage message = new VertXMessage(new SerializableAdaptrisMessage("id1", "Hello World"));
+    message.setStartProcessingTime(System.currentTimeMillis());
+    message.getServiceRecord().addService(new InterlokService("service-1", ServiceState.COMPLETE));
+    return message;
+  }
+}
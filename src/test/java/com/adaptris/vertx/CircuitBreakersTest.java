@@ -0,0 +1,133 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.adaptris.util.TimeInterval;
+
+public class CircuitBreakersTest {
+
+  private static final String TARGET = "target";
+
+  private ClusterStatistics statistics;
+
+  private CircuitBreaker config;
+
+  private final AtomicLong clock = new AtomicLong(1);
+
+  @Before
+  public void setUp() throws Exception {
+    statistics = new ClusterStatistics();
+    config = new CircuitBreaker();
+    config.setMinimumCalls(4);
+    config.setWindowSize(4);
+    config.setHalfOpenProbes(2);
+    config.setOpenDuration(new TimeInterval(50L, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testOpensOnFailureRate() throws Exception {
+    CircuitBreakers breakers = breakers();
+    calls(breakers, true, true, false);
+    assertEquals(CircuitBreakers.State.CLOSED, breakers.state(TARGET));
+
+    calls(breakers, false);
+    assertEquals(CircuitBreakers.State.OPEN, breakers.state(TARGET));
+    assertEquals(CircuitBreakers.REJECTED, breakers.allow(TARGET));
+    assertEquals(1, statistics.getCircuitsOpened());
+    assertEquals(1, statistics.getCircuitRejected());
+  }
+
+  @Test
+  public void testOpensOnSlowCallRate() throws Exception {
+    config.setSlowCallDuration(new TimeInterval(100L, TimeUnit.MILLISECONDS));
+    config.setSlowCallRatePercent(50);
+    CircuitBreakers breakers = breakers();
+    for (int i = 0; i < 4; i++) {
+      long ticket = breakers.allow(TARGET);
+      assertNotEquals(CircuitBreakers.REJECTED, ticket);
+      breakers.record(TARGET, ticket, true, i % 2 == 0 ? 10 : 500);
+    }
+    assertEquals(CircuitBreakers.State.OPEN, breakers.state(TARGET));
+  }
+
+  @Test
+  public void testHalfOpenProbesClose() throws Exception {
+    CircuitBreakers breakers = breakers();
+    calls(breakers, false, false, false, false);
+    elapse(60);
+
+    long first = breakers.allow(TARGET);
+    long second = breakers.allow(TARGET);
+    assertNotEquals(CircuitBreakers.REJECTED, first);
+    assertNotEquals(CircuitBreakers.REJECTED, second);
+    assertEquals(CircuitBreakers.REJECTED, breakers.allow(TARGET));
+    assertEquals(CircuitBreakers.State.HALF_OPEN, breakers.state(TARGET));
+    breakers.record(TARGET, first, true, 1);
+    breakers.record(TARGET, second, true, 1);
+
+    assertEquals(CircuitBreakers.State.CLOSED, breakers.state(TARGET));
+    assertEquals(1, statistics.getCircuitsHalfOpened());
+    assertEquals(1, statistics.getCircuitsClosed());
+  }
+
+  @Test
+  public void testHalfOpenProbeFails() throws Exception {
+    CircuitBreakers breakers = breakers();
+    calls(breakers, false, false, false, false);
+    elapse(60);
+
+    long probe = breakers.allow(TARGET);
+    assertNotEquals(CircuitBreakers.REJECTED, probe);
+    breakers.record(TARGET, probe, false, 1);
+
+    assertEquals(CircuitBreakers.State.OPEN, breakers.state(TARGET));
+    assertEquals(2, statistics.getCircuitsOpened());
+    assertEquals(CircuitBreakers.REJECTED, breakers.allow(TARGET));
+  }
+
+  @Test
+  public void testOutcomesFromBeforeHalfOpenAreNotProbes() throws Exception {
+    CircuitBreakers breakers = breakers();
+    long early = breakers.allow(TARGET);
+    long late = breakers.allow(TARGET);
+    calls(breakers, false, false, false, false);
+    assertEquals(CircuitBreakers.State.OPEN, breakers.state(TARGET));
+    elapse(60);
+    long probe = breakers.allow(TARGET);
+    assertEquals(CircuitBreakers.State.HALF_OPEN, breakers.state(TARGET));
+
+    // sent while the circuit was closed, answered now.
+    breakers.record(TARGET, early, true, 1);
+    breakers.record(TARGET, late, false, 1);
+    assertEquals(CircuitBreakers.State.HALF_OPEN, breakers.state(TARGET));
+    assertEquals(1, statistics.getCircuitsOpened());
+
+    breakers.record(TARGET, probe, true, 1);
+    breakers.record(TARGET, breakers.allow(TARGET), true, 1);
+    assertEquals(CircuitBreakers.State.CLOSED, breakers.state(TARGET));
+  }
+
+  private CircuitBreakers breakers() {
+    return new CircuitBreakers(config, () -> statistics, clock::get);
+  }
+
+  private void elapse(long ms) {
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+  }
+
+  private static void calls(CircuitBreakers breakers, boolean... outcomes) {
+    for (boolean succeeded : outcomes) {
+      long ticket = breakers.allow(TARGET);
+      assertTrue(ticket != CircuitBreakers.REJECTED);
+      breakers.record(TARGET, ticket, succeeded, 1);
+    }
+  }
+}
@@ -0,0 +1,486 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.core.services.aggregator.MessageAggregator;
+import com.adaptris.util.TimeInterval;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.core.spi.cluster.RegistrationInfo;
+
+public class ClusteredEventBusTest {
+
+  private static final String TARGET = "target";
+
+  @Mock
+  private EventBus mockEventBus;
+  @Mock
+  private Vertx mockVertx;
+  @Mock
+  private ConsumerEventListener mockListener;
+  @Mock
+  private Message<Object> mockReply;
+  @Mock
+  private MessageConsumer<Object> mockConsumer;
+  @Mock
+  private MessageAggregator mockAggregator;
+
+  private ClusteredEventBus clusteredEventBus;
+
+  private VertXMessage vertXMessage;
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+    clusteredEventBus = new ClusteredEventBus();
+    clusteredEventBus.setEventBus(mockEventBus);
+    clusteredEventBus.setVertx(mockVertx);
+    clusteredEventBus.setConsumerEventListener(mockListener);
+    vertXMessage = new VertXMessage();
+    doReturn(mockConsumer).when(mockEventBus).consumer(anyString(), any());
+    // run timers straight away.
+    doAnswer(invocation -> {
+      Handler<Long> handler = invocation.getArgument(1);
+      handler.handle(1L);
+      return 1L;
+    }).when(mockVertx).setTimer(anyLong(), any());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void testReplySucceeds() throws Exception {
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    replyHandlers(1).get(0).handle(Future.succeededFuture(mockReply));
+
+    verify(mockListener).handleMessageReply(mockReply);
+    verify(mockListener, never()).handleMessageFailure(any(), any());
+  }
+
+  @Test
+  public void testNoRetryPolicy() throws Exception {
+    ReplyException failure = new ReplyException(ReplyFailure.NO_HANDLERS, "nobody home");
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    replyHandlers(1).get(0).handle(Future.failedFuture(failure));
+
+    verify(mockListener).handleMessageFailure(vertXMessage, failure);
+    verify(mockVertx, never()).setTimer(anyLong(), any());
+  }
+
+  @Test
+  public void testRetriesUntilExhausted() throws Exception {
+    ReplyException failure = new ReplyException(ReplyFailure.TIMEOUT, "timed out");
+    clusteredEventBus.setRetryPolicy(new RetryPolicy(3, new TimeInterval(1L, TimeUnit.MILLISECONDS), null));
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    replyHandlers(1).get(0).handle(Future.failedFuture(failure));
+    replyHandlers(2).get(1).handle(Future.failedFuture(failure));
+    verify(mockListener, never()).handleMessageFailure(any(), any());
+    replyHandlers(3).get(2).handle(Future.failedFuture(failure));
+
+    verify(mockVertx, times(2)).setTimer(anyLong(), any());
+    verify(mockListener).handleMessageFailure(vertXMessage, failure);
+  }
+
+  @Test
+  public void testRetryThenSucceeds() throws Exception {
+    clusteredEventBus.setRetryPolicy(new RetryPolicy(3, new TimeInterval(1L, TimeUnit.MILLISECONDS), null));
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    replyHandlers(1).get(0).handle(Future.failedFuture(new ReplyException(ReplyFailure.NO_HANDLERS, "nobody home")));
+    replyHandlers(2).get(1).handle(Future.succeededFuture(mockReply));
+
+    verify(mockListener).handleMessageReply(mockReply);
+    verify(mockListener, never()).handleMessageFailure(any(), any());
+  }
+
+  @Test
+  public void testExpiredNotRetried() throws Exception {
+    ReplyException failure = new ReplyException(ReplyFailure.RECIPIENT_FAILURE, FailureCode.EXPIRED.code(), "too late");
+    clusteredEventBus.setRetryPolicy(new RetryPolicy());
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    replyHandlers(1).get(0).handle(Future.failedFuture(failure));
+
+    verify(mockListener).handleMessageFailure(vertXMessage, failure);
+  }
+
+  @Test
+  public void testPastDeadlineNotRetried() throws Exception {
+    vertXMessage.setDeadline(System.currentTimeMillis() - 1);
+    clusteredEventBus.setRetryPolicy(new RetryPolicy());
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    replyHandlers(1).get(0).handle(Future.failedFuture(new ReplyException(ReplyFailure.TIMEOUT, "timed out")));
+
+    verify(mockListener).handleMessageFailure(eq(vertXMessage), any());
+    verify(mockVertx, never()).setTimer(anyLong(), any());
+  }
+
+  @Test
+  public void testOverloadedResentImmediately() throws Exception {
+    ReplyException overloaded = new ReplyException(ReplyFailure.RECIPIENT_FAILURE, FailureCode.OVERLOADED.code(), "busy");
+    clusteredEventBus.setMaxOverloadResends(1);
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    replyHandlers(1).get(0).handle(Future.failedFuture(overloaded));
+    replyHandlers(2).get(1).handle(Future.failedFuture(overloaded));
+
+    verify(mockVertx, never()).setTimer(anyLong(), any());
+    verify(mockListener).handleMessageFailure(vertXMessage, overloaded);
+  }
+
+  @Test
+  public void testHedgeWins() throws Exception {
+    hedgingEnabled(new HedgingPolicy(95, 100));
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+    timerHandler().handle(1L);
+
+    List<Handler<AsyncResult<Message<Object>>>> handlers = replyHandlers(2);
+    handlers.get(1).handle(Future.succeededFuture(mockReply));
+    handlers.get(0).handle(Future.succeededFuture(mockReply));
+
+    verify(mockListener, times(1)).handleMessageReply(mockReply);
+    assertEquals(1, clusteredEventBus.getStatistics().getHedged());
+    assertEquals(1, clusteredEventBus.getStatistics().getHedgesWon());
+  }
+
+  @Test
+  public void testHedgeLoses() throws Exception {
+    hedgingEnabled(new HedgingPolicy(95, 100));
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+    timerHandler().handle(1L);
+
+    List<Handler<AsyncResult<Message<Object>>>> handlers = replyHandlers(2);
+    handlers.get(0).handle(Future.succeededFuture(mockReply));
+    handlers.get(1).handle(Future.succeededFuture(mockReply));
+
+    verify(mockListener, times(1)).handleMessageReply(mockReply);
+    assertEquals(1, clusteredEventBus.getStatistics().getHedged());
+    assertEquals(0, clusteredEventBus.getStatistics().getHedgesWon());
+  }
+
+  @Test
+  public void testHedgeFailureWaitsForOther() throws Exception {
+    ReplyException failure = new ReplyException(ReplyFailure.RECIPIENT_FAILURE, "failed");
+    hedgingEnabled(new HedgingPolicy(95, 100));
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+    timerHandler().handle(1L);
+
+    List<Handler<AsyncResult<Message<Object>>>> handlers = replyHandlers(2);
+    handlers.get(0).handle(Future.failedFuture(failure));
+    verify(mockListener, never()).handleMessageFailure(any(), any());
+    handlers.get(1).handle(Future.failedFuture(failure));
+
+    verify(mockListener).handleMessageFailure(vertXMessage, failure);
+  }
+
+  @Test
+  public void testHedgeBudget() throws Exception {
+    hedgingEnabled(new HedgingPolicy(95, 5));
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+    timerHandler().handle(1L);
+
+    replyHandlers(1);
+    assertEquals(0, clusteredEventBus.getStatistics().getHedged());
+  }
+
+  @Test
+  public void testNoHedgeUntilEnoughReplies() throws Exception {
+    clusteredEventBus.setHedgingPolicy(new HedgingPolicy());
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+    replyHandlers(1).get(0).handle(Future.succeededFuture(mockReply));
+
+    verify(mockVertx, never()).setTimer(anyLong(), any());
+    verify(mockListener).handleMessageReply(mockReply);
+    assertEquals(1, clusteredEventBus.latencies().size());
+  }
+
+  private void hedgingEnabled(HedgingPolicy policy) {
+    clusteredEventBus.setHedgingPolicy(policy);
+    for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+      clusteredEventBus.latencies().record(10);
+    }
+    doReturn(1L).when(mockVertx).setTimer(anyLong(), any());
+  }
+
+  @SuppressWarnings("unchecked")
+  private Handler<Long> timerHandler() {
+    ArgumentCaptor<Handler<Long>> captor = ArgumentCaptor.forClass(Handler.class);
+    verify(mockVertx).setTimer(eq(10L), captor.capture());
+    return captor.getValue();
+  }
+
+  @Test
+  public void testDeliveryProperties() throws Exception {
+    DeliveryProperties properties = new DeliveryProperties();
+    properties.setSendTimeout(new TimeInterval(5L, TimeUnit.SECONDS));
+    properties.setLocalOnly(true);
+    properties.setCodecName("my-codec");
+    clusteredEventBus.setDeliveryProperties(properties);
+
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    DeliveryOptions options = deliveryOptions();
+    assertEquals(5000L, options.getSendTimeout());
+    assertTrue(options.isLocalOnly());
+    assertEquals("my-codec", options.getCodecName());
+  }
+
+  @Test
+  public void testSendTimeoutLimitedByDeadline() throws Exception {
+    DeliveryProperties properties = new DeliveryProperties();
+    properties.setSendTimeout(new TimeInterval(1L, TimeUnit.MINUTES));
+    clusteredEventBus.setDeliveryProperties(properties);
+    vertXMessage.setDeadline(System.currentTimeMillis() + 2000);
+
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    long timeout = deliveryOptions().getSendTimeout();
+    assertTrue(timeout > 0 && timeout <= 2000);
+  }
+
+  @Test
+  public void testSendTimeoutDefaultsToDeadline() throws Exception {
+    vertXMessage.setDeadline(System.currentTimeMillis() + 60000);
+
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    assertTrue(deliveryOptions().getSendTimeout() > DeliveryOptions.DEFAULT_TIMEOUT);
+  }
+
+  @Test
+  public void testSendTimeoutSharedBetweenAttempts() throws Exception {
+    clusteredEventBus.setRetryPolicy(new RetryPolicy(2, new TimeInterval(1L, TimeUnit.MILLISECONDS), null));
+    vertXMessage.setDeadline(System.currentTimeMillis() + 10000);
+
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    long timeout = deliveryOptions().getSendTimeout();
+    assertTrue(String.valueOf(timeout), timeout > 4000 && timeout <= 5000);
+  }
+
+  private DeliveryOptions deliveryOptions() {
+    ArgumentCaptor<DeliveryOptions> captor = ArgumentCaptor.forClass(DeliveryOptions.class);
+    verify(mockEventBus).request(eq(TARGET), eq(vertXMessage), captor.capture(), any());
+    return captor.getValue();
+  }
+
+  @Test
+  public void testGatherCollectsReplies() throws Exception {
+    GatherPolicy policy = new GatherPolicy(mockAggregator);
+    policy.setQuorum(2);
+    doReturn(1L).when(mockVertx).setTimer(anyLong(), any());
+    clusteredEventBus.gather(TARGET, vertXMessage, policy);
+
+    DeliveryOptions options = gatherPublished();
+    assertEquals("GATHER", options.getHeaders().get(VertxHeaders.SEND_MODE));
+    Handler<Message<Object>> replies = gatherReplies(options);
+    replies.handle(mockReply);
+    verify(mockListener, never()).handleGatheredReplies(any(), any());
+    replies.handle(mockReply);
+    replies.handle(mockReply);
+
+    ArgumentCaptor<List<VertXMessage>> gathered = listCaptor();
+    verify(mockListener).handleGatheredReplies(eq(vertXMessage), gathered.capture());
+    assertEquals(2, gathered.getValue().size());
+    verify(mockVertx).cancelTimer(1L);
+    verify(mockConsumer).unregister();
+  }
+
+  @Test
+  public void testGatherTimesOutWithoutQuorum() throws Exception {
+    GatherPolicy policy = new GatherPolicy(mockAggregator);
+    policy.setQuorum(2);
+    clusteredEventBus.gather(TARGET, vertXMessage, policy);
+
+    gatherPublished();
+    ArgumentCaptor<Throwable> cause = ArgumentCaptor.forClass(Throwable.class);
+    verify(mockListener).handleMessageFailure(eq(vertXMessage), cause.capture());
+    assertEquals(ReplyFailure.TIMEOUT, ((ReplyException) cause.getValue()).failureType());
+    verify(mockListener, never()).handleGatheredReplies(any(), any());
+    verify(mockConsumer).unregister();
+  }
+
+  @Test
+  public void testGatherUsesWhatArrivedByTheTimeout() throws Exception {
+    // not clustered, so the number of members is not known.
+    doReturn(1L).when(mockVertx).setTimer(anyLong(), any());
+    clusteredEventBus.gather(TARGET, vertXMessage, new GatherPolicy(mockAggregator));
+
+    gatherReplies(gatherPublished()).handle(mockReply);
+    ArgumentCaptor<Handler<Long>> timer = handlerCaptor();
+    verify(mockVertx).setTimer(anyLong(), timer.capture());
+    timer.getValue().handle(1L);
+
+    ArgumentCaptor<List<VertXMessage>> gathered = listCaptor();
+    verify(mockListener).handleGatheredReplies(eq(vertXMessage), gathered.capture());
+    assertEquals(1, gathered.getValue().size());
+  }
+
+  @Test
+  public void testGatherFailsIfReplyAddressNotRegistered() throws Exception {
+    clusteredEventBus.gather(TARGET, vertXMessage, new GatherPolicy(mockAggregator));
+
+    ArgumentCaptor<Handler<AsyncResult<Void>>> registered = handlerCaptor();
+    verify(mockConsumer).completionHandler(registered.capture());
+    registered.getValue().handle(Future.failedFuture("cannot register"));
+
+    verify(mockEventBus, never()).publish(anyString(), any(), any(DeliveryOptions.class));
+    verify(mockListener).handleMessageFailure(eq(vertXMessage), any());
+    verify(mockConsumer).unregister();
+  }
+
+  @Test
+  public void testGatherCountsRefusalsAsAnswers() throws Exception {
+    VertxInternal vertx = clustered(2);
+    clusteredEventBus.gather(TARGET, vertXMessage, new GatherPolicy(mockAggregator));
+
+    Handler<Message<Object>> replies = gatherReplies(gatherPublished());
+    replies.handle(mockReply);
+    verify(mockListener, never()).handleMessageFailure(any(), any());
+    @SuppressWarnings("unchecked")
+    Message<Object> refusal = mock(Message.class);
+    doReturn(FailureCode.OVERLOADED.exception("too busy")).when(refusal).body();
+    replies.handle(refusal);
+
+    // no need to wait for the timeout; but not every member replied.
+    ArgumentCaptor<Throwable> cause = ArgumentCaptor.forClass(Throwable.class);
+    verify(mockListener).handleMessageFailure(eq(vertXMessage), cause.capture());
+    assertEquals(ReplyFailure.RECIPIENT_FAILURE, ((ReplyException) cause.getValue()).failureType());
+    verify(mockListener, never()).handleGatheredReplies(any(), any());
+    verify(vertx).cancelTimer(1L);
+  }
+
+  @Test
+  public void testGatherFailsAtTheTimeoutWithoutEveryKnownMember() throws Exception {
+    VertxInternal vertx = clustered(2);
+    clusteredEventBus.gather(TARGET, vertXMessage, new GatherPolicy(mockAggregator));
+
+    gatherReplies(gatherPublished()).handle(mockReply);
+    ArgumentCaptor<Handler<Long>> timer = handlerCaptor();
+    verify(vertx).setTimer(anyLong(), timer.capture());
+    timer.getValue().handle(1L);
+
+    ArgumentCaptor<Throwable> cause = ArgumentCaptor.forClass(Throwable.class);
+    verify(mockListener).handleMessageFailure(eq(vertXMessage), cause.capture());
+    assertEquals(ReplyFailure.TIMEOUT, ((ReplyException) cause.getValue()).failureType());
+    verify(mockListener, never()).handleGatheredReplies(any(), any());
+  }
+
+  // A cluster with this many members of the target, one of them this node.
+  private VertxInternal clustered(int members) {
+    VertxInternal vertx = mock(VertxInternal.class);
+    ClusterManager clusterManager = mock(ClusterManager.class);
+    doReturn(clusterManager).when(vertx).getClusterManager();
+    doReturn("self").when(clusterManager).getNodeId();
+    doAnswer(invocation -> {
+      Promise<List<RegistrationInfo>> promise = invocation.getArgument(1);
+      List<RegistrationInfo> registrations = new ArrayList<>();
+      for (int i = 0; i < members; i++) {
+        registrations.add(new RegistrationInfo(i == 0 ? "self" : "node" + i, 1, false));
+      }
+      promise.complete(registrations);
+      return null;
+    }).when(clusterManager).getRegistrations(eq(TARGET), any());
+    doReturn(1L).when(vertx).setTimer(anyLong(), any());
+    clusteredEventBus.setVertx(vertx);
+    return vertx;
+  }
+
+  private DeliveryOptions gatherPublished() {
+    ArgumentCaptor<Handler<AsyncResult<Void>>> registered = handlerCaptor();
+    verify(mockConsumer).completionHandler(registered.capture());
+    registered.getValue().handle(Future.succeededFuture());
+    ArgumentCaptor<DeliveryOptions> options = ArgumentCaptor.forClass(DeliveryOptions.class);
+    verify(mockEventBus).publish(eq(TARGET), eq(vertXMessage), options.capture());
+    return options.getValue();
+  }
+
+  private Handler<Message<Object>> gatherReplies(DeliveryOptions options) {
+    ArgumentCaptor<Handler<Message<Object>>> handler = handlerCaptor();
+    verify(mockEventBus).consumer(eq(options.getHeaders().get(VertxHeaders.REPLY_TO)), handler.capture());
+    return handler.getValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> ArgumentCaptor<Handler<T>> handlerCaptor() {
+    return ArgumentCaptor.forClass(Handler.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ArgumentCaptor<List<VertXMessage>> listCaptor() {
+    return ArgumentCaptor.forClass(List.class);
+  }
+
+  @Test
+  public void testCircuitOpensAndFailsFast() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker();
+    breaker.setMinimumCalls(2);
+    clusteredEventBus.setCircuitBreaker(breaker);
+    ReplyException failure = new ReplyException(ReplyFailure.NO_HANDLERS, "nobody home");
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+    for (Handler<AsyncResult<Message<Object>>> handler : replyHandlers(2)) {
+      handler.handle(Future.failedFuture(failure));
+    }
+    assertEquals(CircuitBreakers.State.OPEN, clusteredEventBus.getCircuitBreakers().state(TARGET));
+
+    clusteredEventBus.send(TARGET, vertXMessage, true);
+
+    // not sent again.
+    replyHandlers(2);
+    ArgumentCaptor<Throwable> cause = ArgumentCaptor.forClass(Throwable.class);
+    verify(mockListener, times(3)).handleMessageFailure(eq(vertXMessage), cause.capture());
+    assertTrue(FailureCode.CIRCUIT_OPEN.matches(cause.getValue()));
+    assertEquals(1, clusteredEventBus.getStatistics().getCircuitsOpened());
+    assertEquals(1, clusteredEventBus.getStatistics().getCircuitRejected());
+  }
+
+  private List<Handler<AsyncResult<Message<Object>>>> replyHandlers(int expected) {
+    ArgumentCaptor<Handler<AsyncResult<Message<Object>>>> captor = handlerCaptor();
+    verify(mockEventBus, times(expected)).request(eq(TARGET), eq(vertXMessage), any(DeliveryOptions.class), captor.capture());
+    return captor.getAllValues();
+  }
+}
@@ -0,0 +1,63 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.util.KeyValuePair;
+import com.adaptris.util.KeyValuePairSet;
+import com.adaptris.util.TimeInterval;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.tracing.TracingPolicy;
+
+public class DeliveryPropertiesTest {
+
+  @Test
+  public void testDefaults() {
+    DeliveryOptions options = new DeliveryProperties().build();
+    assertEquals(DeliveryOptions.DEFAULT_TIMEOUT, options.getSendTimeout());
+    assertEquals(DeliveryOptions.DEFAULT_LOCAL_ONLY, options.isLocalOnly());
+    assertEquals(DeliveryOptions.DEFAULT_TRACING_POLICY, options.getTracingPolicy());
+    assertTrue(new DeliveryProperties().resolveHeaders(mock(AdaptrisMessage.class)).isEmpty());
+  }
+
+  @Test
+  public void testBuild() {
+    DeliveryProperties properties = new DeliveryProperties();
+    properties.setSendTimeout(new TimeInterval(10L, TimeUnit.SECONDS));
+    properties.setCodecName("codec");
+    properties.setLocalOnly(true);
+    properties.setTracingPolicy(TracingPolicy.ALWAYS);
+
+    DeliveryOptions options = properties.build();
+    assertEquals(10000L, options.getSendTimeout());
+    assertEquals("codec", options.getCodecName());
+    assertTrue(options.isLocalOnly());
+    assertEquals(TracingPolicy.ALWAYS, options.getTracingPolicy());
+  }
+
+  @Test
+  public void testResolveHeaders() {
+    KeyValuePairSet headers = new KeyValuePairSet();
+    headers.add(new KeyValuePair("static", "value"));
+    headers.add(new KeyValuePair("tenant", "%message{tenant}"));
+    DeliveryProperties properties = new DeliveryProperties();
+    properties.setHeaders(headers);
+
+    AdaptrisMessage msg = mock(AdaptrisMessage.class);
+    when(msg.resolve("value")).thenReturn("value");
+    when(msg.resolve("%message{tenant}")).thenReturn("acme");
+
+    Map<String, String> resolved = properties.resolveHeaders(msg);
+    assertEquals("value", resolved.get("static"));
+    assertEquals("acme", resolved.get("tenant"));
+  }
+}
@@ -0,0 +1,58 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HedgingPolicyTest {
+
+  @Test
+  public void testDelay() {
+    HedgingPolicy policy = new HedgingPolicy(90, null);
+    LatencyWindow latencies = new LatencyWindow(100);
+    assertEquals(-1, policy.delay(latencies));
+    for (int i = 1; i <= 100; i++) {
+      latencies.record(i);
+    }
+    assertEquals(90, policy.delay(latencies));
+  }
+
+  @Test
+  public void testLatencyWindowKeepsMostRecent() {
+    LatencyWindow latencies = new LatencyWindow(10);
+    for (int i = 1; i <= 20; i++) {
+      latencies.record(i);
+    }
+    assertEquals(10, latencies.size());
+    assertEquals(11, latencies.percentile(0));
+    assertEquals(20, latencies.percentile(100));
+    assertEquals(15, latencies.percentile(50));
+  }
+
+  @Test
+  public void testLatencyWindowSortsOnlyOnceStale() {
+    LatencyWindow latencies = new LatencyWindow(100);
+    for (int i = 1; i <= 100; i++) {
+      latencies.record(i);
+    }
+    assertEquals(95, latencies.percentile(95));
+    // fewer than a tenth of the window is new; the sorted copy is still used.
+    for (int i = 0; i < 9; i++) {
+      latencies.record(1000);
+    }
+    assertEquals(95, latencies.percentile(95));
+    latencies.record(1000);
+    assertEquals(1000, latencies.percentile(95));
+  }
+
+  @Test
+  public void testBudget() {
+    HedgingPolicy policy = new HedgingPolicy();
+    assertFalse(policy.withinBudget(19, 0));
+    assertTrue(policy.withinBudget(20, 0));
+    assertFalse(policy.withinBudget(20, 1));
+    assertTrue(policy.withinBudget(40, 1));
+  }
+}
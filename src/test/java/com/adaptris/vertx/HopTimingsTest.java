@@ -0,0 +1,88 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.adaptris.core.SerializableAdaptrisMessage;
+
+public class HopTimingsTest {
+
+  @Test
+  public void testNotFromTheCluster() throws Exception {
+    assertNull(HopTimings.of(new VertXMessage(new SerializableAdaptrisMessage("id1"))));
+  }
+
+  @Test
+  public void testBreakdown() throws Exception {
+    VertXMessage reply = reply();
+    HopTimings timings = HopTimings.of(reply);
+
+    assertEquals(millis(12), timings.totalNanos());
+    assertEquals(millis(6), timings.remoteNanos());
+    assertEquals(millis(4), timings.networkNanos());
+    String logged = timings.toString();
+    assertTrue(logged, logged.contains("network=4.000ms"));
+    assertTrue(logged, logged.contains("node=node-1"));
+    assertTrue(logged, logged.contains("service-1=3.000ms"));
+    assertTrue(logged, logged.contains("service-2=EXPIRED"));
+  }
+
+  @Test
+  public void testRemoteTimeNotKnown() throws Exception {
+    VertXMessage reply = reply();
+    reply.getServiceRecord().setRemoteNanos(0);
+    HopTimings timings = HopTimings.of(reply);
+    assertEquals(-1, timings.networkNanos());
+
+    ClusterStatistics statistics = new ClusterStatistics();
+    timings.record(statistics);
+    assertEquals(0, statistics.network().count());
+  }
+
+  @Test
+  public void testRecord() throws Exception {
+    ClusterStatistics statistics = new ClusterStatistics();
+    HopTimings.of(reply()).record(statistics);
+    assertEquals(1, statistics.remoteTime().count());
+    assertEquals(1, statistics.network().count());
+  }
+
+  @Test
+  public void testReceivedAndReplying() throws Exception {
+    ServiceRecord record = new ServiceRecord();
+    assertEquals(0, record.sinceReceived());
+    record.replying();
+    assertEquals(0, record.getRemoteNanos());
+
+    record.received("node-1", System.nanoTime() - millis(5));
+    assertTrue(record.sinceReceived() >= millis(5));
+    record.replying();
+    assertTrue(record.getRemoteNanos() >= millis(5));
+    assertEquals("node-1", record.getNodeId());
+    assertTrue(record.getReceivedAt() > 0);
+  }
+
+  private static VertXMessage reply() {
+    VertXMessage reply = new VertXMessage(new SerializableAdaptrisMessage("id1"));
+    reply.setRoundTripNanos(millis(10));
+    ServiceRecord record = reply.getServiceRecord();
+    record.setQueueWaitNanos(millis(2));
+    record.setNodeId("node-1");
+    record.setRemoteNanos(millis(6));
+    InterlokService service = new InterlokService("service-1", ServiceState.COMPLETE);
+    service.setStartNanos(millis(1));
+    service.setEndNanos(millis(4));
+    record.addService(service);
+    record.addService(new InterlokService("service-2", ServiceState.EXPIRED));
+    return reply;
+  }
+
+  private static long millis(long ms) {
+    return TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+}
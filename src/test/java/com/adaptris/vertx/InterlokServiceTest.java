@@ -52,4 +52,12 @@ public class InterlokServiceTest {
     assertNotNull(srv1.toString());
   }
 
+  @Test
+  public void testLazyId() {
+    InterlokService srv1 = new InterlokService();
+    assertEquals(ServiceState.NOT_STARTED, srv1.getState());
+    assertNotNull(srv1.getId());
+    assertEquals(srv1.getId(), srv1.getId());
+  }
+
 }
@@ -0,0 +1,50 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertEquals(-1, new LatencyHistogram().percentile(50));
+  }
+
+  @Test
+  public void testSmallValuesExact() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+    assertEquals(5, histogram.percentile(50));
+    assertEquals(10, histogram.percentile(100));
+    assertEquals(10, histogram.count());
+  }
+
+  @Test
+  public void testLargeValuesWithinPrecision() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertWithin(500_000, histogram.percentile(50));
+    assertWithin(990_000, histogram.percentile(99));
+    histogram.record(Long.MAX_VALUE);
+    assertTrue(histogram.percentile(100) > 0);
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordNanos(5000);
+    assertEquals(5, histogram.percentile(50));
+    histogram.reset();
+    assertEquals(-1, histogram.percentile(50));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " is not close to " + expected, Math.abs(actual - expected) <= expected * 0.07);
+  }
+}
@@ -0,0 +1,65 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.adaptris.util.TimeInterval;
+
+public class LoadSheddingTest {
+
+  @Test
+  public void testNotConfigured() {
+    LoadShedding shedding = new LoadShedding();
+    assertFalse(shedding.overloaded(1000, 60000));
+    assertEquals(LoadShedding.DEFAULT_MAX_RESENDS, shedding.maxResends());
+  }
+
+  @Test
+  public void testMaxPendingMessages() {
+    LoadShedding shedding = new LoadShedding(10, null);
+    assertFalse(shedding.overloaded(9, 60000));
+    assertTrue(shedding.overloaded(10, 0));
+  }
+
+  @Test
+  public void testMaxQueueLatency() {
+    LoadShedding shedding = new LoadShedding(null, new TimeInterval(100L, TimeUnit.MILLISECONDS));
+    assertFalse(shedding.overloaded(1, 100));
+    assertTrue(shedding.overloaded(1, 101));
+    // Nothing waiting, so the latency is stale.
+    assertFalse(shedding.overloaded(0, 101));
+  }
+
+  @Test
+  public void testOnlyWorkerPoolsAreMeasured() {
+    LoadShedding shedding = new LoadShedding(1, null);
+    assertFalse(shedding.overloaded(Executors.newSingleThreadExecutor()));
+  }
+
+  @Test
+  public void testWorkerPool() throws Exception {
+    LoadShedding shedding = new LoadShedding(2, null);
+    CountDownLatch release = new CountDownLatch(1);
+    WorkerPool pool = new WorkerPool(2);
+    try {
+      for (int i = 0; i < 3; i++) {
+        pool.submit(() -> release.await(1, TimeUnit.MINUTES));
+      }
+      // both threads are busy, so only one is waiting.
+      assertEquals(1, pool.pending());
+      assertFalse(shedding.overloaded(pool));
+      pool.submit(() -> release.await(1, TimeUnit.MINUTES));
+      assertTrue(shedding.overloaded(pool));
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+}
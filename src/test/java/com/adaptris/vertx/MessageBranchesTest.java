@@ -0,0 +1,98 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.adaptris.core.AdaptrisMessage;
+import com.adaptris.core.DefaultMessageFactory;
+import com.adaptris.vertx.ParallelExecution.ConflictRule;
+
+public class MessageBranchesTest {
+
+  @Test
+  public void testMergesIndependentChanges() throws Exception {
+    AdaptrisMessage msg = message();
+    MessageBranches branches = new MessageBranches(msg, ConflictRule.FAIL);
+    AdaptrisMessage first = branches.branch();
+    AdaptrisMessage second = branches.branch();
+    assertNotSame(msg, first);
+    first.addMetadata("key1", "value1");
+    first.setContent("changed", null);
+    second.addMetadata("key2", "value2");
+    second.removeMessageHeader("original");
+
+    branches.merge(first);
+    branches.merge(second);
+
+    assertEquals("value1", msg.getMetadataValue("key1"));
+    assertEquals("value2", msg.getMetadataValue("key2"));
+    assertFalse(msg.headersContainsKey("original"));
+    assertEquals("changed", msg.getContent());
+  }
+
+  @Test
+  public void testLastWins() throws Exception {
+    AdaptrisMessage msg = message();
+    MessageBranches branches = new MessageBranches(msg, ConflictRule.LAST_WINS);
+    AdaptrisMessage first = branches.branch();
+    AdaptrisMessage second = branches.branch();
+    first.addMetadata("original", "first");
+    second.addMetadata("original", "second");
+    first.setContent("first", null);
+    second.setContent("second", null);
+
+    branches.merge(first);
+    branches.merge(second);
+
+    assertEquals("second", msg.getMetadataValue("original"));
+    assertEquals("second", msg.getContent());
+  }
+
+  @Test
+  public void testFirstWins() throws Exception {
+    AdaptrisMessage msg = message();
+    MessageBranches branches = new MessageBranches(msg, ConflictRule.FIRST_WINS);
+    AdaptrisMessage first = branches.branch();
+    AdaptrisMessage second = branches.branch();
+    first.addMetadata("original", "first");
+    second.addMetadata("original", "second");
+    first.setContent("first", null);
+    second.setContent("second", null);
+
+    branches.merge(first);
+    branches.merge(second);
+
+    assertEquals("first", msg.getMetadataValue("original"));
+    assertEquals("first", msg.getContent());
+  }
+
+  @Test
+  public void testFailOnConflict() throws Exception {
+    AdaptrisMessage msg = message();
+    MessageBranches branches = new MessageBranches(msg, ConflictRule.FAIL);
+    AdaptrisMessage first = branches.branch();
+    AdaptrisMessage second = branches.branch();
+    first.addMetadata("original", "first");
+    second.addMetadata("original", "second");
+    second.addMetadata("key2", "value2");
+
+    branches.merge(first);
+    try {
+      branches.merge(second);
+      fail();
+    } catch (ServiceRecordException expected) {
+    }
+    assertEquals("first", msg.getMetadataValue("original"));
+    assertFalse(msg.headersContainsKey("key2"));
+  }
+
+  private static AdaptrisMessage message() {
+    AdaptrisMessage msg = DefaultMessageFactory.getDefaultInstance().newMessage("payload");
+    msg.addMetadata("original", "value");
+    return msg;
+  }
+}
@@ -0,0 +1,110 @@
+package com.adaptris.vertx;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.vertx.core.Vertx;
+
+public class MetricsServerTest {
+
+  private Vertx vertx;
+
+  private VertxComponentStatistics component;
+
+  @Before
+  public void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    ClusterStatistics statistics = new ClusterStatistics();
+    statistics.messageSent();
+    statistics.messageReplied(TimeUnit.MILLISECONDS.toNanos(2));
+    component = new VertxComponentStatistics(statistics, () -> null, () -> null, AdaptrisMessageCodec::new);
+    component.register(this, "my \"workflow\"");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    component.unregister();
+    vertx.close();
+  }
+
+  @Test
+  public void testFormat() throws Exception {
+    String text = PrometheusFormat.write(VertxComponentStatistics.registered(), TimeUnit.MILLISECONDS.toNanos(3));
+
+    String labels = "{component=\"MetricsServerTest\",id=\"my \\\"workflow\\\"\"";
+    assertTrue(text, text.contains("# TYPE interlok_vertx_replies_total counter\n"));
+    assertTrue(text, text.contains("interlok_vertx_replies_total" + labels + "} 1\n"));
+    assertTrue(text, text.contains("interlok_vertx_queue_depth" + labels + "} -1\n"));
+    assertTrue(text, text.contains("interlok_vertx_event_loop_lag_seconds 0.003\n"));
+    assertTrue(text, text.contains("interlok_vertx_latency_seconds_count" + labels + ",stage=\"round-trip\"} 1\n"));
+    assertTrue(text, text.contains("interlok_vertx_latency_seconds" + labels + ",stage=\"round-trip\",quantile=\"0.99\"} 0.002"));
+    // nothing recorded, so no quantiles.
+    assertFalse(text, text.contains("stage=\"queue-wait\",quantile"));
+  }
+
+  @Test
+  public void testScrape() throws Exception {
+    MetricsServer server = MetricsServer.start(vertx, new MetricsEndpoint(0));
+    try {
+      assertSame(server, MetricsServer.start(vertx, new MetricsEndpoint(0)));
+      server.stop();
+      int port = waitForPort(server);
+
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/metrics").openConnection();
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(PrometheusFormat.CONTENT_TYPE, connection.getContentType());
+      try (InputStream in = connection.getInputStream()) {
+        String text = new String(in.readAllBytes(), UTF_8);
+        assertTrue(text, text.contains("interlok_vertx_event_loop_lag_seconds "));
+        assertTrue(text, text.contains("interlok_vertx_replies_total{component=\"MetricsServerTest\""));
+      }
+
+      connection = (HttpURLConnection) new URL("http://localhost:" + port + "/other").openConnection();
+      assertEquals(404, connection.getResponseCode());
+    } finally {
+      server.stop();
+    }
+    assertEquals(-1, server.actualPort());
+  }
+
+  @Test
+  public void testSharedByHostAndPort() throws Exception {
+    MetricsEndpoint other = new MetricsEndpoint(0);
+    other.setHost("127.0.0.1");
+    MetricsServer server = MetricsServer.start(vertx, new MetricsEndpoint(0));
+    MetricsServer otherHost = MetricsServer.start(vertx, other);
+    try {
+      assertNotSame(server, otherHost);
+      MetricsEndpoint otherPath = new MetricsEndpoint(0);
+      otherPath.setPath("/other");
+      // the same host and port; served on the path it was first started with.
+      MetricsServer shared = MetricsServer.start(vertx, otherPath);
+      assertSame(server, shared);
+      shared.stop();
+    } finally {
+      server.stop();
+      otherHost.stop();
+    }
+  }
+
+  private static int waitForPort(MetricsServer server) throws InterruptedException {
+    long until = System.currentTimeMillis() + 5000;
+    while (server.actualPort() <= 0 && System.currentTimeMillis() < until) {
+      Thread.sleep(10);
+    }
+    return server.actualPort();
+  }
+}
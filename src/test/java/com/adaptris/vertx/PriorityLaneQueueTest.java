@@ -0,0 +1,110 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.adaptris.util.TimeInterval;
+
+public class PriorityLaneQueueTest {
+
+  @Test
+  public void testStrict() throws Exception {
+    PriorityLanes lanes = new PriorityLanes();
+    lanes.setMode(PriorityLanes.Mode.STRICT);
+    PriorityLaneQueue queue = new PriorityLaneQueue(lanes, 10);
+    queue.put(message(0));
+    queue.put(message(2));
+    queue.put(message(1));
+
+    assertEquals(3, queue.size());
+    assertEquals(Arrays.asList(1, 1, 1), queue.depths());
+    assertEquals(2, queue.poll().getPriority());
+    assertEquals(1, queue.poll().getPriority());
+    assertEquals(0, queue.poll().getPriority());
+    assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testWeighted() throws Exception {
+    PriorityLanes lanes = new PriorityLanes();
+    lanes.setLevels(2);
+    lanes.setWeights(Arrays.asList(1, 3));
+    PriorityLaneQueue queue = new PriorityLaneQueue(lanes, 10);
+    for (int i = 0; i < 4; i++) {
+      queue.put(message(0));
+      queue.put(message(1));
+    }
+
+    int[] served = new int[2];
+    for (int i = 0; i < 4; i++) {
+      served[queue.poll().getPriority()]++;
+    }
+    assertEquals(1, served[0]);
+    assertEquals(3, served[1]);
+  }
+
+  @Test
+  public void testStarvationProtection() throws Exception {
+    PriorityLanes lanes = new PriorityLanes();
+    lanes.setMode(PriorityLanes.Mode.STRICT);
+    lanes.setMaxWait(new TimeInterval(1L, TimeUnit.SECONDS));
+    PriorityLaneQueue queue = new PriorityLaneQueue(lanes, 10);
+    VertXMessage old = message(0);
+    old.setStartProcessingTime(System.currentTimeMillis() - 2000);
+    queue.put(old);
+    queue.put(message(2));
+
+    assertEquals(old, queue.poll());
+    assertEquals(2, queue.poll().getPriority());
+  }
+
+  @Test
+  public void testBoundedPerLevel() throws Exception {
+    PriorityLaneQueue queue = new PriorityLaneQueue(new PriorityLanes(), 1);
+    assertTrue(queue.offer(message(0)));
+    assertFalse(queue.offer(message(0)));
+    assertTrue(queue.offer(message(2)));
+    assertEquals(1, queue.remainingCapacity());
+  }
+
+  @Test
+  public void testIteratorRemove() throws Exception {
+    PriorityLaneQueue queue = new PriorityLaneQueue(new PriorityLanes(), 10);
+    queue.put(message(0));
+    queue.put(message(2));
+
+    Iterator<VertXMessage> messages = queue.iterator();
+    assertEquals(2, messages.next().getPriority());
+    messages.remove();
+    assertEquals(0, messages.next().getPriority());
+    assertFalse(messages.hasNext());
+
+    assertEquals(1, queue.size());
+    assertEquals(0, queue.poll().getPriority());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testLevels() throws Exception {
+    PriorityLanes lanes = new PriorityLanes();
+    assertEquals(0, lanes.level(-1));
+    assertEquals(2, lanes.level(7));
+    assertArrayEquals(new int[] {1, 3, 5}, lanes.threads(10));
+  }
+
+  private static VertXMessage message(int priority) {
+    VertXMessage msg = new VertXMessage();
+    msg.setPriority(priority);
+    msg.setStartProcessingTime(System.currentTimeMillis());
+    return msg;
+  }
+}
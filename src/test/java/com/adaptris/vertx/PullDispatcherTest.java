@@ -0,0 +1,120 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+
+public class PullDispatcherTest {
+
+  private static final String CLUSTER = "cluster";
+
+  @Mock
+  private ClusteredEventBus mockClusteredEventBus;
+  @Mock
+  private EventBus mockEventBus;
+  @Mock
+  private MessageConsumer<Object> mockConsumer;
+  @Mock
+  private Handler<Message<VertXMessage>> mockHandler;
+  @Mock
+  private Message<JsonObject> mockRequest;
+
+  private final AtomicInteger freeSlots = new AtomicInteger();
+
+  private PullDispatcher dispatcher;
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+    when(mockClusteredEventBus.getEventBus()).thenReturn(mockEventBus);
+    doReturn(mockConsumer).when(mockEventBus).consumer(anyString(), any());
+    PullDispatch config = new PullDispatch();
+    config.setBatchSize(2);
+    dispatcher = new PullDispatcher(mockClusteredEventBus, config, CLUSTER);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void testAnnounce() throws Exception {
+    dispatcher.announce("target");
+
+    verify(mockEventBus).publish(eq("target" + PullDispatcher.AVAILABLE_SUFFIX), startsWith(CLUSTER));
+  }
+
+  @Test
+  public void testPullOnlyWithFreeSlots() throws Exception {
+    VertXMessage message = new VertXMessage();
+    dispatcher.start((target, max) -> Arrays.asList(message), mockHandler, freeSlots::get);
+
+    dispatcher.pull("sender");
+    verify(mockEventBus, never()).send(eq("sender"), any());
+
+    freeSlots.set(5);
+    dispatcher.pull("sender");
+    ArgumentCaptor<JsonObject> request = ArgumentCaptor.forClass(JsonObject.class);
+    verify(mockEventBus).send(eq("sender"), request.capture());
+    assertEquals(2, request.getValue().getInteger("slots").intValue());
+    assertEquals(CLUSTER, request.getValue().getString("target"));
+  }
+
+  @Test
+  public void testPullAgainAfterFinishing() throws Exception {
+    dispatcher.start((target, max) -> Arrays.asList(), mockHandler, freeSlots::get);
+
+    dispatcher.pullAgain("sender");
+
+    ArgumentCaptor<JsonObject> request = ArgumentCaptor.forClass(JsonObject.class);
+    verify(mockEventBus).send(eq("sender"), request.capture());
+    assertEquals(1, request.getValue().getInteger("slots").intValue());
+  }
+
+  @Test
+  public void testServesPullRequests() throws Exception {
+    VertXMessage message = new VertXMessage();
+    dispatcher.start((target, max) -> Arrays.asList(message), mockHandler, freeSlots::get);
+    ArgumentCaptor<String> address = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<Handler<Message<JsonObject>>> handler = handlerCaptor();
+    verify(mockEventBus, times(3)).consumer(address.capture(), handler.capture());
+    when(mockRequest.body())
+    .thenReturn(new JsonObject().put("target", CLUSTER).put("replyTo", "worker").put("slots", 1));
+
+    handler.getAllValues().get(0).handle(mockRequest);
+
+    verify(mockClusteredEventBus).send("worker", message, true);
+    assertEquals(address.getAllValues().get(0), message.getHeaders().get(VertxHeaders.PULL_FROM));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ArgumentCaptor<Handler<Message<JsonObject>>> handlerCaptor() {
+    return ArgumentCaptor.forClass(Handler.class);
+  }
+}
@@ -0,0 +1,115 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Counter;
+import io.vertx.core.shareddata.SharedData;
+
+public class RateLimiterTest {
+
+  @Mock
+  private Vertx mockVertx;
+  @Mock
+  private SharedData mockSharedData;
+  @Mock
+  private Counter mockCounter;
+
+  private final AtomicInteger sent = new AtomicInteger();
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void testBurstThenWaitForTimer() throws Exception {
+    RateLimit config = new RateLimit(10);
+    config.setBurst(2);
+    RateLimiter limiter = new RateLimiter(config, () -> mockVertx);
+    for (int i = 0; i < 3; i++) {
+      limiter.submit("target", sent::incrementAndGet);
+    }
+    assertEquals(2, sent.get());
+    assertEquals(1, limiter.pending().get("target").intValue());
+
+    ArgumentCaptor<Handler<Long>> timer = timerCaptor();
+    verify(mockVertx).setTimer(anyLong(), timer.capture());
+    Thread.sleep(150);
+    timer.getValue().handle(1L);
+    assertEquals(3, sent.get());
+    assertEquals(0, limiter.pending().get("target").intValue());
+  }
+
+  @Test
+  public void testTargetsAreSeparate() throws Exception {
+    RateLimiter limiter = new RateLimiter(new RateLimit(1), () -> mockVertx);
+    limiter.submit("a", sent::incrementAndGet);
+    limiter.submit("b", sent::incrementAndGet);
+    limiter.submit("a", sent::incrementAndGet);
+
+    assertEquals(2, sent.get());
+    assertEquals(1, limiter.pending().get("a").intValue());
+    assertEquals(0, limiter.pending().get("b").intValue());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testClusterWideLease() throws Exception {
+    RateLimit config = new RateLimit(100);
+    config.setClusterWide(true);
+    config.setLeaseSize(5);
+    when(mockVertx.sharedData()).thenReturn(mockSharedData);
+    doAnswer(invocation -> {
+      ((Handler<Object>) invocation.getArgument(1)).handle(Future.succeededFuture(mockCounter));
+      return null;
+    }).when(mockSharedData).getCounter(eq(RateLimiter.COUNTER_PREFIX + "target"), any());
+    doAnswer(invocation -> {
+      ((Handler<Object>) invocation.getArgument(0)).handle(Future.succeededFuture(0L));
+      return null;
+    }).when(mockCounter).get(any());
+    doAnswer(invocation -> {
+      ((Handler<Object>) invocation.getArgument(2)).handle(Future.succeededFuture(true));
+      return null;
+    }).when(mockCounter).compareAndSet(eq(0L), anyLong(), any());
+
+    RateLimiter limiter = new RateLimiter(config, () -> mockVertx);
+    for (int i = 0; i < 5; i++) {
+      limiter.submit("target", sent::incrementAndGet);
+    }
+    assertEquals(5, sent.get());
+    // one lease covered all of them.
+    verify(mockSharedData).getCounter(eq(RateLimiter.COUNTER_PREFIX + "target"), any());
+    verify(mockVertx, never()).setTimer(anyLong(), any());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ArgumentCaptor<Handler<Long>> timerCaptor() {
+    return ArgumentCaptor.forClass(Handler.class);
+  }
+}
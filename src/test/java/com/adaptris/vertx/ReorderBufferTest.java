@@ -0,0 +1,125 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReorderBufferTest {
+
+  private final List<String> released = new ArrayList<>();
+
+  private final List<String> late = new ArrayList<>();
+
+  @Test
+  public void testReleasesInOrder() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(10);
+    assertEquals(0, buffer.register("", "1", 0));
+    assertEquals(1, buffer.register("", "2", 0));
+    assertEquals(2, buffer.register("", "3", 0));
+
+    buffer.complete("3", "three", released::add, late::add);
+    buffer.complete("2", "two", released::add, late::add);
+    assertEquals(Collections.emptyList(), released);
+    assertEquals(2, buffer.held());
+
+    buffer.complete("1", "one", released::add, late::add);
+    assertEquals(Arrays.asList("one", "two", "three"), released);
+    assertEquals(0, buffer.held());
+  }
+
+  @Test
+  public void testSequencesAreIndependent() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(10);
+    buffer.register("a", "a1", 0);
+    buffer.register("b", "b1", 0);
+    buffer.register("a", "a2", 0);
+
+    buffer.complete("a2", "a2", released::add, late::add);
+    buffer.complete("b1", "b1", released::add, late::add);
+    assertEquals(Arrays.asList("b1"), released);
+
+    buffer.complete("a1", "a1", released::add, late::add);
+    assertEquals(Arrays.asList("b1", "a1", "a2"), released);
+  }
+
+  @Test
+  public void testSkip() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(10);
+    buffer.register("", "1", 0);
+    buffer.register("", "2", 0);
+
+    buffer.complete("2", "two", released::add, late::add);
+    buffer.skip("1", released::add);
+    assertEquals(Arrays.asList("two"), released);
+  }
+
+  @Test
+  public void testSkipExpired() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(10);
+    buffer.register("", "1", 1000);
+    buffer.register("", "2", 1000);
+    buffer.register("", "3", 5000);
+
+    buffer.complete("3", "three", released::add, late::add);
+    buffer.skipExpired(999, released::add);
+    assertEquals(Collections.emptyList(), released);
+
+    buffer.skipExpired(1001, released::add);
+    assertEquals(Arrays.asList("three"), released);
+  }
+
+  @Test
+  public void testBounded() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(2);
+    for (int i = 1; i <= 5; i++) {
+      buffer.register("", String.valueOf(i), 0);
+    }
+    buffer.complete("3", "three", released::add, late::add);
+    buffer.complete("4", "four", released::add, late::add);
+    assertEquals(Collections.emptyList(), released);
+
+    // one too many, gaps are skipped until there is space.
+    buffer.complete("5", "five", released::add, late::add);
+    assertEquals(Arrays.asList("three", "four", "five"), released);
+  }
+
+  @Test
+  public void testUnknownReleasedImmediately() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(10);
+    buffer.register("", "1", 0);
+    buffer.complete("unknown", "unknown", released::add, late::add);
+    assertEquals(Arrays.asList("unknown"), released);
+  }
+
+  @Test
+  public void testLateAfterExpiredNotReleased() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(10);
+    buffer.register("", "1", 1000);
+    buffer.register("", "2", 5000);
+    buffer.complete("2", "two", released::add, late::add);
+    buffer.skipExpired(1001, released::add);
+    assertEquals(Arrays.asList("two"), released);
+
+    buffer.complete("1", "one", released::add, late::add);
+    assertEquals(Arrays.asList("two"), released);
+    assertEquals(Arrays.asList("one"), late);
+  }
+
+  @Test
+  public void testLateAfterSkipDropped() {
+    ReorderBuffer<String> buffer = new ReorderBuffer<>(10);
+    buffer.register("", "1", 0);
+    buffer.register("", "2", 0);
+    buffer.skip("1", released::add);
+    buffer.complete("2", "two", released::add, late::add);
+
+    buffer.complete("1", "one", released::add, late::add);
+    assertEquals(Arrays.asList("two"), released);
+    assertEquals(Collections.emptyList(), late);
+  }
+}
@@ -0,0 +1,40 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.adaptris.util.TimeInterval;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void testDefaults() {
+    RetryPolicy policy = new RetryPolicy();
+    assertEquals(3, policy.maxAttempts());
+    assertTrue(policy.retry(2));
+    assertFalse(policy.retry(3));
+  }
+
+  @Test
+  public void testDelayBackoffWithJitter() {
+    RetryPolicy policy = new RetryPolicy(10, new TimeInterval(100L, TimeUnit.MILLISECONDS),
+        new TimeInterval(1L, TimeUnit.SECONDS));
+    for (int i = 0; i < 100; i++) {
+      assertBetween(50, 100, policy.delay(1));
+      assertBetween(100, 200, policy.delay(2));
+      assertBetween(200, 400, policy.delay(3));
+      assertBetween(500, 1000, policy.delay(5));
+      assertBetween(500, 1000, policy.delay(64));
+    }
+  }
+
+  private static void assertBetween(long min, long max, long value) {
+    assertTrue(value + " < " + min, value >= min);
+    assertTrue(value + " > " + max, value <= max);
+  }
+}
@@ -0,0 +1,49 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.adaptris.core.ServiceCollection;
+import com.adaptris.core.ServiceList;
+import com.adaptris.core.services.LogMessageService;
+
+public class ServicePoolTest {
+
+  @Test
+  public void testBorrowIndependentCopies() throws Exception {
+    ServiceList template = new ServiceList();
+    template.add(new LogMessageService());
+    ServicePool<ServiceCollection> pool = new ServicePool<>(template, 3);
+    try {
+      pool.init();
+      pool.start();
+      assertEquals(3, pool.size());
+
+      assertSame(template, pool.borrow());
+      ServiceCollection first = pool.borrow();
+      ServiceCollection second = pool.borrow();
+      assertNotSame(first, second);
+      assertNotSame(template, first);
+      assertNotSame(template, second);
+      assertEquals(template.size(), first.size());
+
+      pool.release(first);
+      assertSame(first, pool.borrow());
+    } finally {
+      pool.stop();
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testAtLeastOneCopy() throws Exception {
+    ServiceList template = new ServiceList();
+    ServicePool<ServiceCollection> pool = new ServicePool<>(template, 0);
+    assertEquals(1, pool.size());
+    pool.init();
+    assertSame(template, pool.borrow());
+  }
+}
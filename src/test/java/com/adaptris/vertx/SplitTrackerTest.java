@@ -0,0 +1,59 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SplitTrackerTest {
+
+  @Test
+  public void testRepliesInSplitOrder() {
+    SplitTracker split = new SplitTracker(null);
+    VertXMessage first = new VertXMessage();
+    VertXMessage second = new VertXMessage();
+    split.add("1");
+    split.add("2");
+    assertFalse(split.sealed());
+
+    assertFalse(split.replied("2", second));
+    assertTrue(split.replied("1", first));
+    assertEquals(Arrays.asList(first, second), split.replies());
+  }
+
+  @Test
+  public void testRepliedBeforeSealed() {
+    SplitTracker split = new SplitTracker(null);
+    split.add("1");
+    assertFalse(split.replied("1", new VertXMessage()));
+    assertTrue(split.sealed());
+  }
+
+  @Test
+  public void testIgnoresUnknownAndDuplicateReplies() {
+    SplitTracker split = new SplitTracker(null);
+    split.add("1");
+    split.add("2");
+    split.sealed();
+
+    assertFalse(split.replied("3", new VertXMessage()));
+    assertFalse(split.replied("1", new VertXMessage()));
+    assertFalse(split.replied("1", new VertXMessage()));
+    assertTrue(split.replied("2", new VertXMessage()));
+  }
+
+  @Test
+  public void testFailed() {
+    SplitTracker split = new SplitTracker(null);
+    split.add("1");
+    split.sealed();
+
+    assertTrue(split.failed());
+    assertFalse(split.failed());
+    assertTrue(split.hasFailed());
+    assertFalse(split.replied("1", new VertXMessage()));
+  }
+}
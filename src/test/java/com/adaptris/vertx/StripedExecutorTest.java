@@ -0,0 +1,93 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testSameKeyInOrder() throws Exception {
+    StripedExecutor striped = new StripedExecutor(executor, 4);
+    List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      final int value = i;
+      striped.execute("key", () -> {
+        results.add(value);
+        done.countDown();
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Integer.valueOf(i), results.get(i));
+    }
+  }
+
+  @Test
+  public void testDifferentKeysInParallel() throws Exception {
+    StripedExecutor striped = new StripedExecutor(executor, 4);
+    String blockedKey = "a";
+    String otherKey = "b";
+    while (striped.stripe(otherKey) == striped.stripe(blockedKey)) {
+      otherKey += "b";
+    }
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch otherRan = new CountDownLatch(1);
+    CountDownLatch blocked = new CountDownLatch(1);
+    striped.execute(blockedKey, () -> {
+      blocked.countDown();
+      await(release);
+    });
+    striped.execute(blockedKey, () -> {});
+    striped.execute(otherKey, otherRan::countDown);
+
+    assertTrue(otherRan.await(10, TimeUnit.SECONDS));
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    assertEquals(1, striped.pending());
+    assertEquals(1, striped.depths().get(striped.stripe(blockedKey)).intValue());
+    release.countDown();
+  }
+
+  @Test
+  public void testStripeAssignment() {
+    StripedExecutor striped = new StripedExecutor(executor, 8);
+    assertEquals(striped.stripe("key"), striped.stripe("key"));
+    // no key, spread round robin
+    assertNotEquals(striped.stripe(null), striped.stripe(null));
+    assertEquals(Arrays.asList(0, 0, 0, 0, 0, 0, 0, 0), striped.depths());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
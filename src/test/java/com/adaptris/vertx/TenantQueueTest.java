@@ -0,0 +1,138 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.adaptris.util.KeyValuePair;
+
+public class TenantQueueTest {
+
+  @Test
+  public void testRoundRobin() throws Exception {
+    TenantQueue queue = new TenantQueue(new TenantFairness("tenant"), 10, false);
+    for (int i = 0; i < 3; i++) {
+      queue.put(message("noisy"));
+    }
+    queue.put(message("quiet"));
+
+    assertEquals("noisy", queue.poll().getTenant());
+    assertEquals("quiet", queue.poll().getTenant());
+    assertEquals("noisy", queue.poll().getTenant());
+    assertEquals("noisy", queue.poll().getTenant());
+    assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testWeighted() throws Exception {
+    TenantFairness config = new TenantFairness("tenant");
+    config.getWeights().add(new KeyValuePair("gold", "3"));
+    TenantQueue queue = new TenantQueue(config, 10, false);
+    for (int i = 0; i < 4; i++) {
+      queue.put(message("gold"));
+      queue.put(message("bronze"));
+    }
+
+    Map<String, Integer> served = new HashMap<>();
+    for (int i = 0; i < 4; i++) {
+      served.merge(queue.poll().getTenant(), 1, Integer::sum);
+    }
+    assertEquals(3, served.get("gold").intValue());
+    assertEquals(1, served.get("bronze").intValue());
+  }
+
+  @Test
+  public void testInFlightLimit() throws Exception {
+    TenantFairness config = new TenantFairness("tenant");
+    config.setMaxInFlightPerTenant(1);
+    TenantQueue queue = new TenantQueue(config, 10, true);
+    VertXMessage first = message("noisy");
+    queue.put(first);
+    queue.put(message("noisy"));
+
+    assertEquals(first, queue.poll());
+    assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    assertEquals(1, queue.inFlight().get("noisy").intValue());
+
+    queue.released(first.getAdaptrisMessage().getUniqueId());
+    assertEquals("noisy", queue.poll(1, TimeUnit.MILLISECONDS).getTenant());
+  }
+
+  @Test
+  public void testBoundedPerTenant() throws Exception {
+    TenantQueue queue = new TenantQueue(new TenantFairness("tenant"), 1, false);
+    assertTrue(queue.offer(message("noisy")));
+    assertFalse(queue.offer(message("noisy")));
+    assertFalse(queue.admits("noisy"));
+    assertTrue(queue.admits("quiet"));
+    assertTrue(queue.offer(message("quiet")));
+
+    assertEquals(2, queue.size());
+    assertEquals(1, queue.depths().get("noisy").intValue());
+    assertEquals(1, queue.depths().get("quiet").intValue());
+  }
+
+  @Test
+  public void testIteratorRemove() throws Exception {
+    TenantQueue queue = new TenantQueue(new TenantFairness("tenant"), 10, false);
+    queue.put(message("a"));
+    queue.put(message("b"));
+
+    Iterator<VertXMessage> messages = queue.iterator();
+    assertEquals("a", messages.next().getTenant());
+    messages.remove();
+
+    assertEquals(1, queue.size());
+    assertEquals("b", queue.poll().getTenant());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testLatencies() throws Exception {
+    // in flight, so not forgotten yet.
+    TenantQueue queue = new TenantQueue(new TenantFairness("tenant"), 10, true);
+    VertXMessage old = message("a");
+    old.setStartProcessingTime(System.currentTimeMillis() - 1000);
+    queue.put(old);
+    queue.put(message("b"));
+    queue.poll();
+
+    assertTrue(queue.latencies(95).get("a") >= 1000);
+    assertEquals(-1, queue.latencies(95).get("b").longValue());
+  }
+
+  @Test
+  public void testIdleTenantsForgotten() throws Exception {
+    TenantQueue queue = new TenantQueue(new TenantFairness("tenant"), 10, true);
+    VertXMessage first = message("a");
+    queue.put(first);
+    queue.put(message("b"));
+    queue.put(message("b"));
+
+    assertEquals(first, queue.poll());
+    assertEquals(0, queue.depths().get("a").intValue());
+    queue.released(first.getAdaptrisMessage().getUniqueId());
+    assertFalse(queue.depths().containsKey("a"));
+
+    // still round-robin between whoever is left, or comes back.
+    queue.put(message("a"));
+    assertEquals("b", queue.poll().getTenant());
+    assertEquals("a", queue.poll().getTenant());
+    assertEquals("b", queue.poll().getTenant());
+  }
+
+  private static VertXMessage message(String tenant) {
+    VertXMessage msg = new VertXMessage();
+    msg.setTenant(tenant);
+    msg.setStartProcessingTime(System.currentTimeMillis());
+    return msg;
+  }
+}
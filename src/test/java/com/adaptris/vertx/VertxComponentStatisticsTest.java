@@ -0,0 +1,83 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class VertxComponentStatisticsTest {
+
+  @Test
+  public void testRegisterAndRead() throws Exception {
+    ClusterStatistics statistics = new ClusterStatistics();
+    BlockingQueue<VertXMessage> queue = new ArrayBlockingQueue<>(10);
+    queue.add(new VertXMessage());
+    WorkerPool pool = new WorkerPool(2);
+    VertxComponentStatistics mbean = new VertxComponentStatistics(statistics, () -> queue, () -> pool,
+        AdaptrisMessageCodec::new);
+    try {
+      mbean.register(this, "my-workflow");
+      ObjectName name = mbean.objectName();
+      assertNotNull(name);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      statistics.messageSent();
+      statistics.messageSent();
+      statistics.messageReplied(2_000_000);
+      statistics.messageFailed();
+
+      assertEquals(1, server.getAttribute(name, "QueueDepth"));
+      assertEquals(9, server.getAttribute(name, "QueueRemainingCapacity"));
+      assertEquals(0, server.getAttribute(name, "InFlight"));
+      assertEquals(1L, server.getAttribute(name, "Replies"));
+      assertEquals(1L, server.getAttribute(name, "ReplyFailures"));
+      assertEquals(-1L, server.getAttribute(name, "QueueWaitP99Micros"));
+      long roundTrip = (Long) server.invoke(name, "latencyMicros", new Object[] {VertxComponentStatistics.ROUND_TRIP, 50.0},
+          new String[] {String.class.getName(), double.class.getName()});
+      assertTrue(roundTrip >= 1900 && roundTrip <= 2100);
+
+      mbean.unregister();
+      assertFalse(server.isRegistered(name));
+    } finally {
+      mbean.unregister();
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testRegisterLeavesExistingAlone() throws Exception {
+    VertxComponentStatistics first = new VertxComponentStatistics(new ClusterStatistics(), () -> null, () -> null, () -> null);
+    VertxComponentStatistics second = new VertxComponentStatistics(new ClusterStatistics(), () -> null, () -> null, () -> null);
+    try {
+      first.register(this, "my-workflow");
+      second.register(this, "my-workflow");
+      assertNull(second.objectName());
+      assertFalse(VertxComponentStatistics.registered().contains(second));
+
+      second.unregister();
+      assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(first.objectName()));
+      assertTrue(VertxComponentStatistics.registered().contains(first));
+    } finally {
+      first.unregister();
+      second.unregister();
+    }
+  }
+
+  @Test
+  public void testNoQueue() throws Exception {
+    VertxComponentStatistics mbean = new VertxComponentStatistics(new ClusterStatistics(), () -> null, () -> null,
+        () -> null);
+    assertEquals(-1, mbean.getQueueDepth());
+    assertEquals(0, mbean.getActiveThreads());
+    assertEquals(0, mbean.getEncodedMessages());
+  }
+}
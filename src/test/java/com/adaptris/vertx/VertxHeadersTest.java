@@ -0,0 +1,70 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.adaptris.core.SerializableAdaptrisMessage;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+
+public class VertxHeadersTest {
+
+  @Test
+  public void testAddHeaders() {
+    VertXMessage msg = new VertXMessage(new SerializableAdaptrisMessage("id1"));
+    msg.setPriority(5);
+    msg.setDeadline(1234L);
+    DeliveryOptions options = VertxHeaders.addHeaders(new DeliveryOptions(), "target", msg, SendMode.Mode.SINGLE);
+
+    Message<?> message = message(options.getHeaders());
+    assertEquals("id1", VertxHeaders.messageId(message));
+    assertEquals("target", VertxHeaders.target(message));
+    assertEquals(5, VertxHeaders.priority(message));
+    assertEquals(1234L, VertxHeaders.deadline(message));
+    assertEquals("SINGLE", options.getHeaders().get(VertxHeaders.SEND_MODE));
+  }
+
+  @Test
+  public void testConfiguredHeaders() {
+    VertXMessage msg = new VertXMessage(new SerializableAdaptrisMessage("id1"));
+    msg.setHeaders(Collections.singletonMap("tenant", "acme"));
+    msg.setStripeKey("order-1");
+    DeliveryOptions options = VertxHeaders.addHeaders(new DeliveryOptions(), "target", msg, SendMode.Mode.SINGLE);
+    assertEquals("acme", options.getHeaders().get("tenant"));
+    assertEquals("order-1", VertxHeaders.stripeKey(message(options.getHeaders())));
+    assertEquals("id1", options.getHeaders().get(VertxHeaders.MESSAGE_ID));
+  }
+
+  @Test
+  public void testNoDeadline() {
+    VertXMessage msg = new VertXMessage(new SerializableAdaptrisMessage("id1"));
+    DeliveryOptions options = VertxHeaders.addHeaders(new DeliveryOptions(), "target", msg, SendMode.Mode.ALL);
+    assertNull(options.getHeaders().get(VertxHeaders.DEADLINE));
+    assertEquals(0L, VertxHeaders.deadline(message(options.getHeaders())));
+  }
+
+  @Test
+  public void testMissingHeaders() {
+    Message<?> message = message(null);
+    assertNull(VertxHeaders.messageId(message));
+    assertEquals(0, VertxHeaders.priority(message));
+    assertEquals(0L, VertxHeaders.deadline(message));
+
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap().add(VertxHeaders.DEADLINE, "not-a-number");
+    assertEquals(0L, VertxHeaders.deadline(message(headers)));
+  }
+
+  private static Message<?> message(MultiMap headers) {
+    Message<?> message = mock(Message.class);
+    when(message.headers()).thenReturn(headers);
+    return message;
+  }
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import com.adaptris.core.SerializableAdaptrisMessage;
@@ -31,4 +32,24 @@ public class VertxMessageTest {
     assertNotNull(m1.toString());
   }
 
+  @Test
+  public void testBuilder() {
+    SerializableAdaptrisMessage msg = new SerializableAdaptrisMessage("id1");
+    ServiceRecord record = new ServiceRecord();
+    VertXMessage m1 = VertXMessage.builder().adaptrisMessage(msg).serviceRecord(record).startProcessingTime(10L).build();
+    assertSame(msg, m1.getAdaptrisMessage());
+    assertSame(record, m1.getServiceRecord());
+    assertEquals(10L, m1.getStartProcessingTime());
+  }
+
+  @Test
+  public void testLazyDefaults() {
+    VertXMessage m1 = new VertXMessage(new SerializableAdaptrisMessage("id1"));
+    assertNotNull(m1.getServiceRecord());
+    assertSame(m1.getServiceRecord(), m1.getServiceRecord());
+    VertXMessage m2 = new VertXMessage();
+    assertNotNull(m2.getAdaptrisMessage().getUniqueId());
+    assertSame(m2.getAdaptrisMessage(), m2.getAdaptrisMessage());
+  }
+
 }
@@ -4,9 +4,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,7 +36,10 @@ import com.adaptris.interlok.InterlokException;
 import com.adaptris.interlok.config.DataInputParameter;
 import com.adaptris.interlok.junit.scaffolding.services.ExampleServiceCase;
 
+import io.vertx.core.MultiMap;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 
 public class VertxServiceTest extends ExampleServiceCase {
 
@@ -177,6 +183,19 @@ public class VertxServiceTest extends ExampleServiceCase {
     assertEquals(ServiceState.ERROR, vertXMessage.getServiceRecord().getServices().get(0).getState());
   }
 
+  @Test
+  public void testReceiveMessageExpiredHeader() throws Exception {
+    when(mockVertxMessage.headers())
+    .thenReturn(MultiMap.caseInsensitiveMultiMap().add(VertxHeaders.DEADLINE, String.valueOf(System.currentTimeMillis() - 1000)));
+
+    vertxService.handle(mockVertxMessage);
+
+    verify(mockVertxMessage, timeout(5000)).fail(eq(FailureCode.EXPIRED.code()), anyString());
+    verify(mockVertxMessage, never()).body();
+    verify(wrappedService, never()).doService(any(AdaptrisMessage.class));
+    assertEquals(1, vertxService.statistics().getExpired());
+  }
+
   @Test
   public void testReceiveMessageTranslateFails() throws Exception {
     AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
@@ -244,6 +263,19 @@ public class VertxServiceTest extends ExampleServiceCase {
     verify(mockProcessingExceptionHandler).handleProcessingException(any(AdaptrisMessage.class));
   }
 
+  @Test
+  public void testReplyFailureRunsExceptionHandler() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    VertXMessage vertXMessage = new VertXMessageTranslator().translate(adaptrisMessage);
+
+    vertxService.setReplyServiceExceptionHandler(mockProcessingExceptionHandler);
+
+    vertxService.handleMessageFailure(vertXMessage, new ReplyException(ReplyFailure.TIMEOUT, "timed out"));
+
+    verify(replyService, never()).doService(any(AdaptrisMessage.class));
+    verify(mockProcessingExceptionHandler).handleProcessingException(any(AdaptrisMessage.class));
+  }
+
   @Override
   protected Object retrieveObjectForSampleConfig() {
     VertxService vertxService = new VertxService();
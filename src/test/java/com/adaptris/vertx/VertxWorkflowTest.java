@@ -1,21 +1,32 @@
 package com.adaptris.vertx;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -33,6 +44,8 @@ import com.adaptris.core.ServiceException;
 import com.adaptris.core.WorkflowImp;
 import com.adaptris.core.common.ConstantDataInputParameter;
 import com.adaptris.core.services.LogMessageService;
+import com.adaptris.core.services.aggregator.MessageAggregator;
+import com.adaptris.core.services.splitter.MessageSplitter;
 import com.adaptris.core.stubs.MockChannel;
 import com.adaptris.core.stubs.MockNonStandardRequestReplyProducer;
 import com.adaptris.core.util.LifecycleHelper;
@@ -41,7 +54,10 @@ import com.adaptris.interlok.junit.scaffolding.ExampleWorkflowCase;
 import com.adaptris.interlok.types.InterlokMessage;
 import com.adaptris.util.TimeInterval;
 
+import io.vertx.core.MultiMap;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 
 public class VertxWorkflowTest extends ExampleWorkflowCase {
 
@@ -71,6 +87,10 @@ public class VertxWorkflowTest extends ExampleWorkflowCase {
   private AdaptrisMessageProducerImp mockProducer;
   @Mock
   private ArrayBlockingQueue<VertXMessage> mockInternalprocessingQueue;
+  @Mock
+  private MessageAggregator mockAggregator;
+  @Mock
+  private MessageSplitter mockSplitter;
 
   private AutoCloseable closeable;
 
@@ -296,6 +316,82 @@ public class VertxWorkflowTest extends ExampleWorkflowCase {
     verify(mockVertxMessage).reply(vertXMessage);
   }
 
+  @Test
+  public void testReceivedVertxMessageExpiredHeader() throws Exception {
+    when(mockVertxMessage.headers())
+    .thenReturn(MultiMap.caseInsensitiveMultiMap().add(VertxHeaders.DEADLINE, String.valueOf(System.currentTimeMillis() - 1000)));
+    vertxWorkflow.getServiceCollection().add(mockService1);
+
+    vertxWorkflow.onVertxMessage(mockVertxMessage);
+
+    verify(mockVertxMessage).fail(eq(FailureCode.EXPIRED.code()), anyString());
+    verify(mockVertxMessage, never()).body();
+    verify(mockService1, never()).doService(any());
+    assertEquals(1, vertxWorkflow.statistics().getExpired());
+  }
+
+  @Test
+  public void testHandleRejectsWhenOverloaded() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    WorkerPool pool = new WorkerPool(1);
+    try {
+      pool.submit(() -> release.await(1, TimeUnit.MINUTES));
+      pool.submit(() -> release.await(1, TimeUnit.MINUTES));
+      vertxWorkflow.setExecutorService(pool);
+      vertxWorkflow.setLoadShedding(new LoadShedding(1, null));
+
+      vertxWorkflow.handle(mockVertxMessage);
+
+      verify(mockVertxMessage).fail(eq(FailureCode.OVERLOADED.code()), anyString());
+      verify(mockVertxMessage, never()).body();
+      assertEquals(1, vertxWorkflow.statistics().getRejected());
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testReceivedVertxMessageExpiresBetweenServices() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    VertXMessage vertXMessage = new VertXMessageTranslator().translate(adaptrisMessage);
+    long deadline = System.currentTimeMillis() + 200;
+    vertXMessage.setDeadline(deadline);
+
+    when(mockVertxMessage.body())
+    .thenReturn(vertXMessage);
+    doAnswer(invocation -> {
+      Thread.sleep(500);
+      return null;
+    }).when(mockService1).doService(any());
+
+    vertxWorkflow.getServiceCollection().add(mockService1);
+    vertxWorkflow.getServiceCollection().add(mockService2);
+
+    vertxWorkflow.onVertxMessage(mockVertxMessage);
+
+    verify(mockService1).doService(any());
+    verify(mockService2, never()).doService(any());
+    verify(mockVertxMessage).reply(vertXMessage);
+    assertEquals(ServiceState.COMPLETE, vertXMessage.getServiceRecord().getServices().get(0).getState());
+    assertEquals(ServiceState.EXPIRED, vertXMessage.getServiceRecord().getServices().get(1).getState());
+    assertEquals(1, vertxWorkflow.statistics().getExpired());
+  }
+
+  @Test
+  public void testItemExpiryFromMetadata() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    vertxWorkflow.setItemExpiryTimeout(new TimeInterval(10L, TimeUnit.SECONDS));
+    assertEquals(10000L, vertxWorkflow.itemExpiryTimeout(adaptrisMessage));
+
+    vertxWorkflow.setItemExpiryMetadataKey("expiry");
+    assertEquals(10000L, vertxWorkflow.itemExpiryTimeout(adaptrisMessage));
+    adaptrisMessage.addMetadata("expiry", "500");
+    assertEquals(500L, vertxWorkflow.itemExpiryTimeout(adaptrisMessage));
+    adaptrisMessage.addMetadata("expiry", "not-a-number");
+    assertEquals(10000L, vertxWorkflow.itemExpiryTimeout(adaptrisMessage));
+  }
+
   @Test
   public void testOnMessageTargetFails() throws Exception {
     AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
@@ -316,6 +412,23 @@ public class VertxWorkflowTest extends ExampleWorkflowCase {
     verify(mockErrorHandler).handleProcessingException(any(AdaptrisMessage.class));
   }
 
+  @Test
+  public void testOnMessageResolvesTargetOnce() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    vertxWorkflow.setTargetComponentId(mockTargetWorkflowId);
+    when(mockTargetWorkflowId.extract(any(InterlokMessage.class))).thenReturn("SomeWorkflowID");
+
+    vertxWorkflow.onAdaptrisMessage(adaptrisMessage);
+    VertXMessage queued = vertxWorkflow.getProcessingQueue().peek();
+    if (queued != null) {
+      assertEquals("SomeWorkflowID", queued.getTargetComponentId());
+      vertxWorkflow.processQueuedMessage();
+    }
+
+    verify(mockClusteredEventBus, timeout(5000)).send(eq("SomeWorkflowID"), any(), anyBoolean());
+    verify(mockTargetWorkflowId, times(1)).extract(any(InterlokMessage.class));
+  }
+
   @Test
   public void testOnMessageSendToSingle() throws Exception {
     AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
@@ -381,6 +494,19 @@ public class VertxWorkflowTest extends ExampleWorkflowCase {
     verify(mockErrorHandler).handleProcessingException(any(AdaptrisMessage.class));
   }
 
+  @Test
+  public void testHandleMessageFailure() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    VertXMessage vertXMessage = new VertXMessageTranslator().translate(adaptrisMessage);
+
+    vertxWorkflow.registerActiveMsgErrorHandler(mockErrorHandler);
+
+    vertxWorkflow.handleMessageFailure(vertXMessage, new ReplyException(ReplyFailure.NO_HANDLERS, "nobody home"));
+
+    verify(mockErrorHandler).handleProcessingException(any(AdaptrisMessage.class));
+    verify(mockProducer, never()).produce(any(AdaptrisMessage.class));
+  }
+
   @Test
   public void testHandleMessageReplyDoesProduce() throws Exception {
     AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
@@ -397,6 +523,187 @@ public class VertxWorkflowTest extends ExampleWorkflowCase {
     verify(mockProducer).produce(any(AdaptrisMessage.class));
   }
 
+  @Test
+  public void testHandleGatheredReplies() throws Exception {
+    vertxWorkflow.setGatherPolicy(new GatherPolicy(mockAggregator));
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    VertXMessage sent = new VertXMessageTranslator().translate(adaptrisMessage);
+    when(mockProducer.createName())
+    .thenReturn("name");
+    doAnswer(invocation -> {
+      ((AdaptrisMessage) invocation.getArguments()[0]).setContent("gathered", null);
+      return null;
+    }).when(mockAggregator).aggregate(any(), any());
+
+    vertxWorkflow.handleGatheredReplies(sent, Arrays.asList(reply(adaptrisMessage), reply(adaptrisMessage)));
+
+    ArgumentCaptor<List<AdaptrisMessage>> gathered = messagesCaptor();
+    verify(mockAggregator).aggregate(any(), gathered.capture());
+    assertEquals(2, gathered.getValue().size());
+    ArgumentCaptor<AdaptrisMessage> produced = ArgumentCaptor.forClass(AdaptrisMessage.class);
+    verify(mockProducer).produce(produced.capture());
+    assertEquals("gathered", produced.getValue().getContent());
+  }
+
+  @Test
+  public void testSplitMessage() throws Exception {
+    AdaptrisMessage first = DefaultMessageFactory.getDefaultInstance().newMessage("first");
+    AdaptrisMessage second = DefaultMessageFactory.getDefaultInstance().newMessage("second");
+    when(mockSplitter.splitMessage(any()))
+    .thenReturn(Arrays.asList(first, second));
+    vertxWorkflow.setSplitPolicy(new SplitPolicy(mockSplitter, mockAggregator));
+    vertxWorkflow.setProcessingQueue(mockInternalprocessingQueue);
+    when(mockProducer.createName())
+    .thenReturn("name");
+
+    AdaptrisMessage original = DefaultMessageFactory.getDefaultInstance().newMessage("first\nsecond");
+    vertxWorkflow.onAdaptrisMessage(original);
+    verify(mockInternalprocessingQueue, times(2)).put(any());
+
+    when(mockReplyVertxMessage.body())
+    .thenReturn(reply(second));
+    vertxWorkflow.handleMessageReply(mockReplyVertxMessage);
+    verify(mockAggregator, never()).aggregate(any(), any());
+
+    when(mockReplyVertxMessage.body())
+    .thenReturn(reply(first));
+    vertxWorkflow.handleMessageReply(mockReplyVertxMessage);
+
+    ArgumentCaptor<List<AdaptrisMessage>> parts = messagesCaptor();
+    verify(mockAggregator).aggregate(any(), parts.capture());
+    List<AdaptrisMessage> joined = parts.getValue();
+    assertEquals(first.getUniqueId(), joined.get(0).getUniqueId());
+    assertEquals(second.getUniqueId(), joined.get(1).getUniqueId());
+    ArgumentCaptor<AdaptrisMessage> produced = ArgumentCaptor.forClass(AdaptrisMessage.class);
+    verify(mockProducer).produce(produced.capture());
+    assertEquals(original.getUniqueId(), produced.getValue().getUniqueId());
+  }
+
+  @Test
+  public void testSplitMessagePartFails() throws Exception {
+    AdaptrisMessage first = DefaultMessageFactory.getDefaultInstance().newMessage("first");
+    AdaptrisMessage second = DefaultMessageFactory.getDefaultInstance().newMessage("second");
+    when(mockSplitter.splitMessage(any()))
+    .thenReturn(Arrays.asList(first, second));
+    vertxWorkflow.setSplitPolicy(new SplitPolicy(mockSplitter, mockAggregator));
+    vertxWorkflow.setProcessingQueue(mockInternalprocessingQueue);
+    vertxWorkflow.registerActiveMsgErrorHandler(mockErrorHandler);
+
+    vertxWorkflow.onAdaptrisMessage(DefaultMessageFactory.getDefaultInstance().newMessage("first\nsecond"));
+    vertxWorkflow.handleMessageFailure(new VertXMessageTranslator().translate(first), new Exception("expected"));
+    when(mockReplyVertxMessage.body())
+    .thenReturn(reply(second));
+    vertxWorkflow.handleMessageReply(mockReplyVertxMessage);
+
+    verify(mockErrorHandler).handleProcessingException(any());
+    verify(mockAggregator, never()).aggregate(any(), any());
+    verify(mockProducer, never()).produce(any(AdaptrisMessage.class));
+  }
+
+  @Test
+  public void testRejectedMessageDropsObjectMetadata() throws Exception {
+    vertxWorkflow.setTargetComponentId(mockTargetWorkflowId);
+    when(mockTargetWorkflowId.extract(any()))
+    .thenThrow(new CoreException("expected"));
+    vertxWorkflow.registerActiveMsgErrorHandler(mockErrorHandler);
+    AdaptrisMessage msg = DefaultMessageFactory.getDefaultInstance().newMessage();
+    msg.addObjectHeader("key", "value");
+
+    vertxWorkflow.onAdaptrisMessage(msg);
+
+    verify(mockErrorHandler).handleProcessingException(any());
+    assertTrue(vertxWorkflow.objectMetadataCache().isEmpty());
+  }
+
+  @Test
+  public void testTakeForPull() throws Exception {
+    vertxWorkflow.setPullDispatch(new PullDispatch());
+    vertxWorkflow.setProcessingQueue(new ArrayBlockingQueue<>(10));
+    AdaptrisMessage first = DefaultMessageFactory.getDefaultInstance().newMessage();
+    AdaptrisMessage second = DefaultMessageFactory.getDefaultInstance().newMessage();
+    vertxWorkflow.onAdaptrisMessage(first);
+    vertxWorkflow.onAdaptrisMessage(second);
+
+    assertEquals(0, vertxWorkflow.take("SomeOtherWorkflowID", 5).size());
+    List<VertXMessage> taken = vertxWorkflow.take("SomeWorkflowID", 1);
+    assertEquals(1, taken.size());
+    assertEquals(first.getUniqueId(), taken.get(0).getAdaptrisMessage().getUniqueId());
+    assertEquals(1, vertxWorkflow.getProcessingQueue().size());
+    verify(mockClusteredEventBus, never()).send(anyString(), any(), anyBoolean());
+  }
+
+  @Test(timeout = 10000)
+  public void testTakeExpiredForPull() throws Exception {
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency();
+    concurrency.setInitialLimit(1);
+    concurrency.setMinLimit(1);
+    vertxWorkflow.setAdaptiveConcurrency(concurrency);
+    vertxWorkflow.setPullDispatch(new PullDispatch());
+    vertxWorkflow.setItemExpiryTimeout(new TimeInterval(1L, TimeUnit.MILLISECONDS));
+    vertxWorkflow.initialiseWorkflow();
+    vertxWorkflow.registerActiveMsgErrorHandler(mockErrorHandler);
+    vertxWorkflow.onAdaptrisMessage(DefaultMessageFactory.getDefaultInstance().newMessage());
+    Thread.sleep(10);
+
+    assertEquals(0, vertxWorkflow.take("SomeWorkflowID", 1).size());
+    verify(mockErrorHandler).handleProcessingException(any());
+    assertTrue(vertxWorkflow.objectMetadataCache().isEmpty());
+    // the limiter let go of it; otherwise this would block.
+    vertxWorkflow.onAdaptrisMessage(DefaultMessageFactory.getDefaultInstance().newMessage());
+    assertEquals(1, vertxWorkflow.getProcessingQueue().size());
+  }
+
+  @Test
+  public void testInitPullWithTenantFairness() throws Exception {
+    vertxWorkflow.setPullDispatch(new PullDispatch());
+    vertxWorkflow.setTenantFairness(new TenantFairness("tenant"));
+
+    try {
+      vertxWorkflow.initialiseWorkflow();
+      fail("Expect a core exception, with pull dispatch and tenant fairness");
+    } catch (CoreException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInitPullWithPriorityLanes() throws Exception {
+    vertxWorkflow.setPullDispatch(new PullDispatch());
+    vertxWorkflow.setPriorityLanes(new PriorityLanes());
+
+    try {
+      vertxWorkflow.initialiseWorkflow();
+      fail("Expect a core exception, with pull dispatch and priority lanes");
+    } catch (CoreException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInitStripedWithPriorityLanes() throws Exception {
+    vertxWorkflow.setStripedExecution(new StripedExecution());
+    vertxWorkflow.setPriorityLanes(new PriorityLanes());
+
+    try {
+      vertxWorkflow.initialiseWorkflow();
+      fail("Expect a core exception, with striped execution and priority lanes");
+    } catch (CoreException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInitGatherWithoutPolicy() throws Exception {
+    vertxWorkflow.setTargetSendMode(SendMode.Mode.GATHER);
+
+    try {
+      vertxWorkflow.initialiseWorkflow();
+      fail("Expect a core exception, with no gather-policy");
+    } catch (CoreException ex) {
+      // expected
+    }
+  }
+
   @Test
   public void testHandleMessageReplyProduceFails() throws Exception {
     AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
@@ -444,6 +751,139 @@ public class VertxWorkflowTest extends ExampleWorkflowCase {
     assertEquals("ObjectHeaderValue", message.getObjectHeaders().get("ObjectHeaderKey"));
   }
 
+  @Test
+  public void testCallbackDeferredUntilProduced() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    AtomicBoolean acknowledged = new AtomicBoolean();
+
+    vertxWorkflow.setProcessingQueue(mockInternalprocessingQueue);
+
+    vertxWorkflow.onAdaptrisMessage(adaptrisMessage, m -> acknowledged.set(true));
+    assertFalse(acknowledged.get());
+
+    VertXMessage vertXMessage = new VertXMessageTranslator().translate(adaptrisMessage);
+    vertXMessage.getServiceRecord().addService(new InterlokService("SomeId", ServiceState.COMPLETE));
+    when(mockReplyVertxMessage.body())
+    .thenReturn(vertXMessage);
+    when(mockProducer.createName())
+    .thenReturn("name");
+
+    vertxWorkflow.handleMessageReply(mockReplyVertxMessage);
+
+    verify(mockProducer).produce(any(AdaptrisMessage.class));
+    assertTrue(acknowledged.get());
+  }
+
+  @Test
+  public void testCallbackNotInvokedOnError() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    AtomicBoolean acknowledged = new AtomicBoolean();
+
+    vertxWorkflow.setProcessingQueue(mockInternalprocessingQueue);
+    vertxWorkflow.registerActiveMsgErrorHandler(mockErrorHandler);
+
+    vertxWorkflow.onAdaptrisMessage(adaptrisMessage, m -> acknowledged.set(true));
+
+    VertXMessage vertXMessage = new VertXMessageTranslator().translate(adaptrisMessage);
+    vertXMessage.getServiceRecord().addService(new InterlokService("SomeId", ServiceState.ERROR));
+    when(mockReplyVertxMessage.body())
+    .thenReturn(vertXMessage);
+
+    vertxWorkflow.handleMessageReply(mockReplyVertxMessage);
+
+    verify(mockErrorHandler).handleProcessingException(any(AdaptrisMessage.class));
+    assertFalse(acknowledged.get());
+  }
+
+  @Test
+  public void testCallbackImmediateWhenSendingToAll() throws Exception {
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    AtomicBoolean acknowledged = new AtomicBoolean();
+
+    vertxWorkflow.setTargetSendMode(SendMode.Mode.ALL);
+    vertxWorkflow.setProcessingQueue(mockInternalprocessingQueue);
+
+    vertxWorkflow.onAdaptrisMessage(adaptrisMessage, m -> acknowledged.set(true));
+
+    assertTrue(acknowledged.get());
+  }
+
+  @Test
+  public void testOrderedReplies() throws Exception {
+    LifecycleHelper.stopAndClose(channel);
+    vertxWorkflow.setReplyOrdering(new ReplyOrdering());
+    LifecycleHelper.initAndStart(channel);
+    vertxWorkflow.setProcessingQueue(mockInternalprocessingQueue);
+    when(mockProducer.createName())
+    .thenReturn("name");
+
+    AdaptrisMessage first = DefaultMessageFactory.getDefaultInstance().newMessage();
+    AdaptrisMessage second = DefaultMessageFactory.getDefaultInstance().newMessage();
+    vertxWorkflow.onAdaptrisMessage(first);
+    vertxWorkflow.onAdaptrisMessage(second);
+
+    when(mockReplyVertxMessage.body())
+    .thenReturn(reply(second));
+    vertxWorkflow.handleMessageReply(mockReplyVertxMessage);
+    verify(mockProducer, never()).produce(any(AdaptrisMessage.class));
+
+    when(mockReplyVertxMessage.body())
+    .thenReturn(reply(first));
+    vertxWorkflow.handleMessageReply(mockReplyVertxMessage);
+
+    ArgumentCaptor<AdaptrisMessage> produced = ArgumentCaptor.forClass(AdaptrisMessage.class);
+    verify(mockProducer, times(2)).produce(produced.capture());
+    assertEquals(first.getUniqueId(), produced.getAllValues().get(0).getUniqueId());
+    assertEquals(second.getUniqueId(), produced.getAllValues().get(1).getUniqueId());
+  }
+
+  @Test
+  public void testParallelStage() throws Exception {
+    LifecycleHelper.stopAndClose(channel);
+    vertxWorkflow.setParallelExecution(new ParallelExecution(new ParallelStage("service-1", "service-2")));
+    LifecycleHelper.initAndStart(channel);
+
+    AdaptrisMessage adaptrisMessage = DefaultMessageFactory.getDefaultInstance().newMessage();
+    VertXMessage vertXMessage = new VertXMessageTranslator().translate(adaptrisMessage);
+    when(mockVertxMessage.body())
+    .thenReturn(vertXMessage);
+    when(mockService1.getUniqueId()).thenReturn("service-1");
+    when(mockService2.getUniqueId()).thenReturn("service-2");
+    doAnswer(invocation -> {
+      ((AdaptrisMessage) invocation.getArguments()[0]).addMetadata("key1", "value1");
+      return null;
+    }).when(mockService1).doService(any());
+    doAnswer(invocation -> {
+      ((AdaptrisMessage) invocation.getArguments()[0]).addMetadata("key2", "value2");
+      return null;
+    }).when(mockService2).doService(any());
+    vertxWorkflow.getServiceCollection().add(mockService1);
+    vertxWorkflow.getServiceCollection().add(mockService2);
+
+    vertxWorkflow.onVertxMessage(mockVertxMessage);
+
+    ArgumentCaptor<VertXMessage> replied = ArgumentCaptor.forClass(VertXMessage.class);
+    verify(mockVertxMessage).reply(replied.capture());
+    AdaptrisMessage result = new VertXMessageTranslator().translate(replied.getValue());
+    assertEquals("value1", result.getMetadataValue("key1"));
+    assertEquals("value2", result.getMetadataValue("key2"));
+    assertEquals(2, replied.getValue().getServiceRecord().getServices().size());
+    for (InterlokService service : replied.getValue().getServiceRecord().getServices()) {
+      assertEquals(ServiceState.COMPLETE, service.getState());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ArgumentCaptor<List<AdaptrisMessage>> messagesCaptor() {
+    return ArgumentCaptor.forClass(List.class);
+  }
+
+  private static VertXMessage reply(AdaptrisMessage msg) throws Exception {
+    VertXMessage vertXMessage = new VertXMessageTranslator().translate(msg);
+    vertXMessage.getServiceRecord().addService(new InterlokService("SomeId", ServiceState.COMPLETE));
+    return vertXMessage;
+  }
+
   @Override
   protected WorkflowImp createWorkflowForGenericTests() throws Exception {
     VertxWorkflow workflow = new VertxWorkflow();
@@ -0,0 +1,61 @@
+package com.adaptris.vertx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class WireFormatNegotiatorTest {
+
+  private static final List<Byte> PREFERENCE = Arrays.asList(BinaryWireFormat.ID, AdaptrisMessageCodec.XSTREAM_JSON);
+
+  @Test
+  public void testAllNodesSupportBinary() {
+    Map<String, String> adverts = new HashMap<>();
+    adverts.put("node1|cluster", "1,0");
+    adverts.put("node2|cluster", "1,0");
+    Map<String, Byte> result = WireFormatNegotiator.resolve(adverts, Arrays.asList("node1", "node2"), PREFERENCE);
+    assertEquals(BinaryWireFormat.ID, result.get("cluster").byteValue());
+  }
+
+  @Test
+  public void testOneConsumerOnlySupportsXStream() {
+    Map<String, String> adverts = new HashMap<>();
+    adverts.put("node1|cluster", "1,0");
+    adverts.put("node2|cluster", "0");
+    adverts.put("node2|other", "1,0");
+    Map<String, Byte> result = WireFormatNegotiator.resolve(adverts, Arrays.asList("node1", "node2"), PREFERENCE);
+    assertEquals(AdaptrisMessageCodec.XSTREAM_JSON, result.get("cluster").byteValue());
+    assertEquals(BinaryWireFormat.ID, result.get("other").byteValue());
+  }
+
+  @Test
+  public void testNodeThatHasNotAdvertised() {
+    Map<String, String> adverts = new HashMap<>();
+    adverts.put("node1|cluster", "1,0");
+    Map<String, Byte> result = WireFormatNegotiator.resolve(adverts, Arrays.asList("node1", "old-node"), PREFERENCE);
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  public void testNodeThatHasLeftIsIgnored() {
+    Map<String, String> adverts = new HashMap<>();
+    adverts.put("node1|cluster", "1,0");
+    adverts.put("departed|cluster", "0");
+    Map<String, Byte> result = WireFormatNegotiator.resolve(adverts, Arrays.asList("node1"), PREFERENCE);
+    assertEquals(BinaryWireFormat.ID, result.get("cluster").byteValue());
+  }
+
+  @Test
+  public void testUnknownFormatsIgnored() {
+    Map<String, String> adverts = new HashMap<>();
+    adverts.put("node1|cluster", "7,rubbish,0");
+    Map<String, Byte> result = WireFormatNegotiator.resolve(adverts, Arrays.asList("node1"), PREFERENCE);
+    assertEquals(AdaptrisMessageCodec.XSTREAM_JSON, result.get("cluster").byteValue());
+  }
+}